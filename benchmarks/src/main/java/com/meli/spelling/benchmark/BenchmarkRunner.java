@@ -0,0 +1,31 @@
+package com.meli.spelling.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always with the GC
+ * profiler so the allocation rate of every benchmark is reported
+ * (gc.alloc.rate.norm is the number of bytes allocated by operation).
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Main method.
+	 *
+	 * @param args
+	 *            JMH options, e.g. CorrectionBenchmark -p distance=2.
+	 * @throws Exception
+	 *             if the benchmarks fail.
+	 */
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions options = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(options)
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,95 @@
+package com.meli.spelling.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.meli.spelling.checker.SpellingCorrector;
+import com.meli.spelling.suggestor.Suggestor;
+
+/**
+ * Spelling corrector and suggestor trained with a synthetic corpus. Both are
+ * singletons, so the configuration is set before they are used for the first
+ * time in the forked JVM; every combination of parameters runs on its own
+ * fork.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+@State(Scope.Benchmark)
+public class CheckerState {
+	/**
+	 * Seed of the corpus.
+	 */
+	static final long SEED = 20150801L;
+
+	/**
+	 * Number of names of the spelling corrector.
+	 */
+	@Param({ "20000" })
+	public int names;
+
+	/**
+	 * Number of cities of each state (names of the suggested context).
+	 */
+	@Param({ "5000" })
+	public int cities;
+
+	/**
+	 * Index of the suggestor (suffixArray or suffixTree).
+	 */
+	@Param({ "suffixArray" })
+	public String index;
+
+	/**
+	 * Directory of the corpus.
+	 */
+	File dir;
+
+	/**
+	 * Written corpus.
+	 */
+	SyntheticCorpus.Layout layout;
+
+	/**
+	 * Trained spelling corrector.
+	 */
+	SpellingCorrector corrector;
+
+	/**
+	 * Trained suggestor.
+	 */
+	Suggestor suggestor;
+
+	/**
+	 * Writes the corpus and trains the spelling corrector and the suggestor.
+	 *
+	 * @throws IOException
+	 *             if the corpus can not be written.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = File.createTempFile("checker", "corpus");
+		dir.delete();
+		layout = new SyntheticCorpus(SEED).write(dir, names, 24, cities, 500);
+		layout.configure();
+		System.setProperty("com.meli.checker.suggestor.index", index);
+		corrector = SpellingCorrector.getInstance();
+		suggestor = Suggestor.getInstance();
+	}
+
+	/**
+	 * Deletes the corpus.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+}
@@ -0,0 +1,90 @@
+package com.meli.spelling.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of correctSpelling with terms misspelled at a given distance, for
+ * names of a single word and of several words.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g", "-Dfile.encoding=UTF-8" })
+public class CorrectionBenchmark {
+	/**
+	 * Number of queries (a power of two).
+	 */
+	private static final int QUERIES = 1024;
+
+	/**
+	 * Edits applied to the names.
+	 */
+	@Param({ "1", "2", "3" })
+	public int distance;
+
+	/**
+	 * Names of a single word or of several words.
+	 */
+	@Param({ "single", "multi" })
+	public String words;
+
+	/**
+	 * Misspelled names.
+	 */
+	private String[] queries;
+
+	/**
+	 * Next query.
+	 */
+	private int next = 0;
+
+	/**
+	 * Misspells names of the corpus.
+	 *
+	 * @param checker
+	 *            trained with the corpus.
+	 */
+	@Setup(Level.Trial)
+	public void setup(CheckerState checker) {
+		boolean multi = "multi".equals(words);
+		List<String> names = new ArrayList<String>();
+		for (String name : checker.layout.names) {
+			if (name.indexOf(' ') >= 0 == multi) {
+				names.add(name);
+			}
+		}
+		SyntheticCorpus corpus = new SyntheticCorpus(CheckerState.SEED
+				+ distance);
+		queries = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			queries[i] = corpus.misspell(names.get(i % names.size()),
+					distance);
+		}
+	}
+
+	@Benchmark
+	public String correctSpelling(CheckerState checker) {
+		String query = queries[next++ & (QUERIES - 1)];
+		return checker.corrector.correctSpelling(query, SyntheticCorpus.SITE);
+	}
+}
@@ -0,0 +1,99 @@
+package com.meli.spelling.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.meli.spelling.checker.entities.Suggestion;
+import com.meli.spelling.utils.Utils;
+
+/**
+ * Latency of getSuggestion on the cities of a state by length of the key,
+ * returning every name (limit 0) or only the best ones. Keys are fragments of
+ * the names, as typed by the users.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g", "-Dfile.encoding=UTF-8" })
+public class SuggestionBenchmark {
+	/**
+	 * Number of keys (a power of two).
+	 */
+	private static final int KEYS = 1024;
+
+	/**
+	 * Length of the keys.
+	 */
+	@Param({ "1", "2", "3", "5", "8" })
+	public int length;
+
+	/**
+	 * Maximum number of suggestions, 0 for all of them.
+	 */
+	@Param({ "0", "10" })
+	public int limit;
+
+	/**
+	 * Fragments of the names.
+	 */
+	private String[] keys;
+
+	/**
+	 * Context of the cities of the state.
+	 */
+	private String context;
+
+	/**
+	 * Next key.
+	 */
+	private int next = 0;
+
+	/**
+	 * Takes fragments of the names of the cities.
+	 *
+	 * @param checker
+	 *            trained with the corpus.
+	 */
+	@Setup(Level.Trial)
+	public void setup(CheckerState checker) {
+		int code = new Utils().firstLetterUpperCaseOfEachWord(
+				checker.layout.state).hashCode();
+		context = String.valueOf(code < 0 ? -code : code);
+		List<String> cities = checker.layout.stateCities;
+		Random random = new Random(CheckerState.SEED + length);
+		keys = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			String city = cities.get(random.nextInt(cities.size()));
+			while (city.length() < length) {
+				city = cities.get(random.nextInt(cities.size()));
+			}
+			int start = random.nextInt(city.length() - length + 1);
+			keys[i] = city.substring(start, start + length);
+		}
+	}
+
+	@Benchmark
+	public List<Suggestion> getSuggestion(CheckerState checker) {
+		String key = keys[next++ & (KEYS - 1)];
+		return checker.suggestor.getSuggestion(key, context, true, limit);
+	}
+}
@@ -0,0 +1,306 @@
+package com.meli.spelling.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import com.meli.spelling.utils.Utils;
+
+/**
+ * This class generates names that look like the real ones (Spanish syllables,
+ * common prefixes like San or Villa, one to four words) and writes them with
+ * the layout of bin/names, so the benchmarks do not depend on the real files.
+ * The same seed always generates the same corpus.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class SyntheticCorpus {
+	/**
+	 * Site of the generated corpus.
+	 */
+	public static final String SITE = "MLA";
+
+	/**
+	 * Syllables of the words.
+	 */
+	private static final String[] SYLLABLES = { "ba", "be", "bo", "ca", "ce",
+			"co", "cu", "cha", "da", "de", "do", "fe", "fi", "ga", "go", "gu",
+			"ja", "la", "le", "li", "llo", "lo", "ma", "me", "mi", "mo", "na",
+			"ne", "ni", "no", "pa", "pe", "pi", "po", "que", "ra", "re",
+			"ri", "ro", "rra", "sa", "se", "si", "so", "ta", "te", "ti", "to",
+			"tu", "va", "ve", "vi", "ya", "za", "al", "an", "ar", "el", "en",
+			"es", "in", "or", "ur" };
+
+	/**
+	 * Words that usually start a name.
+	 */
+	private static final String[] PREFIXES = { "san", "santa", "villa",
+			"general", "puerto", "colonia", "la", "los", "las", "el", "del",
+			"presidente", "coronel", "doctor", "nueva", "barrio" };
+
+	/**
+	 * Characters used to misspell terms.
+	 */
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzñáéíóú";
+
+	/**
+	 * Source of the corpus.
+	 */
+	private final Random random;
+
+	/**
+	 * Some utilities.
+	 */
+	private final Utils utils = new Utils();
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param seed
+	 *            of the corpus.
+	 */
+	public SyntheticCorpus(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Generates a word of two to four syllables.
+	 *
+	 * @return word in lower case.
+	 */
+	public String word() {
+		StringBuilder sb = new StringBuilder();
+		int syllables = 2 + random.nextInt(3);
+		for (int i = 0; i < syllables; i++) {
+			sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generates a name: a third of them start with a common prefix and most
+	 * of them have one or two words.
+	 *
+	 * @return name in lower case.
+	 */
+	public String name() {
+		StringBuilder sb = new StringBuilder();
+		if (random.nextInt(3) == 0) {
+			sb.append(PREFIXES[random.nextInt(PREFIXES.length)]).append(' ');
+		}
+		int words = 1 + (random.nextInt(10) < 6 ? 0 : 1 + random.nextInt(3));
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(word());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generates different names.
+	 *
+	 * @param count
+	 *            number of names.
+	 * @return names in lower case.
+	 */
+	public List<String> names(int count) {
+		LinkedHashSet<String> names = new LinkedHashSet<String>();
+		while (names.size() < count) {
+			names.add(name());
+		}
+		return new ArrayList<String>(names);
+	}
+
+	/**
+	 * Misspells a term applying random edits (deletion, insertion,
+	 * substitution or transposition). The distance to the term is at most the
+	 * number of edits.
+	 *
+	 * @param term
+	 *            to misspell.
+	 * @param edits
+	 *            number of edits.
+	 * @return misspelled term.
+	 */
+	public String misspell(String term, int edits) {
+		StringBuilder sb = new StringBuilder(term);
+		for (int i = 0; i < edits; i++) {
+			int position = random.nextInt(sb.length());
+			char letter = LETTERS.charAt(random.nextInt(LETTERS.length()));
+			switch (sb.length() > 2 ? random.nextInt(4) : 1) {
+			case 0:
+				sb.deleteCharAt(position);
+				break;
+			case 1:
+				sb.insert(position, letter);
+				break;
+			case 2:
+				sb.setCharAt(position, letter);
+				break;
+			default:
+				if (position == sb.length() - 1) {
+					position--;
+				}
+				char c = sb.charAt(position);
+				sb.setCharAt(position, sb.charAt(position + 1));
+				sb.setCharAt(position + 1, c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes a corpus with the layout of bin/names: the spelling names of
+	 * the site, its states, the cities of each state and the streets of the
+	 * first city of each state.
+	 *
+	 * @param dir
+	 *            where the corpus is written.
+	 * @param names
+	 *            number of names of the spelling corrector.
+	 * @param states
+	 *            number of states.
+	 * @param cities
+	 *            number of cities of each state.
+	 * @param streets
+	 *            number of streets of each city with streets.
+	 * @return layout of the written corpus.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public Layout write(File dir, int names, int states, int cities,
+			int streets) throws IOException {
+		Layout layout = new Layout(dir);
+		layout.names = names(names);
+		write(new File(layout.spelling, SITE), layout.names);
+		List<String> stateNames = titles(names(states));
+		write(new File(layout.states, SITE), stateNames);
+		for (String state : stateNames) {
+			List<String> cityNames = titles(names(cities));
+			write(new File(layout.cities, state), cityNames);
+			write(new File(new File(layout.streets, state), cityNames.get(0)),
+					titles(names(streets)));
+			if (layout.state == null) {
+				layout.state = state;
+				layout.stateCities = cityNames;
+			}
+		}
+		return layout;
+	}
+
+	/**
+	 * Writes names on a file, one by line.
+	 *
+	 * @param file
+	 *            to write.
+	 * @param names
+	 *            to write.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public static void write(File file, List<String> names) throws IOException {
+		file.getParentFile().mkdirs();
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			for (String name : names) {
+				out.println(name);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Capitalizes names as they are on the suggestor files.
+	 *
+	 * @param names
+	 *            in lower case.
+	 * @return capitalized names.
+	 */
+	private List<String> titles(List<String> names) {
+		List<String> titles = new ArrayList<String>(names.size());
+		for (String name : names) {
+			titles.add(utils.firstLetterUpperCaseOfEachWord(name));
+		}
+		return titles;
+	}
+
+	/**
+	 * Directories of a written corpus.
+	 */
+	public static final class Layout {
+		/**
+		 * Names of the spelling corrector by site.
+		 */
+		public final File spelling;
+
+		/**
+		 * States by site.
+		 */
+		public final File states;
+
+		/**
+		 * Cities by state.
+		 */
+		public final File cities;
+
+		/**
+		 * Streets by state and city.
+		 */
+		public final File streets;
+
+		/**
+		 * Names of the spelling corrector.
+		 */
+		public List<String> names;
+
+		/**
+		 * First state of the site.
+		 */
+		public String state;
+
+		/**
+		 * Cities of the first state.
+		 */
+		public List<String> stateCities;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param dir
+		 *            of the corpus.
+		 */
+		Layout(File dir) {
+			this.spelling = new File(dir, "spellingCities");
+			this.states = new File(dir, "states");
+			this.cities = new File(dir, "cities");
+			this.streets = new File(dir, "streets");
+		}
+
+		/**
+		 * Points the configuration of the checker to this corpus. It must be
+		 * called before the spelling corrector and the suggestor are used.
+		 */
+		public void configure() {
+			System.setProperty(
+					"com.meli.checker.spellingCorrector.names.cities",
+					spelling.getAbsolutePath());
+			System.setProperty("com.meli.checker.suggestor.names.states",
+					states.getAbsolutePath());
+			System.setProperty("com.meli.checker.suggestor.names.cities",
+					cities.getAbsolutePath());
+			System.setProperty("com.meli.checker.suggestor.names.streets",
+					streets.getAbsolutePath());
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.meli.spelling.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to train the dictionary of a site, by number of names and threads.
+ * The dictionary is trained through reload, the same path used when its file
+ * changes.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dfile.encoding=UTF-8" })
+public class TrainingBenchmark {
+	/**
+	 * Number of names of the dictionary.
+	 */
+	@Param({ "5000", "20000", "80000" })
+	public int size;
+
+	/**
+	 * Threads that create the deletes, 0 for the available processors.
+	 */
+	@Param({ "1", "0" })
+	public int parallelism;
+
+	/**
+	 * Corpus of the trained dictionary.
+	 */
+	private File corpus;
+
+	/**
+	 * Writes the corpus of the dictionary.
+	 *
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		corpus = File.createTempFile("training", "");
+		SyntheticCorpus.write(corpus,
+				new SyntheticCorpus(CheckerState.SEED).names(size));
+		System.setProperty("com.meli.checker.training.parallelism",
+				String.valueOf(parallelism));
+	}
+
+	/**
+	 * Deletes the corpus.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtils.deleteQuietly(corpus);
+	}
+
+	@Benchmark
+	public void train(CheckerState checker) {
+		checker.corrector.reload(corpus);
+	}
+}
@@ -1,7 +1,33 @@
+import com.meli.spelling.checker.SpellingCorrector
+import com.meli.spelling.config.CheckerConfig
+import com.meli.spelling.metrics.Metrics
+import com.meli.spelling.reload.CorpusReloader
+import com.meli.spelling.suggestor.Suggestor
+import com.meli.spelling.utils.RequestExecutor
+
 class BootStrap {
 
+    /**
+     * Reloads the names when their files change, if it is enabled.
+     */
+    private CorpusReloader reloader
+
     def init = { servletContext ->
+        Metrics.getInstance().register(SpellingCorrector.getInstance())
+        Metrics.getInstance().register(Suggestor.getInstance())
+        if (RequestExecutor.getInstance() != null) {
+            Metrics.getInstance().register(RequestExecutor.getInstance())
+        }
+        if (CheckerConfig.isContextCorrectionEnabled()) {
+            SpellingCorrector.getInstance().setContextNames(Suggestor.getInstance())
+        }
+        if (CheckerConfig.isReloadEnabled()) {
+            reloader = new CorpusReloader()
+            reloader.start()
+        }
     }
     def destroy = {
+        reloader?.stop()
+        RequestExecutor.getInstance()?.shutdown()
     }
 }
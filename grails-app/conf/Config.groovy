@@ -120,3 +120,48 @@ com.meli.checker.spellingCorrector.names.cities= "/checker/bin/names/spellingCit
 com.meli.checker.suggestor.names.states="/checker/bin/names/states"
 com.meli.checker.suggestor.names.cities="/checker/bin/names/cities"
 com.meli.checker.suggestor.names.streets="/checker/bin/names/streets"
+
+// number of threads used to train the spelling corrector (available processors by default)
+//com.meli.checker.training.parallelism = 4
+
+// snapshot with the precomputed indexes (see SnapshotBuilder), mapped on startup instead of training
+//com.meli.checker.snapshot = "/checker/bin/checker.snapshot"
+
+// index of the suggestor: suffixTree or suffixArray (compact, read optimized, but names matching on the same
+// suffix are returned in another order)
+com.meli.checker.suggestor.index = "suffixTree"
+
+// maximum number of suggestions when the request does not set the limit parameter (0 = all of them)
+com.meli.checker.suggestor.limit = 0
+
+// reload the names when their files change, without restarting
+com.meli.checker.reload = false
+
+// threads that process the terms of batch requests (available processors by default) and maximum terms by request
+//com.meli.checker.batch.parallelism = 4
+com.meli.checker.batch.maxSize = 10000
+
+// megabytes of each cache of results (corrections and suggestions, 0 = no cache) and seconds results are used (0 = until names change)
+com.meli.checker.cache.megabytes = 32
+com.meli.checker.cache.ttl = 0
+// index the names of each context on its first request and megabytes of heap of the loaded indexes (0 = no limit, cold contexts are unloaded)
+com.meli.checker.suggestor.lazy = false
+com.meli.checker.suggestor.megabytes = 0
+// maximum edits of keys no name contains, completed with typos (an edit every 4 chars, 0 = only exact keys, 2 is a good value to opt in)
+com.meli.checker.suggestor.fuzzy = 0
+// rank names by popularity (off by default, it changes the order of the results): counts file (lines of context, name and count separated by tabs) plus the queries served
+com.meli.checker.popularity.enabled = false
+com.meli.checker.popularity.counts = ""
+// correct keys without suggestions on the names of their context (state or city) instead of the dictionary of their site (off by default)
+com.meli.checker.corrector.contexts = false
+// emit Java Flight Recorder events with the work of each lookup (JDK 9+ or the JFR backport of JDK 8)
+com.meli.checker.jfr.enabled = false
+// run the actions of the checker on a bounded pool instead of the threads of the container (needs servlet 3.0): threads (available processors by default), requests waiting for a thread and milliseconds to answer (503 after them)
+com.meli.checker.async.enabled = false
+//com.meli.checker.async.threads = 4
+com.meli.checker.async.queue = 1024
+com.meli.checker.async.timeout = 10000
+// partitioned deployment: URL of every node separated by commas (empty = every context on this node), URL of this node and milliseconds to wait for another node
+com.meli.checker.cluster.nodes = ""
+com.meli.checker.cluster.self = ""
+com.meli.checker.cluster.timeout = 2000
@@ -0,0 +1,28 @@
+import com.meli.spelling.metrics.Metrics
+
+/**
+ * Records the latency of every action of the checker on the metrics, and counts the requests that fail. Asynchronous
+ * actions record their own when they complete.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+class MetricsFilters {
+	def filters = {
+		actions(controller: 'checker', action: '*') {
+			before = {
+				request.setAttribute(Metrics.REQUEST_START, System.nanoTime())
+				return true
+			}
+			afterView = { Exception e ->
+				Long start = request.getAttribute(Metrics.REQUEST_START)
+				if (start != null) {
+					Metrics.getInstance().request(actionName).recordSince(start)
+				}
+				if (e != null) {
+					Metrics.getInstance().error(actionName).incrementAndGet()
+				}
+			}
+		}
+	}
+}
@@ -5,6 +5,10 @@ class UrlMappings {
 			controller = "ping"
 			action = "ping"
 		}
+		"/metrics"{
+			controller = "ping"
+			action = "metrics"
+		}
 		"/check/$site/$city"{
 			controller="Checker"
 			action="checkSpelling"
@@ -21,6 +25,34 @@ class UrlMappings {
 			controller="Checker"
 			action="getStreetCorrectionAndSuggestion"
 		}
+		"/check/$site"{
+			controller="Checker"
+			action="checkSpellingBatch"
+		}
+		"/suggestStates/$site"{
+			controller="Checker"
+			action="getStatesCorrectionAndSuggestion"
+		}
+		"/suggestCities/$site/$stateHash"{
+			controller="Checker"
+			action="getCitiesCorrectionAndSuggestion"
+		}
+		"/suggestStreets/$site/$stateHash/$cityHash"{
+			controller="Checker"
+			action="getStreetsCorrectionAndSuggestion"
+		}
+		"/normalizeAddresses/$site"{
+			controller="Checker"
+			action="normalizeAddresses"
+		}
+		"/names"{
+			controller="Checker"
+			action="names"
+		}
+		"/cacheStats"{
+			controller="Checker"
+			action="cacheStats"
+		}
 		"/"(view:"/index")
 		"500"(view:'/error')
 	}
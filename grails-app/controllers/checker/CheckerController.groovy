@@ -1,10 +1,23 @@
 package checker
 
+import javax.servlet.ServletContext
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+import org.codehaus.groovy.grails.web.servlet.mvc.GrailsWebRequest
+import org.codehaus.groovy.grails.web.util.WebUtils
+import org.springframework.web.context.request.RequestContextHolder
+
 import com.google.gson.Gson
+import com.google.gson.JsonParseException
 import com.googlecode.concurrenttrees.common.Iterables;
 import com.meli.spelling.checker.SpellingCorrector
 import com.meli.spelling.checker.entities.Suggestion
+import com.meli.spelling.config.CheckerConfig;
+import com.meli.spelling.metrics.Histogram;
+import com.meli.spelling.metrics.Metrics;
 import com.meli.spelling.suggestor.Suggestor;
+import com.meli.spelling.utils.RequestExecutor;
 import com.meli.spelling.utils.Utils;
 
 /**
@@ -14,6 +27,17 @@ import com.meli.spelling.utils.Utils;
  *
  */
 class CheckerController {
+	/**
+	 * Batch actions receive the terms on the body.
+	 */
+	static allowedMethods = [checkSpellingBatch: 'POST', getStatesCorrectionAndSuggestion: 'POST',
+		getCitiesCorrectionAndSuggestion: 'POST', getStreetsCorrectionAndSuggestion: 'POST', normalizeAddresses: 'POST']
+
+	/**
+	 * JSON of a list without suggestions.
+	 */
+	private static final byte[] EMPTY = "[]".getBytes("UTF-8");
+
 	/**
 	 * Some utilities for this class.
 	 */
@@ -24,6 +48,21 @@ class CheckerController {
 	 */
 	private Gson gson = new Gson();
 
+	/**
+	 * Latency of the first suggestion of a key.
+	 */
+	private final Histogram suggestStage = Metrics.getInstance().stage("suggest");
+
+	/**
+	 * Latency of the correction of a key without suggestions.
+	 */
+	private final Histogram correctionStage = Metrics.getInstance().stage("correction");
+
+	/**
+	 * Latency of the suggestion of a correction.
+	 */
+	private final Histogram secondSuggestStage = Metrics.getInstance().stage("second_suggest");
+
 	/**
 	 * Constructor for the controller, getting the instance of the Suggestor and the SpellingCorrector it initialize these objects.
 	 */
@@ -32,6 +71,83 @@ class CheckerController {
 		Suggestor.getInstance();
 	}
 
+	/**
+	 * Gets the maximum number of suggestions of the request, taken from the limit parameter or the configuration.
+	 * 
+	 * @return limit, 0 if suggestions are not limited.
+	 */
+	private int limit() {
+		Integer limit = params.int('limit');
+		return limit != null ? limit : CheckerConfig.getSuggestionLimit();
+	}
+
+	/**
+	 * Runs an action. When actions are asynchronous (com.meli.checker.async.enabled) it runs on a thread of the
+	 * RequestExecutor and the thread of the container is released, so slow corrections do not take the threads that
+	 * accept connections. The action gets a copy of the parameters and renders into a buffer (see
+	 * RequestExecutor.dispatch), so it must read the body and the parameters it needs before it is dispatched.
+	 * Requests are answered with 503 when the queue of the executor is full or when they do not complete before the
+	 * timeout; the latency of the action is recorded when it completes.
+	 * 
+	 * @param action to run.
+	 */
+	private void dispatch(Closure action) {
+		RequestExecutor executor = RequestExecutor.getInstance();
+		if (executor == null || !request.isAsyncSupported()) {
+			action();
+			return;
+		}
+		Long started = request.getAttribute(Metrics.REQUEST_START);
+		long start = started != null ? started : System.nanoTime();
+		request.removeAttribute(Metrics.REQUEST_START);
+		ServletContext context = request.getServletContext();
+		executor.dispatch(startAsync(), actionName, start, { HttpServletRequest asyncRequest, HttpServletResponse asyncResponse ->
+			GrailsWebRequest webRequest = new GrailsWebRequest(asyncRequest, asyncResponse, context);
+			WebUtils.storeGrailsWebRequest(webRequest);
+			try {
+				action();
+			} finally {
+				webRequest.requestCompleted();
+				RequestContextHolder.resetRequestAttributes();
+			}
+		} as RequestExecutor.Action);
+	}
+
+	/**
+	 * Renders the suggestions of a key writing their pre-rendered JSON straight to the response (the same Gson renders
+	 * for their Suggestions). If the key has no suggestions, not even names starting with something near it, its
+	 * spelling is corrected on the names of its context and the suggestions of the correction are rendered. Without a
+	 * limit suggestions are written as they are found, so the response is sent chunked and its memory does not depend
+	 * on the number of suggestions. The latency of each stage is recorded on the metrics.
+	 * 
+	 * @param key to get suggestions.
+	 * @param context where it is contained (site, state or city).
+	 * @param site of the spelling corrector.
+	 * @param hash if the hashcodes are included.
+	 * @param limit maximum number of suggestions, 0 if suggestions are not limited.
+	 */
+	private void renderSuggestions(String key, String context, String site, boolean hash, int limit) {
+		Suggestor suggestor = Suggestor.getInstance();
+		response.setContentType("text/html;charset=UTF-8");
+		OutputStream out = response.getOutputStream();
+		long start = System.nanoTime();
+		int written = suggestor.writeSuggestion(key, context, hash, limit, out);
+		suggestStage.recordSince(start);
+		if (written == 0) {
+			SpellingCorrector corrector = SpellingCorrector.getInstance();
+			start = System.nanoTime();
+			String correction = corrector.correctSpelling(key, site, context);
+			correctionStage.recordSince(start);
+			start = System.nanoTime();
+			written = suggestor.writeSuggestion(correction, context, hash, limit, out);
+			secondSuggestStage.recordSince(start);
+			if (written == 0) {
+				out.write(EMPTY);
+			}
+		}
+		out.flush();
+	}
+
 	/**
 	 * This method corrects the spelling of a word and return it spelling correctly.
 	 * 
@@ -40,8 +156,10 @@ class CheckerController {
 	def checkSpelling() {
 		String city = params.city;
 		String site = params.site;
-		SpellingCorrector sc = SpellingCorrector.getInstance();
-		render (sc.correctSpelling(city, site));
+		dispatch {
+			SpellingCorrector sc = SpellingCorrector.getInstance();
+			render (sc.correctSpelling(city, site));
+		}
 	}
 
 	/**
@@ -52,16 +170,8 @@ class CheckerController {
 	def getStateCorrectionAndSuggestion() {
 		String state = params.state;
 		String site = params.site;
-		Suggestor suggestor = Suggestor.getInstance();
-		ArrayList<Suggestion> suggestions = suggestor.getSuggestion(state, site, true);
-		if (suggestions.size() > 0) {
-			render (gson.toJson(suggestions));
-		}
-		else {
-			SpellingCorrector corrector = SpellingCorrector.getInstance();
-			String correctState = corrector.correctSpelling(state, site);
-			render (gson.toJson(suggestor.getSuggestion(correctState, site, true)));
-		}
+		int limit = limit();
+		dispatch { renderSuggestions(state, site, site, true, limit) };
 	}
 
 	/**
@@ -73,16 +183,8 @@ class CheckerController {
 		String state = params.stateHash;
 		String city = params.city;
 		String site = params.site;
-		Suggestor suggestor = Suggestor.getInstance();
-		ArrayList<Suggestion> suggestions = suggestor.getSuggestion(city, state, true);
-		if (suggestions.size() > 0) {
-			render (gson.toJson(suggestions));
-		}
-		else {
-			SpellingCorrector corrector = SpellingCorrector.getInstance();
-			String correctCity = corrector.correctSpelling(city, site);
-			render (gson.toJson(suggestor.getSuggestion(correctCity, state, true)));
-		}
+		int limit = limit();
+		dispatch { renderSuggestions(city, state, site, true, limit) };
 	}
 
 	/**
@@ -95,15 +197,220 @@ class CheckerController {
 		String state = params.stateHash;
 		String street = params.street;
 		String site = params.site;
+		int limit = limit();
+		dispatch { renderSuggestions(street, state+"-"+city, site, false, limit) };
+	}
+
+	/**
+	 * Reads the JSON array of a batch request from its body. If it is not valid or it is too big the error is rendered.
+	 * 
+	 * @param type of the array.
+	 * @return items of the batch, null if there was an error.
+	 */
+	private List readBatch(Class type) {
+		def items = null;
+		try {
+			items = gson.fromJson(request.reader, type);
+		} catch (JsonParseException e) {
+			log.info("Invalid batch: " + e.getMessage());
+		}
+		if (items == null) {
+			render (status: 400, text: "A JSON array is expected");
+			return null;
+		}
+		int maxSize = CheckerConfig.getBatchMaxSize();
+		if (items.length > maxSize) {
+			render (status: 413, text: "Batches are limited to " + maxSize + " items");
+			return null;
+		}
+		return Arrays.asList(items);
+	}
+
+	/**
+	 * Gets the suggestions of a batch of keys like the single actions do: keys without suggestions are corrected and
+	 * suggested again. Every step processes the whole batch in parallel, its latency is recorded as a stage.
+	 * 
+	 * @param keys to get suggestions.
+	 * @param contexts where each key is contained.
+	 * @param site of the spelling corrector.
+	 * @param hash, if the hashcode is needed.
+	 * @param limit maximum number of suggestions of each key.
+	 * @return suggestions of each key, in the same order.
+	 */
+	private List<List<Suggestion>> suggestBatch(List<String> keys, List<String> contexts, String site, boolean hash, int limit) {
 		Suggestor suggestor = Suggestor.getInstance();
-		ArrayList<Suggestion> suggestions = suggestor.getSuggestion(street,state+"-"+city, false);
-		if (suggestions.size() > 0) {
-			render (gson.toJson(suggestions));
+		long start = System.nanoTime();
+		List<List<Suggestion>> suggestions = suggestor.getSuggestions(keys, contexts, hash, limit);
+		suggestStage.recordSince(start);
+		List<Integer> missing = new ArrayList<Integer>();
+		for (int i = 0; i < suggestions.size(); i++) {
+			if (suggestions.get(i).isEmpty() && keys.get(i) != null) {
+				missing.add(i);
+			}
 		}
-		else {
-			SpellingCorrector corrector = SpellingCorrector.getInstance();
-			String correctStreet = corrector.correctSpelling(street, site);
-			render (gson.toJson(suggestor.getSuggestion(correctStreet, state+"-"+city, false)));
+		if (!missing.isEmpty()) {
+			start = System.nanoTime();
+			List<String> corrections = SpellingCorrector.getInstance().correctSpelling(missing.collect { keys.get(it) }, site, missing.collect { contexts.get(it) });
+			correctionStage.recordSince(start);
+			start = System.nanoTime();
+			List<List<Suggestion>> retried = suggestor.getSuggestions(corrections, missing.collect { contexts.get(it) }, hash, limit);
+			secondSuggestStage.recordSince(start);
+			for (int i = 0; i < missing.size(); i++) {
+				suggestions.set(missing.get(i), retried.get(i));
+			}
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Corrects the spelling of a batch of words, received as a JSON array on the body.
+	 * 
+	 * @return JSON array with the correction of each word, in the same order.
+	 */
+	def checkSpellingBatch() {
+		List<String> cities = readBatch(String[].class);
+		if (cities == null) {
+			return;
+		}
+		String site = params.site;
+		dispatch {
+			SpellingCorrector sc = SpellingCorrector.getInstance();
+			render (gson.toJson(sc.correctSpelling(cities, site)));
+		}
+	}
+
+	/**
+	 * Given a batch of states on a site (JSON array on the body), returns the suggestions of each one as
+	 * getStateCorrectionAndSuggestion does.
+	 * 
+	 * @return JSON array with the suggestions of each state, in the same order.
+	 */
+	def getStatesCorrectionAndSuggestion() {
+		List<String> states = readBatch(String[].class);
+		if (states == null) {
+			return;
+		}
+		String site = params.site;
+		int limit = limit();
+		dispatch {
+			render (gson.toJson(suggestBatch(states, Collections.nCopies(states.size(), site), site, true, limit)));
+		}
+	}
+
+	/**
+	 * Given a batch of cities on a state (JSON array on the body), returns the suggestions of each one as
+	 * getCityCorrectionAndSuggestion does.
+	 * 
+	 * @return JSON array with the suggestions of each city, in the same order.
+	 */
+	def getCitiesCorrectionAndSuggestion() {
+		List<String> cities = readBatch(String[].class);
+		if (cities == null) {
+			return;
+		}
+		String state = params.stateHash;
+		String site = params.site;
+		int limit = limit();
+		dispatch {
+			render (gson.toJson(suggestBatch(cities, Collections.nCopies(cities.size(), state), site, true, limit)));
+		}
+	}
+
+	/**
+	 * Given a batch of streets on a city (JSON array on the body), returns the suggestions of each one as
+	 * getStreetCorrectionAndSuggestion does.
+	 * 
+	 * @return JSON array with the suggestions of each street, in the same order.
+	 */
+	def getStreetsCorrectionAndSuggestion() {
+		List<String> streets = readBatch(String[].class);
+		if (streets == null) {
+			return;
+		}
+		String context = params.stateHash + "-" + params.cityHash;
+		String site = params.site;
+		int limit = limit();
+		dispatch {
+			render (gson.toJson(suggestBatch(streets, Collections.nCopies(streets.size(), context), site, false, limit)));
+		}
+	}
+
+	/**
+	 * Normalizes a batch of addresses, received as a JSON array of objects with state, city and street. Each part is
+	 * replaced by its best suggestion (after correcting it if needed) and the city and the street are looked for on the
+	 * suggested state and city. Parts without suggestion are omitted, as well as the parts below them.
+	 * 
+	 * @return JSON array with the normalized addresses, in the same order.
+	 */
+	def normalizeAddresses() {
+		List<Map> addresses = readBatch(Map[].class);
+		if (addresses == null) {
+			return;
+		}
+		String site = params.site;
+		dispatch {
+			List<Map> normalized = addresses.collect { [:] };
+
+			List<List<Suggestion>> states = suggestBatch(addresses.collect { it?.state?.toString() }, Collections.nCopies(addresses.size(), site), site, true, 1);
+			List<Integer> pending = [];
+			for (int i = 0; i < addresses.size(); i++) {
+				if (!states.get(i).isEmpty()) {
+					normalized.get(i).state = states.get(i).get(0);
+					if (addresses.get(i).city != null) {
+						pending.add(i);
+					}
+				}
+			}
+
+			List<List<Suggestion>> cities = suggestBatch(pending.collect { addresses.get(it).city.toString() }, pending.collect { normalized.get(it).state.getHashCode() }, site, true, 1);
+			List<Integer> withCity = pending;
+			pending = [];
+			for (int i = 0; i < withCity.size(); i++) {
+				int index = withCity.get(i);
+				if (!cities.get(i).isEmpty()) {
+					normalized.get(index).city = cities.get(i).get(0);
+					if (addresses.get(index).street != null) {
+						pending.add(index);
+					}
+				}
+			}
+
+			List<List<Suggestion>> streets = suggestBatch(pending.collect { addresses.get(it).street.toString() },
+					pending.collect { normalized.get(it).state.getHashCode() + "-" + normalized.get(it).city.getHashCode() }, site, false, 1);
+			for (int i = 0; i < pending.size(); i++) {
+				if (!streets.get(i).isEmpty()) {
+					normalized.get(pending.get(i)).street = streets.get(i).get(0);
+				}
+			}
+			render (gson.toJson(normalized));
+		}
+	}
+
+	/**
+	 * Returns the names suggested for a key on a context of this node, without correcting it. Other nodes of a
+	 * partitioned deployment ask it the names of the contexts this node owns.
+	 * 
+	 * @return JSON array with the display names.
+	 */
+	def names() {
+		Integer limit = params.int('limit');
+		List<String> names = Suggestor.getInstance().getLocalNames(params.key, params.context, limit != null ? limit : 0);
+		render (contentType: "application/json", encoding: "UTF-8", text: gson.toJson(names));
+	}
+
+	/**
+	 * Returns the statistics of the caches of corrections and suggestions (hits, misses, evictions, entries and
+	 * estimated bytes). Caches that are disabled are omitted.
+	 * 
+	 * @return JSON object with the statistics of each cache.
+	 */
+	def cacheStats() {
+		Map stats = [:];
+		[corrections: SpellingCorrector.getInstance().getCache(), suggestions: Suggestor.getInstance().getCache()].each { name, cache ->
+			if (cache != null) {
+				stats[name] = [hits: cache.hits(), misses: cache.misses(), evictions: cache.evictions(), entries: cache.size(), bytes: cache.bytes()];
+			}
 		}
+		render (gson.toJson(stats));
 	}
 }
@@ -2,6 +2,8 @@ package checker
 
 import grails.rest.RestfulController
 
+import com.meli.spelling.metrics.Metrics
+
 /**
  * This class is just to test correct functionality of the server.
  * 
@@ -10,5 +12,12 @@ import grails.rest.RestfulController
  */
 class PingController extends RestfulController {
 	def ping = { render "pong" }
+
+	/**
+	 * Returns the metrics of the application in Prometheus text format.
+	 */
+	def metrics = {
+		render (contentType: "text/plain; version=0.0.4", encoding: "UTF-8", text: Metrics.getInstance().scrape())
+	}
 }
 
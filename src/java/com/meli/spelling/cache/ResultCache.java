@@ -0,0 +1,578 @@
+package com.meli.spelling.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.meli.spelling.config.CheckerConfig;
+import com.meli.spelling.metrics.Metrics;
+
+/**
+ * Bounded cache of results (corrections, suggestions) by context (site, state
+ * or city) and key. The cache is split in segments, each one with a
+ * segmented LRU: new entries go to a probation area and are promoted to a
+ * protected area when they are hit again, so a burst of keys used only once
+ * (a crawler, a batch) does not evict the popular ones. The size is bounded by
+ * an estimation of the bytes used by the entries. Lookups take no locks.
+ *
+ * A context is invalidated in constant time increasing its version, which is
+ * part of the keys; entries of previous versions are never hit again and are
+ * evicted as the cache is used.
+ *
+ * @author Fabian Bertetto
+ *
+ * @param <V>
+ *            type of the results.
+ */
+public final class ResultCache<V> {
+	/**
+	 * Number of segments (a power of two).
+	 */
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Estimated bytes used by an entry besides its key and value.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	/**
+	 * Separator of the parts of the keys.
+	 */
+	private static final char SEPARATOR = '\0';
+
+	/**
+	 * Segments of the cache.
+	 */
+	private final List<Segment> segments;
+
+	/**
+	 * Estimates the bytes of the values.
+	 */
+	private final Weigher<V> weigher;
+
+	/**
+	 * Time to live of the entries in milliseconds, 0 if they do not expire.
+	 */
+	private final long ttl;
+
+	/**
+	 * Version of each invalidated context.
+	 */
+	private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Number of hits.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of misses.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Number of entries evicted by size or expired.
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param maxBytes
+	 *            maximum estimated size of the cache.
+	 * @param ttl
+	 *            time to live of the entries in milliseconds, 0 if they do
+	 *            not expire.
+	 * @param weigher
+	 *            that estimates the bytes of the values.
+	 */
+	public ResultCache(long maxBytes, long ttl, Weigher<V> weigher) {
+		this.weigher = weigher;
+		this.ttl = ttl;
+		this.segments = new ArrayList<Segment>(SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments.add(new Segment(maxBytes / SEGMENTS));
+		}
+	}
+
+	/**
+	 * Creates a cache with the size and time to live of the configuration.
+	 *
+	 * @param weigher
+	 *            that estimates the bytes of the values.
+	 * @return cache, null if results are not cached.
+	 */
+	public static <V> ResultCache<V> fromConfig(Weigher<V> weigher) {
+		int megabytes = CheckerConfig.getCacheMegabytes();
+		if (megabytes <= 0) {
+			return null;
+		}
+		return new ResultCache<V>(megabytes * 1024L * 1024L,
+				Math.max(0, CheckerConfig.getCacheTtl()) * 1000L, weigher);
+	}
+
+	/**
+	 * Gets the key of a result on the cache, including the current version of
+	 * its context. The key must be taken before the result is computed, so a
+	 * result computed while its context is invalidated is never hit.
+	 *
+	 * @param context
+	 *            of the result (site, state or city).
+	 * @param key
+	 *            of the result on the context.
+	 * @return key.
+	 */
+	public String key(String context, String key) {
+		Long version = versions.get(context);
+		StringBuilder sb = new StringBuilder(context.length() + key.length()
+				+ 4);
+		sb.append(context).append(SEPARATOR);
+		if (version != null) {
+			sb.append(version.longValue());
+		}
+		return sb.append(SEPARATOR).append(key).toString();
+	}
+
+	/**
+	 * Gets a result.
+	 *
+	 * @param key
+	 *            of the result (see key).
+	 * @return result, null if it is not on the cache.
+	 */
+	public V get(String key) {
+		V value = segment(key).get(key);
+		if (value == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Adds a result.
+	 *
+	 * @param key
+	 *            of the result (see key).
+	 * @param value
+	 *            result.
+	 */
+	public void put(String key, V value) {
+		long expiresAt = ttl > 0 ? System.currentTimeMillis() + ttl : 0;
+		segment(key).put(key, new Entry<V>(value, ENTRY_OVERHEAD + 2
+				* key.length() + weigher.weigh(value), expiresAt));
+	}
+
+	/**
+	 * Invalidates every result of a context.
+	 *
+	 * @param context
+	 *            to invalidate.
+	 */
+	public void invalidate(String context) {
+		Long version;
+		do {
+			version = versions.get(context);
+			if (version == null) {
+				if (versions.putIfAbsent(context, 1L) == null) {
+					return;
+				}
+				continue;
+			}
+		} while (!versions.replace(context, version, version + 1));
+	}
+
+	/**
+	 * Removes every result.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of hits.
+	 *
+	 * @return hits.
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of misses.
+	 *
+	 * @return misses.
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of entries evicted by size or expired.
+	 *
+	 * @return evictions.
+	 */
+	public long evictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return entries.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the estimated bytes used by the entries.
+	 *
+	 * @return bytes.
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += segment.bytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Adds the statistics of the cache to the metrics.
+	 *
+	 * @param name
+	 *            of the cache, as corrections or suggestions.
+	 * @param samples
+	 *            where they are added.
+	 */
+	public void collect(String name, Metrics.Samples samples) {
+		samples.counter("checker_cache_hits_total", "Hits of the caches.",
+				"cache", name, hits());
+		samples.counter("checker_cache_misses_total", "Misses of the caches.",
+				"cache", name, misses());
+		samples.counter("checker_cache_evictions_total",
+				"Entries evicted by size or expired.", "cache", name,
+				evictions());
+		samples.gauge("checker_cache_entries", "Entries of the caches.",
+				"cache", name, size());
+		samples.gauge("checker_cache_bytes",
+				"Estimated bytes used by the entries of the caches.", "cache",
+				name, bytes());
+	}
+
+	/**
+	 * Gets the segment of a key.
+	 *
+	 * @param key
+	 *            of the result.
+	 * @return segment.
+	 */
+	private Segment segment(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments.get(h & (SEGMENTS - 1));
+	}
+
+	/**
+	 * Estimates the bytes of the values of a cache.
+	 *
+	 * @param <V>
+	 *            type of the values.
+	 */
+	public interface Weigher<V> {
+		/**
+		 * Estimates the bytes of a value.
+		 *
+		 * @param value
+		 *            to weigh.
+		 * @return estimated bytes.
+		 */
+		int weigh(V value);
+	}
+
+	/**
+	 * Entry of the cache.
+	 *
+	 * @param <V>
+	 *            type of the value.
+	 */
+	private static final class Entry<V> {
+		/**
+		 * Result.
+		 */
+		final V value;
+
+		/**
+		 * Estimated bytes of the entry.
+		 */
+		final int weight;
+
+		/**
+		 * Time when it expires, 0 if it does not expire.
+		 */
+		final long expiresAt;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param value
+		 *            result.
+		 * @param weight
+		 *            estimated bytes.
+		 * @param expiresAt
+		 *            time when it expires, 0 if it does not expire.
+		 */
+		Entry(V value, int weight, long expiresAt) {
+			this.value = value;
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Segment of the cache: a segmented LRU with a probation area for new
+	 * entries and a protected area (80% of the bytes) for entries hit at
+	 * least once. Lookups read a concurrent map and take no locks; the order
+	 * of the entries is updated only if the lock of the segment is free, and
+	 * results are not added while another thread is changing the segment, so
+	 * requests never wait for the cache.
+	 */
+	private final class Segment {
+		/**
+		 * Maximum bytes of the segment.
+		 */
+		private final long maxBytes;
+
+		/**
+		 * Maximum bytes of the protected area.
+		 */
+		private final long maxProtected;
+
+		/**
+		 * Entries of the segment, read without locks. It is changed only
+		 * holding the lock, together with the areas.
+		 */
+		private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<String, Entry<V>>();
+
+		/**
+		 * Lock that guards the changes of the segment.
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Entries not hit since they were added, least recently used first.
+		 */
+		private final LinkedHashMap<String, Entry<V>> probation = new LinkedHashMap<String, Entry<V>>(
+				16, 0.75f, true);
+
+		/**
+		 * Entries hit at least once, least recently used first.
+		 */
+		private final LinkedHashMap<String, Entry<V>> protectedArea = new LinkedHashMap<String, Entry<V>>(
+				16, 0.75f, true);
+
+		/**
+		 * Bytes of the probation area.
+		 */
+		private long probationBytes = 0;
+
+		/**
+		 * Bytes of the protected area.
+		 */
+		private long protectedBytes = 0;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param maxBytes
+		 *            maximum bytes of the segment.
+		 */
+		Segment(long maxBytes) {
+			this.maxBytes = maxBytes;
+			this.maxProtected = maxBytes * 4 / 5;
+		}
+
+		/**
+		 * Gets a value, promoting it to the protected area if the segment is
+		 * not locked.
+		 *
+		 * @param key
+		 *            of the value.
+		 * @return value, null if it is not on the segment or expired.
+		 */
+		V get(String key) {
+			Entry<V> entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			boolean expired = entry.expiresAt != 0
+					&& entry.expiresAt < System.currentTimeMillis();
+			if (lock.tryLock()) {
+				try {
+					if (entries.get(key) == entry) {
+						if (expired) {
+							remove(key, entry);
+							evictions.incrementAndGet();
+						} else {
+							touch(key, entry);
+						}
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+			return expired ? null : entry.value;
+		}
+
+		/**
+		 * Adds a value on the probation area, unless another thread is
+		 * changing the segment.
+		 *
+		 * @param key
+		 *            of the value.
+		 * @param entry
+		 *            of the value.
+		 */
+		void put(String key, Entry<V> entry) {
+			if (entry.weight > maxBytes || !lock.tryLock()) {
+				return;
+			}
+			try {
+				Entry<V> previous = entries.get(key);
+				if (previous != null) {
+					remove(key, previous);
+				}
+				entries.put(key, entry);
+				probation.put(key, entry);
+				probationBytes += entry.weight;
+				evict();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Removes every entry.
+		 */
+		void clear() {
+			lock.lock();
+			try {
+				entries.clear();
+				probation.clear();
+				protectedArea.clear();
+				probationBytes = 0;
+				protectedBytes = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Gets the number of entries.
+		 *
+		 * @return entries.
+		 */
+		int size() {
+			return entries.size();
+		}
+
+		/**
+		 * Gets the bytes of the entries.
+		 *
+		 * @return bytes.
+		 */
+		long bytes() {
+			lock.lock();
+			try {
+				return probationBytes + protectedBytes;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Records a hit: entries on probation are promoted to the protected
+		 * area, which demotes its least recently used entries if it is too
+		 * big. It must be called holding the lock.
+		 *
+		 * @param key
+		 *            of the entry.
+		 * @param entry
+		 *            hit.
+		 */
+		private void touch(String key, Entry<V> entry) {
+			if (protectedArea.get(key) != null) {
+				return;
+			}
+			probation.remove(key);
+			probationBytes -= entry.weight;
+			protectedArea.put(key, entry);
+			protectedBytes += entry.weight;
+			Iterator<Map.Entry<String, Entry<V>>> it = protectedArea
+					.entrySet().iterator();
+			while (protectedBytes > maxProtected && it.hasNext()) {
+				Map.Entry<String, Entry<V>> eldest = it.next();
+				it.remove();
+				protectedBytes -= eldest.getValue().weight;
+				probation.put(eldest.getKey(), eldest.getValue());
+				probationBytes += eldest.getValue().weight;
+			}
+			evict();
+		}
+
+		/**
+		 * Removes an entry. It must be called holding the lock.
+		 *
+		 * @param key
+		 *            of the entry.
+		 * @param entry
+		 *            to remove.
+		 */
+		private void remove(String key, Entry<V> entry) {
+			entries.remove(key);
+			if (probation.remove(key) != null) {
+				probationBytes -= entry.weight;
+			} else if (protectedArea.remove(key) != null) {
+				protectedBytes -= entry.weight;
+			}
+		}
+
+		/**
+		 * Evicts the least recently used entries, first from the probation
+		 * area, while the segment is too big. It must be called holding the
+		 * lock.
+		 */
+		private void evict() {
+			Iterator<Map.Entry<String, Entry<V>>> it = probation.entrySet()
+					.iterator();
+			while (probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+				Map.Entry<String, Entry<V>> eldest = it.next();
+				it.remove();
+				entries.remove(eldest.getKey());
+				probationBytes -= eldest.getValue().weight;
+				evictions.incrementAndGet();
+			}
+			it = protectedArea.entrySet().iterator();
+			while (probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+				Map.Entry<String, Entry<V>> eldest = it.next();
+				it.remove();
+				entries.remove(eldest.getKey());
+				protectedBytes -= eldest.getValue().weight;
+				evictions.incrementAndGet();
+			}
+		}
+	}
+}
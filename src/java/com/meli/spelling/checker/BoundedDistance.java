@@ -0,0 +1,373 @@
+package com.meli.spelling.checker;
+
+import java.util.Arrays;
+
+/**
+ * This class computes the Damerau-Levenshtein distance between two terms,
+ * bounded by a maximum distance. As soon as the distance is known to be
+ * greater than the bound the computation stops and max + 1 is returned, as
+ * lookup only needs to know whether a suggestion is within editDistanceMax.
+ *
+ * Terms of up to 64 characters (after removing common prefix and suffix) are
+ * first compared with the bit-parallel algorithm of Hyyrö (Myers' algorithm
+ * with adjacent transpositions). That distance (optimal string alignment) is
+ * never more than twice the Damerau-Levenshtein distance and both are equal
+ * when it is lower than 3, so most pairs are accepted or discarded there. The
+ * rest are computed on a dynamic programming band of width 2 * max + 1
+ * (Ukkonen cutoff) that keeps only the rows a transposition can reach. The
+ * instance keeps its buffers between calls, so it must not be shared by
+ * threads.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class BoundedDistance {
+	/**
+	 * Longest pattern supported by the bit-parallel algorithm.
+	 */
+	private static final int WORD_SIZE = 64;
+
+	/**
+	 * Pattern bitmasks of the chars lower than 256.
+	 */
+	private final long[] asciiMasks = new long[256];
+
+	/**
+	 * Chars of the pattern that are greater than 255.
+	 */
+	private final char[] otherChars = new char[WORD_SIZE];
+
+	/**
+	 * Pattern bitmasks of the chars greater than 255.
+	 */
+	private final long[] otherMasks = new long[WORD_SIZE];
+
+	/**
+	 * Number of chars greater than 255 on the pattern.
+	 */
+	private int otherSize = 0;
+
+	/**
+	 * Last rows of the dynamic programming band.
+	 */
+	private int[][] rows = new int[0][0];
+
+	/**
+	 * Last row where each char lower than 256 appears on the first term.
+	 */
+	private final int[] asciiRows = new int[256];
+
+	/**
+	 * Chars of the first term that are greater than 255.
+	 */
+	private char[] otherRowChars = new char[WORD_SIZE];
+
+	/**
+	 * Last row where each char greater than 255 appears on the first term.
+	 */
+	private int[] otherRows = new int[WORD_SIZE];
+
+	/**
+	 * Number of chars greater than 255 on the first term.
+	 */
+	private int otherRowSize = 0;
+
+	/**
+	 * Gets the distance between two terms if it is not greater than max.
+	 *
+	 * @param a
+	 *            first term.
+	 * @param b
+	 *            second term.
+	 * @param max
+	 *            maximum distance of interest.
+	 * @return distance, or max + 1 if the distance is greater than max.
+	 */
+	int distance(String a, String b, int max) {
+		int aEnd = a.length();
+		int bEnd = b.length();
+		// common prefix and suffix do not change the distance
+		int start = 0;
+		while (start < aEnd && start < bEnd
+				&& a.charAt(start) == b.charAt(start))
+			start++;
+		while (aEnd > start && bEnd > start
+				&& a.charAt(aEnd - 1) == b.charAt(bEnd - 1)) {
+			aEnd--;
+			bEnd--;
+		}
+		int aLength = aEnd - start;
+		int bLength = bEnd - start;
+		if (Math.abs(aLength - bLength) > max)
+			return max + 1;
+		if (aLength == 0 || bLength == 0)
+			return Math.max(aLength, bLength);
+		// the shortest term is the pattern
+		if (aLength > bLength)
+			return bounded(b, a, start, bLength, aLength, max);
+		return bounded(a, b, start, aLength, bLength, max);
+	}
+
+	/**
+	 * Selects the algorithm to use.
+	 *
+	 * @param pattern
+	 *            shortest term.
+	 * @param text
+	 *            longest term.
+	 * @param start
+	 *            offset of both terms.
+	 * @param m
+	 *            length of the pattern.
+	 * @param n
+	 *            length of the text.
+	 * @param max
+	 *            maximum distance of interest.
+	 * @return distance, or max + 1 if the distance is greater than max.
+	 */
+	private int bounded(String pattern, String text, int start, int m, int n,
+			int max) {
+		if (m <= WORD_SIZE) {
+			int alignment = bitParallel(pattern, text, start, m, n, 2 * max);
+			if (alignment > 2 * max)
+				return max + 1;
+			if (alignment < 3)
+				return Math.min(alignment, max + 1);
+		}
+		return banded(pattern, text, start, m, n, max);
+	}
+
+	/**
+	 * Bit-parallel optimal string alignment distance (Hyyrö 2003).
+	 *
+	 * @param pattern
+	 *            shortest term.
+	 * @param text
+	 *            longest term.
+	 * @param start
+	 *            offset of both terms.
+	 * @param m
+	 *            length of the pattern (at most 64).
+	 * @param n
+	 *            length of the text.
+	 * @param max
+	 *            maximum distance of interest.
+	 * @return distance, or max + 1 if the distance is greater than max.
+	 */
+	private int bitParallel(String pattern, String text, int start, int m,
+			int n, int max) {
+		for (int i = 0; i < m; i++)
+			addMask(pattern.charAt(start + i), 1L << i);
+
+		long last = 1L << (m - 1);
+		long vp = ~0L;
+		long vn = 0;
+		long d0 = 0;
+		long previousMask = 0;
+		int score = m;
+		int result = -1;
+		for (int j = 0; j < n; j++) {
+			long mask = mask(text.charAt(start + j));
+			long transposition = (((~d0) & mask) << 1) & previousMask;
+			d0 = (((mask & vp) + vp) ^ vp) | mask | vn | transposition;
+			long hp = vn | ~(d0 | vp);
+			long hn = d0 & vp;
+			if ((hp & last) != 0)
+				score++;
+			else if ((hn & last) != 0)
+				score--;
+			hp = (hp << 1) | 1;
+			hn = hn << 1;
+			vp = hn | ~(d0 | hp);
+			vn = hp & d0;
+			previousMask = mask;
+			// every remaining char decreases the score at most by one
+			if (score - (n - j - 1) > max) {
+				result = max + 1;
+				break;
+			}
+		}
+		if (result < 0)
+			result = score > max ? max + 1 : score;
+
+		for (int i = 0; i < m; i++) {
+			char c = pattern.charAt(start + i);
+			if (c < asciiMasks.length)
+				asciiMasks[c] = 0;
+		}
+		otherSize = 0;
+		return result;
+	}
+
+	/**
+	 * Damerau-Levenshtein distance (Lowrance-Wagner) computed only on the
+	 * diagonal band that can hold values lower or equal than max (Ukkonen
+	 * cutoff). A transposition can not skip more than max rows, so only the
+	 * last max + 2 rows are kept.
+	 *
+	 * @param a
+	 *            first term.
+	 * @param b
+	 *            second term.
+	 * @param start
+	 *            offset of both terms.
+	 * @param m
+	 *            length of the first term.
+	 * @param n
+	 *            length of the second term.
+	 * @param max
+	 *            maximum distance of interest.
+	 * @return distance, or max + 1 if the distance is greater than max.
+	 */
+	private int banded(String a, String b, int start, int m, int n, int max) {
+		int infinite = max + 1;
+		int ring = max + 2;
+		if (rows.length < ring || rows[0].length < n + 1)
+			rows = new int[Math.max(ring, rows.length)][Math.max(n + 1,
+					rows.length == 0 ? 0 : rows[0].length)];
+		int[] first = rows[0];
+		for (int j = 0; j <= n; j++)
+			first[j] = j <= max ? j : infinite;
+
+		int result = infinite;
+		int i = 1;
+		for (; i <= m; i++) {
+			int[] previous = rows[(i - 1) % ring];
+			int[] current = rows[i % ring];
+			int from = Math.max(1, i - max);
+			int to = Math.min(n, i + max);
+			current[from - 1] = from == 1 ? i : infinite;
+			if (to < n)
+				current[to + 1] = infinite;
+			char ac = a.charAt(start + i - 1);
+			int rowMin = current[from - 1];
+			// last match of this row before the band that a transposition
+			// can still reach
+			int lastColumn = 0;
+			for (int j = Math.max(1, from - max - 1); j < from; j++) {
+				if (b.charAt(start + j - 1) == ac)
+					lastColumn = j;
+			}
+			for (int j = from; j <= to; j++) {
+				char bc = b.charAt(start + j - 1);
+				int i1 = lastRow(bc);
+				int j1 = lastColumn;
+				int cost = 1;
+				if (ac == bc) {
+					cost = 0;
+					lastColumn = j;
+				}
+				int value = Math.min(previous[j - 1] + cost,
+						Math.min(previous[j] + 1, current[j - 1] + 1));
+				if (i1 > 0 && j1 > 0) {
+					int gap = (i - i1 - 1) + 1 + (j - j1 - 1);
+					if (gap <= max && Math.abs(i1 - j1) <= max)
+						value = Math.min(value, rows[(i1 - 1) % ring][j1 - 1]
+								+ gap);
+				}
+				current[j] = Math.min(value, infinite);
+				if (current[j] < rowMin)
+					rowMin = current[j];
+			}
+			setLastRow(ac, i);
+			if (rowMin > max)
+				break;
+		}
+		if (i > m)
+			result = rows[m % ring][n];
+
+		for (int k = 0; k < m; k++) {
+			char c = a.charAt(start + k);
+			if (c < asciiRows.length)
+				asciiRows[c] = 0;
+		}
+		otherRowSize = 0;
+		return result;
+	}
+
+	/**
+	 * Gets the last row where a char appears on the first term.
+	 *
+	 * @param c
+	 *            char of the second term.
+	 * @return row, or 0 if it does not appear yet.
+	 */
+	private int lastRow(char c) {
+		if (c < asciiRows.length)
+			return asciiRows[c];
+		for (int k = 0; k < otherRowSize; k++) {
+			if (otherRowChars[k] == c)
+				return otherRows[k];
+		}
+		return 0;
+	}
+
+	/**
+	 * Sets the last row where a char appears on the first term.
+	 *
+	 * @param c
+	 *            char of the first term.
+	 * @param row
+	 *            .
+	 */
+	private void setLastRow(char c, int row) {
+		if (c < asciiRows.length) {
+			asciiRows[c] = row;
+			return;
+		}
+		for (int k = 0; k < otherRowSize; k++) {
+			if (otherRowChars[k] == c) {
+				otherRows[k] = row;
+				return;
+			}
+		}
+		if (otherRowSize == otherRowChars.length) {
+			otherRowChars = Arrays.copyOf(otherRowChars, otherRowSize * 2);
+			otherRows = Arrays.copyOf(otherRows, otherRowSize * 2);
+		}
+		otherRowChars[otherRowSize] = c;
+		otherRows[otherRowSize] = row;
+		otherRowSize++;
+	}
+
+	/**
+	 * Adds a position to the bitmask of a char of the pattern.
+	 *
+	 * @param c
+	 *            char of the pattern.
+	 * @param bit
+	 *            position of the char.
+	 */
+	private void addMask(char c, long bit) {
+		if (c < asciiMasks.length) {
+			asciiMasks[c] |= bit;
+			return;
+		}
+		for (int k = 0; k < otherSize; k++) {
+			if (otherChars[k] == c) {
+				otherMasks[k] |= bit;
+				return;
+			}
+		}
+		otherChars[otherSize] = c;
+		otherMasks[otherSize] = bit;
+		otherSize++;
+	}
+
+	/**
+	 * Gets the bitmask of a char on the pattern.
+	 *
+	 * @param c
+	 *            char of the text.
+	 * @return positions of the char on the pattern.
+	 */
+	private long mask(char c) {
+		if (c < asciiMasks.length)
+			return asciiMasks[c];
+		for (int k = 0; k < otherSize; k++) {
+			if (otherChars[k] == c)
+				return otherMasks[k];
+		}
+		return 0;
+	}
+}
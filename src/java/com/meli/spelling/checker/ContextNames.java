@@ -0,0 +1,22 @@
+package com.meli.spelling.checker;
+
+import java.util.Collection;
+
+/**
+ * Source of the names of each context (site, state or city), from which the
+ * spelling corrector derives a small dictionary for the context.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+public interface ContextNames {
+	/**
+	 * Gets the names of a context. The same collection is returned while the
+	 * names do not change, so a dictionary derived from it can be reused.
+	 * 
+	 * @param context
+	 *            site, state or city.
+	 * @return names in lower case, null if the context does not exist.
+	 */
+	Collection<String> getNames(String context);
+}
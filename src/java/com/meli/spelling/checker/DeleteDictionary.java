@@ -0,0 +1,567 @@
+package com.meli.spelling.checker;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class holds the symmetric delete dictionary of a single language
+ * (site). Words and deletes are not stored as Strings: every entry is
+ * identified by a 64 bit fingerprint of its characters and lives in an open
+ * addressing hash table made of parallel primitive arrays. The suggestions of
+ * an entry (postings) are indexes of the word list; a single posting is kept
+ * inline in the table (the majority of deletes) and longer lists are packed in
+ * a shared int arena.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class DeleteDictionary implements DeleteIndex {
+	/**
+	 * Initial capacity of the hash table (must be a power of two).
+	 */
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	/**
+	 * Initial capacity of a posting block in the arena.
+	 */
+	private static final int INITIAL_BLOCK = 4;
+
+	/**
+	 * Fingerprints of the entries, 0 means empty slot.
+	 */
+	private long[] keys;
+
+	/**
+	 * Postings of the entries. A positive value is a single posting, a
+	 * negative value is a reference to a block of the arena and NO_POSTINGS
+	 * means that the entry has no postings.
+	 */
+	private int[] refs;
+
+	/**
+	 * Index of the word of the entries or NO_WORD if the entry is only a
+	 * delete.
+	 */
+	private int[] words;
+
+	/**
+	 * Number of entries on the table.
+	 */
+	private int size = 0;
+
+	/**
+	 * Number of entries that forces the table to grow.
+	 */
+	private int resizeAt;
+
+	/**
+	 * Arena containing the posting blocks: size, capacity and postings.
+	 */
+	private int[] arena = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Used positions of the arena.
+	 */
+	private int arenaSize = 0;
+
+	/**
+	 * List of unique words of the language. Postings are indexes of this
+	 * list.
+	 */
+	private final ArrayList<String> wordlist = new ArrayList<String>();
+
+	/**
+	 * Count of each word (times it appears on the corpus).
+	 */
+	private int[] counts = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Maximum word length on this dictionary.
+	 */
+	private int maxLength = 0;
+
+	/**
+	 * Constructor of the class.
+	 */
+	DeleteDictionary() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Creates a copy of this dictionary that can be modified without
+	 * affecting it.
+	 *
+	 * @return copy of the dictionary.
+	 */
+	DeleteDictionary copy() {
+		DeleteDictionary copy = new DeleteDictionary();
+		copy.keys = keys.clone();
+		copy.refs = refs.clone();
+		copy.words = words.clone();
+		copy.size = size;
+		copy.resizeAt = resizeAt;
+		copy.arena = Arrays.copyOf(arena, Math.max(arenaSize, 1));
+		copy.arenaSize = arenaSize;
+		copy.wordlist.addAll(wordlist);
+		copy.counts = Arrays.copyOf(counts, Math.max(wordlist.size(), 1));
+		copy.maxLength = maxLength;
+		return copy;
+	}
+
+	/**
+	 * Gets the fingerprint of a term. It never returns 0 as it is used to mark
+	 * empty slots.
+	 *
+	 * @param term
+	 *            to get the fingerprint.
+	 * @return fingerprint of the term.
+	 */
+	static long fingerprint(CharSequence term) {
+		long h = 0xcbf29ce484222325L ^ term.length();
+		for (int i = 0; i < term.length(); i++) {
+			h = (h ^ term.charAt(i)) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Gets the fingerprint of a slice of chars.
+	 *
+	 * @param chars
+	 *            containing the term.
+	 * @param offset
+	 *            of the term.
+	 * @param length
+	 *            of the term.
+	 * @return fingerprint of the term.
+	 */
+	static long fingerprint(char[] chars, int offset, int length) {
+		long h = 0xcbf29ce484222325L ^ length;
+		for (int i = offset; i < offset + length; i++) {
+			h = (h ^ chars[i]) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Gets the fingerprint of the delete of a slice of chars without creating
+	 * it. It is the same fingerprint of the term without the deleted char.
+	 *
+	 * @param chars
+	 *            containing the term.
+	 * @param offset
+	 *            of the term.
+	 * @param length
+	 *            of the term.
+	 * @param position
+	 *            of the deleted char.
+	 * @return fingerprint of the delete.
+	 */
+	static long fingerprint(char[] chars, int offset, int length, int position) {
+		long h = 0xcbf29ce484222325L ^ (length - 1);
+		for (int i = offset; i < offset + length; i++) {
+			if (i != offset + position)
+				h = (h ^ chars[i]) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Final avalanche of the fingerprint (murmur3 finalizer).
+	 *
+	 * @param h
+	 *            hash to mix.
+	 * @return mixed hash, never 0.
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Gets the slot of a term.
+	 *
+	 * @param term
+	 *            to find.
+	 * @return slot of the term or -1 if it is not on the dictionary.
+	 */
+	int slotOf(CharSequence term) {
+		return find(fingerprint(term));
+	}
+
+	/**
+	 * Gets the slot of a fingerprint.
+	 *
+	 * @param fingerprint
+	 *            to find.
+	 * @return slot of the fingerprint or -1 if it is not on the dictionary.
+	 */
+	@Override
+	public int find(long fingerprint) {
+		int mask = keys.length - 1;
+		int slot = (int) fingerprint & mask;
+		long key;
+		while ((key = keys[slot]) != 0) {
+			if (key == fingerprint)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the slot of a term, creating the entry if it does not exist. Slots
+	 * are only valid until the next call to this method.
+	 *
+	 * @param term
+	 *            to find or insert.
+	 * @return slot of the term.
+	 */
+	int claim(CharSequence term) {
+		return claim(fingerprint(term));
+	}
+
+	/**
+	 * Gets the slot of a fingerprint, creating the entry if it does not
+	 * exist. Slots are only valid until the next call to this method.
+	 *
+	 * @param fingerprint
+	 *            to find or insert.
+	 * @return slot of the fingerprint.
+	 */
+	int claim(long fingerprint) {
+		if (size >= resizeAt)
+			grow();
+		int mask = keys.length - 1;
+		int slot = (int) fingerprint & mask;
+		long key;
+		while ((key = keys[slot]) != 0) {
+			if (key == fingerprint)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = fingerprint;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Gets the word of a slot.
+	 *
+	 * @param slot
+	 *            .
+	 * @return index of the word or NO_WORD.
+	 */
+	@Override
+	public int wordAt(int slot) {
+		return words[slot];
+	}
+
+	/**
+	 * Adds a new word to the word list and links it to a slot.
+	 *
+	 * @param slot
+	 *            of the word.
+	 * @param word
+	 *            to add.
+	 * @return index of the word.
+	 */
+	int addWord(int slot, String word) {
+		int index = wordlist.size();
+		wordlist.add(word);
+		if (index == counts.length)
+			counts = Arrays.copyOf(counts, index * 2);
+		counts[index] = 1;
+		words[slot] = index;
+		if (word.length() > maxLength)
+			maxLength = word.length();
+		return index;
+	}
+
+	/**
+	 * Gets a word.
+	 *
+	 * @param index
+	 *            of the word.
+	 * @return word.
+	 */
+	@Override
+	public String word(int index) {
+		return wordlist.get(index);
+	}
+
+	/**
+	 * Gets the count of a word.
+	 *
+	 * @param index
+	 *            of the word.
+	 * @return count.
+	 */
+	@Override
+	public int count(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * Increments the count of a word preventing overflow.
+	 *
+	 * @param index
+	 *            of the word.
+	 */
+	void incrementCount(int index) {
+		if (counts[index] < Integer.MAX_VALUE)
+			counts[index]++;
+	}
+
+	/**
+	 * Sets the count of a word.
+	 *
+	 * @param index
+	 *            of the word.
+	 * @param count
+	 *            of the word.
+	 */
+	void setCount(int index, int count) {
+		counts[index] = count;
+	}
+
+	/**
+	 * Gets the number of postings of a slot.
+	 *
+	 * @param slot
+	 *            .
+	 * @return number of postings.
+	 */
+	@Override
+	public int postingSize(int slot) {
+		int ref = refs[slot];
+		if (ref == NO_POSTINGS)
+			return 0;
+		if (ref >= 0)
+			return 1;
+		return arena[-ref - 1];
+	}
+
+	/**
+	 * Gets a posting of a slot.
+	 *
+	 * @param slot
+	 *            .
+	 * @param i
+	 *            position of the posting.
+	 * @return index of the word.
+	 */
+	@Override
+	public int posting(int slot, int i) {
+		int ref = refs[slot];
+		if (ref >= 0)
+			return ref;
+		return arena[-ref - 1 + BLOCK_HEADER + i];
+	}
+
+	/**
+	 * Adds a posting to a slot. Postings are not checked for duplicates, as
+	 * the word being inserted is always new.
+	 *
+	 * @param slot
+	 *            .
+	 * @param word
+	 *            index of the word.
+	 */
+	void addPosting(int slot, int word) {
+		int ref = refs[slot];
+		if (ref == NO_POSTINGS) {
+			refs[slot] = word;
+			return;
+		}
+		int block;
+		if (ref >= 0) {
+			block = allocateBlock(INITIAL_BLOCK);
+			arena[block] = 1;
+			arena[block + BLOCK_HEADER] = ref;
+			refs[slot] = -block - 1;
+		} else {
+			block = -ref - 1;
+			if (arena[block] == arena[block + 1]) {
+				int moved = allocateBlock(Math.max(INITIAL_BLOCK,
+						arena[block + 1] * 2));
+				System.arraycopy(arena, block + BLOCK_HEADER, arena, moved
+						+ BLOCK_HEADER, arena[block]);
+				arena[moved] = arena[block];
+				block = moved;
+				refs[slot] = -block - 1;
+			}
+		}
+		arena[block + BLOCK_HEADER + arena[block]] = word;
+		arena[block]++;
+	}
+
+	/**
+	 * Removes all postings of a slot.
+	 *
+	 * @param slot
+	 *            .
+	 */
+	void clearPostings(int slot) {
+		int ref = refs[slot];
+		if (ref < 0 && ref != NO_POSTINGS)
+			arena[-ref - 1] = 0;
+		else
+			refs[slot] = NO_POSTINGS;
+	}
+
+	/**
+	 * Gets the number of entries (words and deletes).
+	 *
+	 * @return number of entries.
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of words.
+	 *
+	 * @return number of words.
+	 */
+	@Override
+	public int wordCount() {
+		return wordlist.size();
+	}
+
+	/**
+	 * Gets maximum word length.
+	 *
+	 * @return maximum word length.
+	 */
+	@Override
+	public int maxLength() {
+		return maxLength;
+	}
+
+	@Override
+	public void writeTo(DataOutput out) throws IOException {
+		int chars = 0;
+		for (String word : wordlist)
+			chars += word.length();
+		out.writeInt(keys.length);
+		out.writeInt(size);
+		out.writeInt(maxLength);
+		out.writeInt(wordlist.size());
+		out.writeInt(arenaSize);
+		out.writeInt(chars);
+		for (long key : keys)
+			out.writeLong(key);
+		for (int ref : refs)
+			out.writeInt(ref);
+		for (int word : words)
+			out.writeInt(word);
+		for (int i = 0; i < arenaSize; i++)
+			out.writeInt(arena[i]);
+		for (int i = 0; i < wordlist.size(); i++)
+			out.writeInt(counts[i]);
+		int offset = 0;
+		for (String word : wordlist) {
+			out.writeInt(offset);
+			offset += word.length();
+		}
+		out.writeInt(offset);
+		for (String word : wordlist)
+			out.writeChars(word);
+	}
+
+	/**
+	 * Releases the space wasted while training: posting blocks are packed with
+	 * their exact size and word counts are trimmed.
+	 */
+	void trim() {
+		int used = 0;
+		for (int slot = 0; slot < refs.length; slot++) {
+			int ref = refs[slot];
+			if (ref < 0 && ref != NO_POSTINGS)
+				used += BLOCK_HEADER + arena[-ref - 1];
+		}
+		int[] packed = new int[used];
+		int position = 0;
+		for (int slot = 0; slot < refs.length; slot++) {
+			int ref = refs[slot];
+			if (ref < 0 && ref != NO_POSTINGS) {
+				int block = -ref - 1;
+				int length = arena[block];
+				packed[position] = length;
+				packed[position + 1] = length;
+				System.arraycopy(arena, block + BLOCK_HEADER, packed, position
+						+ BLOCK_HEADER, length);
+				refs[slot] = -position - 1;
+				position += BLOCK_HEADER + length;
+			}
+		}
+		arena = packed;
+		arenaSize = used;
+		counts = Arrays.copyOf(counts, wordlist.size());
+		wordlist.trimToSize();
+	}
+
+	/**
+	 * Allocates a block on the arena.
+	 *
+	 * @param capacity
+	 *            of the block.
+	 * @return position of the block.
+	 */
+	private int allocateBlock(int capacity) {
+		int needed = arenaSize + BLOCK_HEADER + capacity;
+		if (needed > arena.length)
+			arena = Arrays.copyOf(arena,
+					Math.max(needed, arena.length + (arena.length >> 1)));
+		int block = arenaSize;
+		arena[block] = 0;
+		arena[block + 1] = capacity;
+		arenaSize = needed;
+		return block;
+	}
+
+	/**
+	 * Allocates the arrays of the table.
+	 *
+	 * @param capacity
+	 *            of the table.
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		refs = new int[capacity];
+		words = new int[capacity];
+		Arrays.fill(refs, NO_POSTINGS);
+		Arrays.fill(words, NO_WORD);
+		resizeAt = capacity - (capacity >> 2);
+	}
+
+	/**
+	 * Doubles the capacity of the table.
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldRefs = refs;
+		int[] oldWords = words;
+		allocate(oldKeys.length * 2);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != 0) {
+				int slot = (int) key & mask;
+				while (keys[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				refs[slot] = oldRefs[i];
+				words[slot] = oldWords[i];
+			}
+		}
+	}
+}
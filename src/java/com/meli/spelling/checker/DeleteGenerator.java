@@ -0,0 +1,162 @@
+package com.meli.spelling.checker;
+
+import java.util.Arrays;
+
+/**
+ * This class generates the deletes of a word up to an edit distance. Deletes
+ * are built on reused char buffers and emitted as fingerprints, so no String
+ * is created for them. An instance must not be shared by threads.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class DeleteGenerator {
+	/**
+	 * Maximum edit distance of the deletes.
+	 */
+	private final int editDistanceMax;
+
+	/**
+	 * Buffer of each level of deletes (level 0 is the word).
+	 */
+	private char[][] levels;
+
+	/**
+	 * Deletes already emitted for the current word.
+	 */
+	private final FingerprintSet emitted = new FingerprintSet();
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param editDistanceMax
+	 *            maximum edit distance of the deletes.
+	 */
+	DeleteGenerator(int editDistanceMax) {
+		this.editDistanceMax = editDistanceMax;
+		this.levels = new char[editDistanceMax + 1][32];
+	}
+
+	/**
+	 * Generates all the deletes of a word.
+	 *
+	 * @param word
+	 *            to generate deletes.
+	 * @param index
+	 *            of the word.
+	 * @param batch
+	 *            where deletes are added.
+	 */
+	void generate(String word, int index, Batch batch) {
+		emitted.clear();
+		int length = word.length();
+		if (levels[0].length < length) {
+			for (int level = 0; level < levels.length; level++)
+				levels[level] = new char[length];
+		}
+		word.getChars(0, length, levels[0], 0);
+		edits(0, length, index, batch);
+	}
+
+	/**
+	 * Generates the deletes of a level.
+	 *
+	 * @param level
+	 *            of the term (number of deleted chars).
+	 * @param length
+	 *            of the term.
+	 * @param index
+	 *            of the word.
+	 * @param batch
+	 *            where deletes are added.
+	 */
+	private void edits(int level, int length, int index, Batch batch) {
+		if (length <= 1)
+			return;
+		char[] term = levels[level];
+		for (int i = 0; i < length; i++) {
+			// delete ith character
+			long delete = DeleteDictionary.fingerprint(term, 0, length, i);
+			if (emitted.add(delete)) {
+				batch.add(delete, index);
+				// recursion, if maximum edit distance not yet reached
+				if (level + 1 < editDistanceMax) {
+					char[] next = levels[level + 1];
+					System.arraycopy(term, 0, next, 0, i);
+					System.arraycopy(term, i + 1, next, i, length - i - 1);
+					edits(level + 1, length - 1, index, batch);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sequence of deletes (fingerprint and index of the word) in the order
+	 * they were generated.
+	 */
+	static final class Batch {
+		/**
+		 * Fingerprints of the deletes.
+		 */
+		private long[] deletes = new long[1024];
+
+		/**
+		 * Index of the word of each delete.
+		 */
+		private int[] words = new int[1024];
+
+		/**
+		 * Number of deletes.
+		 */
+		private int size = 0;
+
+		/**
+		 * Adds a delete.
+		 *
+		 * @param delete
+		 *            fingerprint.
+		 * @param word
+		 *            index of the word.
+		 */
+		void add(long delete, int word) {
+			if (size == deletes.length) {
+				deletes = Arrays.copyOf(deletes, size * 2);
+				words = Arrays.copyOf(words, size * 2);
+			}
+			deletes[size] = delete;
+			words[size] = word;
+			size++;
+		}
+
+		/**
+		 * Gets the number of deletes.
+		 *
+		 * @return number of deletes.
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Gets the fingerprint of a delete.
+		 *
+		 * @param i
+		 *            position.
+		 * @return fingerprint.
+		 */
+		long delete(int i) {
+			return deletes[i];
+		}
+
+		/**
+		 * Gets the word of a delete.
+		 *
+		 * @param i
+		 *            position.
+		 * @return index of the word.
+		 */
+		int word(int i) {
+			return words[i];
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.meli.spelling.checker;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Read access to the symmetric delete dictionary of a language, used by the
+ * lookups. It is implemented by the dictionary trained on the heap and by the
+ * dictionary mapped from a snapshot, which share the same layout.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+interface DeleteIndex {
+	/**
+	 * Value of a slot that does not point to a word.
+	 */
+	int NO_WORD = -1;
+
+	/**
+	 * Value of a slot that has no postings.
+	 */
+	int NO_POSTINGS = Integer.MIN_VALUE;
+
+	/**
+	 * Size of the header of a posting block (size and capacity).
+	 */
+	int BLOCK_HEADER = 2;
+
+	/**
+	 * Gets the slot of a fingerprint.
+	 *
+	 * @param fingerprint
+	 *            to find.
+	 * @return slot of the fingerprint or -1 if it is not on the dictionary.
+	 */
+	int find(long fingerprint);
+
+	/**
+	 * Gets the word of a slot.
+	 *
+	 * @param slot
+	 *            .
+	 * @return index of the word or NO_WORD.
+	 */
+	int wordAt(int slot);
+
+	/**
+	 * Gets a word.
+	 *
+	 * @param index
+	 *            of the word.
+	 * @return word.
+	 */
+	String word(int index);
+
+	/**
+	 * Gets the count of a word.
+	 *
+	 * @param index
+	 *            of the word.
+	 * @return count.
+	 */
+	int count(int index);
+
+	/**
+	 * Gets the number of postings of a slot.
+	 *
+	 * @param slot
+	 *            .
+	 * @return number of postings.
+	 */
+	int postingSize(int slot);
+
+	/**
+	 * Gets a posting of a slot.
+	 *
+	 * @param slot
+	 *            .
+	 * @param i
+	 *            position of the posting.
+	 * @return index of the word.
+	 */
+	int posting(int slot, int i);
+
+	/**
+	 * Gets the number of entries (words and deletes).
+	 *
+	 * @return number of entries.
+	 */
+	int size();
+
+	/**
+	 * Gets the number of words.
+	 *
+	 * @return number of words.
+	 */
+	int wordCount();
+
+	/**
+	 * Gets maximum word length.
+	 *
+	 * @return maximum word length.
+	 */
+	int maxLength();
+
+	/**
+	 * Writes the dictionary on a snapshot section: capacity, size, maximum
+	 * length, number of words, arena size and number of chars, followed by
+	 * the keys, refs and words of the table, the arena, the counts, the
+	 * offsets of the words and their chars.
+	 *
+	 * @param out
+	 *            output of the section.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	void writeTo(DataOutput out) throws IOException;
+}
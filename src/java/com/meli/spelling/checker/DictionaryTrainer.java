@@ -0,0 +1,355 @@
+package com.meli.spelling.checker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+import com.meli.spelling.metrics.Metrics;
+
+/**
+ * This class trains the dictionary of a language from a corpus. Words are
+ * read and indexed sequentially; the generation of their deletes is split in
+ * chunks of words that run on a fork-join pool, and the deletes are then
+ * inserted in the order of the words, so the result is the same no matter the
+ * parallelism level.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class DictionaryTrainer {
+	/**
+	 * Maximum number of words whose deletes are generated at once (bounds the
+	 * memory used by pending deletes).
+	 */
+	private static final int WINDOW = 1 << 16;
+
+	/**
+	 * Number of words of each task.
+	 */
+	private static final int CHUNK = 256;
+
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Distance of the deletes.
+	 */
+	private final int editDistanceMax;
+
+	/**
+	 * Verbose level of the corrector (0 and 1 only keep the suggestions of
+	 * lowest distance).
+	 */
+	private final int verbose;
+
+	/**
+	 * Pool where deletes are generated.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param editDistanceMax
+	 *            distance of the deletes.
+	 * @param verbose
+	 *            level of the corrector.
+	 * @param pool
+	 *            where deletes are generated, it may be null if the trainer
+	 *            only adds single words.
+	 */
+	DictionaryTrainer(int editDistanceMax, int verbose, ForkJoinPool pool) {
+		this.editDistanceMax = editDistanceMax;
+		this.verbose = verbose;
+		this.pool = pool;
+	}
+
+	/**
+	 * Create a frequency dictionary from a corpus file. For every word all
+	 * deletes with an edit distance of editDistanceMax are created and added
+	 * to the dictionary; every delete entry has a suggestions list, which
+	 * points to the original term(s) it was created from.
+	 *
+	 * @param corpus
+	 *            path of the file.
+	 * @param language
+	 *            .
+	 * @return dictionary, or null if it could not be created.
+	 */
+	DeleteDictionary train(String corpus, String language) {
+		File f = new File(corpus);
+		if (!(f.exists() && !f.isDirectory())) {
+			log.info("File not found: " + corpus);
+			return null;
+		}
+
+		log.info("Creating dictionary " + language + "...");
+		long startTime = System.currentTimeMillis();
+		DeleteDictionary dictionary = null;
+		try {
+			dictionary = train(f);
+		} catch (Exception e) {
+			log.info("There was a problem creating dictionary" + corpus);
+			return null;
+		}
+		long endTime = System.currentTimeMillis();
+		Metrics.getInstance().trained("corrector/" + language,
+				endTime - startTime);
+		log.info("\rDictionary " + language + ": " + dictionary.wordCount()
+				+ " words, " + dictionary.size() + " entries, edit distance="
+				+ editDistanceMax + " in " + (endTime - startTime) + "ms ");
+		return dictionary;
+	}
+
+	/**
+	 * Create a frequency dictionary from a corpus file. Every word of each
+	 * line and the whole line are added.
+	 *
+	 * @param corpus
+	 *            file.
+	 * @return dictionary.
+	 * @throws IOException
+	 *             if the corpus can not be read.
+	 */
+	DeleteDictionary train(File corpus) throws IOException {
+		DeleteDictionary dictionary = new DeleteDictionary();
+		BufferedReader br = new BufferedReader(new FileReader(corpus));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String words[] = line.split(" ");
+				for (String word : words) {
+					CreateDictionaryEntry(dictionary, word.toLowerCase());
+				}
+				CreateDictionaryEntry(dictionary, line.toLowerCase());
+			}
+		} finally {
+			br.close();
+		}
+		createDeletes(dictionary, 0);
+		dictionary.trim();
+		return dictionary;
+	}
+
+	/**
+	 * Creates a small frequency dictionary from some lines on the calling
+	 * thread, as train(File) does: every word of each line and the whole
+	 * line are added. The pool is not used.
+	 *
+	 * @param lines
+	 *            of the corpus.
+	 * @return dictionary.
+	 */
+	DeleteDictionary train(Collection<String> lines) {
+		DeleteDictionary dictionary = new DeleteDictionary();
+		for (String line : lines) {
+			for (String word : line.split(" ")) {
+				add(dictionary, word.toLowerCase());
+			}
+			add(dictionary, line.toLowerCase());
+		}
+		dictionary.trim();
+		return dictionary;
+	}
+
+	/**
+	 * Adds a word to the dictionary or increments its count if it already
+	 * exists. Deletes of new words are not created here, see createDeletes.
+	 *
+	 * @param dictionary
+	 *            where the word is added.
+	 * @param key
+	 *            to insert on the dictionary.
+	 * @return true if it is a new word.
+	 */
+	static boolean CreateDictionaryEntry(DeleteDictionary dictionary,
+			String key) {
+		int slot = dictionary.claim(key);
+		int keyint = dictionary.wordAt(slot);
+		if (keyint != DeleteDictionary.NO_WORD) {
+			// already exists:
+			// 1. word appears several times
+			// 2. word1==deletes(word2)
+			dictionary.incrementCount(keyint);
+			return false;
+		}
+		if (dictionary.wordCount() == Integer.MAX_VALUE)
+			return false;
+		// edits/suggestions are created only once, no matter how often word
+		// occurs, even if the same term existed before in the dictionary as
+		// an edit from another word
+		dictionary.addWord(slot, key);
+		return true;
+	}
+
+	/**
+	 * Creates the deletes of all the words added since a given index.
+	 *
+	 * @param dictionary
+	 *            .
+	 * @param from
+	 *            index of the first word without deletes.
+	 */
+	void createDeletes(DeleteDictionary dictionary, int from) {
+		int to = dictionary.wordCount();
+		for (int start = from; start < to; start += WINDOW) {
+			int end = Math.min(to, start + WINDOW);
+			DeleteGenerator.Batch[] batches = new DeleteGenerator.Batch[(end
+					- start + CHUNK - 1)
+					/ CHUNK];
+			DeleteTask task = new DeleteTask(dictionary, batches, start, start,
+					end);
+			if (ForkJoinTask.inForkJoinPool())
+				task.invoke();
+			else
+				pool.invoke(task);
+			// batches are merged in the order of the words
+			for (DeleteGenerator.Batch batch : batches) {
+				merge(dictionary, batch);
+			}
+		}
+	}
+
+	/**
+	 * Adds a word and its deletes to a dictionary on the calling thread, used
+	 * to update small dictionaries online. The pool is not used.
+	 *
+	 * @param dictionary
+	 *            where the word is added.
+	 * @param key
+	 *            to insert on the dictionary.
+	 * @return true if it is a new word.
+	 */
+	boolean add(DeleteDictionary dictionary, String key) {
+		int word = dictionary.wordCount();
+		if (!CreateDictionaryEntry(dictionary, key))
+			return false;
+		DeleteGenerator.Batch batch = new DeleteGenerator.Batch();
+		new DeleteGenerator(editDistanceMax).generate(key, word, batch);
+		merge(dictionary, batch);
+		return true;
+	}
+
+	/**
+	 * Inserts the deletes of a batch on the dictionary.
+	 *
+	 * @param dictionary
+	 *            .
+	 * @param batch
+	 *            of deletes.
+	 */
+	private void merge(DeleteDictionary dictionary, DeleteGenerator.Batch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			AddLowestDistance(dictionary, dictionary.claim(batch.delete(i)),
+					batch.word(i));
+		}
+	}
+
+	/**
+	 * save some time and space
+	 *
+	 * @param dictionary
+	 *            .
+	 * @param slot
+	 *            of the delete.
+	 * @param suggestionint
+	 *            index of the word.
+	 */
+	private void AddLowestDistance(DeleteDictionary dictionary, int slot,
+			int suggestionint) {
+		// the delete is part of every suggestion, so comparing the length of
+		// the words is comparing their distance to the delete
+		int length = dictionary.word(suggestionint).length();
+		// remove all existing suggestions of higher distance, if verbose<2
+		if ((verbose < 2)
+				&& (dictionary.postingSize(slot) > 0)
+				&& (dictionary.word(dictionary.posting(slot, 0)).length() > length))
+			dictionary.clearPostings(slot);
+		// do not add suggestion of higher distance than existing, if verbose<2
+		if ((verbose == 2)
+				|| (dictionary.postingSize(slot) == 0)
+				|| (dictionary.word(dictionary.posting(slot, 0)).length() >= length))
+			dictionary.addPosting(slot, suggestionint);
+	}
+
+	/**
+	 * Task that generates the deletes of a range of words. Each chunk of
+	 * words fills its own batch.
+	 */
+	private final class DeleteTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Dictionary of the words.
+		 */
+		private final DeleteDictionary dictionary;
+
+		/**
+		 * Batches of the window.
+		 */
+		private final DeleteGenerator.Batch[] batches;
+
+		/**
+		 * Index of the first word of the window.
+		 */
+		private final int window;
+
+		/**
+		 * First word of the task.
+		 */
+		private final int from;
+
+		/**
+		 * Last word (exclusive) of the task.
+		 */
+		private final int to;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param dictionary
+		 *            of the words.
+		 * @param batches
+		 *            of the window.
+		 * @param window
+		 *            first word of the window.
+		 * @param from
+		 *            first word of the task.
+		 * @param to
+		 *            last word (exclusive) of the task.
+		 */
+		DeleteTask(DeleteDictionary dictionary,
+				DeleteGenerator.Batch[] batches, int window, int from, int to) {
+			this.dictionary = dictionary;
+			this.batches = batches;
+			this.window = window;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int chunks = (to - from + CHUNK - 1) / CHUNK;
+			if (chunks > 1) {
+				int middle = from + (chunks / 2) * CHUNK;
+				invokeAll(new DeleteTask(dictionary, batches, window, from,
+						middle), new DeleteTask(dictionary, batches, window,
+						middle, to));
+				return;
+			}
+			DeleteGenerator generator = new DeleteGenerator(editDistanceMax);
+			DeleteGenerator.Batch batch = new DeleteGenerator.Batch();
+			for (int word = from; word < to; word++)
+				generator.generate(dictionary.word(word), word, batch);
+			batches[(from - window) / CHUNK] = batch;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.meli.spelling.checker;
+
+import java.util.Arrays;
+
+/**
+ * This class is an open addressing set of longs (fingerprints, indexes) that
+ * is cleared in constant time: a slot is only used if its stamp is the current
+ * epoch. It is meant to be reused as scratch state by a single thread.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class FingerprintSet {
+	/**
+	 * Initial capacity of the set.
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Keys of the set.
+	 */
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Epoch of each slot.
+	 */
+	private int[] stamps = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Current epoch.
+	 */
+	private int epoch = 1;
+
+	/**
+	 * Number of keys on the current epoch.
+	 */
+	private int size = 0;
+
+	/**
+	 * Removes all the keys.
+	 */
+	void clear() {
+		size = 0;
+		if (++epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * Adds a key.
+	 *
+	 * @param key
+	 *            to add.
+	 * @return true if the key was not on the set.
+	 */
+	boolean add(long key) {
+		if (size * 2 >= keys.length)
+			grow();
+		int mask = keys.length - 1;
+		int slot = (int) DeleteDictionary.mix(key) & mask;
+		while (stamps[slot] == epoch) {
+			if (keys[slot] == key)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		stamps[slot] = epoch;
+		keys[slot] = key;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Doubles the capacity of the set keeping the keys of the current
+	 * epoch.
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldStamps = stamps;
+		keys = new long[oldKeys.length * 2];
+		stamps = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldStamps[i] == epoch) {
+				int slot = (int) DeleteDictionary.mix(oldKeys[i]) & mask;
+				while (stamps[slot] == epoch)
+					slot = (slot + 1) & mask;
+				stamps[slot] = epoch;
+				keys[slot] = oldKeys[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.meli.spelling.checker;
+
+import java.util.Arrays;
+
+/**
+ * This class contains the scratch state used by a lookup: the queue of
+ * candidates (deletes of the input) stored as slices of a char arena, the set
+ * of already visited deletes, the set of already suggested words and the
+ * distance calculator. An
+ * instance is reused by all the lookups of a thread, so a lookup does not
+ * generate garbage besides its result.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class LookupBuffers {
+	/**
+	 * Initial capacity of the buffers.
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Arena containing the characters of the candidates.
+	 */
+	private char[] text = new char[INITIAL_CAPACITY * 8];
+
+	/**
+	 * Used positions of the arena.
+	 */
+	private int textSize = 0;
+
+	/**
+	 * Offset on the arena of each candidate.
+	 */
+	private int[] offsets = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Length of each candidate.
+	 */
+	private int[] lengths = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Next candidate to process.
+	 */
+	private int head = 0;
+
+	/**
+	 * Number of candidates enqueued.
+	 */
+	private int tail = 0;
+
+	/**
+	 * Fingerprints of the deletes already enqueued.
+	 */
+	private final FingerprintSet visited = new FingerprintSet();
+
+	/**
+	 * Words already suggested.
+	 */
+	private final FingerprintSet suggested = new FingerprintSet();
+
+	/**
+	 * Distance calculator used to verify suggestions.
+	 */
+	private final BoundedDistance distance = new BoundedDistance();
+
+	/**
+	 * Prepares the buffers for a new lookup, enqueueing the input as first
+	 * candidate.
+	 *
+	 * @param input
+	 *            of the lookup.
+	 */
+	void reset(String input) {
+		head = 0;
+		tail = 0;
+		textSize = 0;
+		visited.clear();
+		suggested.clear();
+		int length = input.length();
+		ensureText(length);
+		input.getChars(0, length, text, 0);
+		push(0, length);
+	}
+
+	/**
+	 * Checks if there are candidates to process.
+	 *
+	 * @return true if the queue is not empty.
+	 */
+	boolean hasCandidates() {
+		return head < tail;
+	}
+
+	/**
+	 * Takes the next candidate of the queue.
+	 *
+	 * @return candidate.
+	 */
+	int next() {
+		return head++;
+	}
+
+	/**
+	 * Gets the arena of the candidates. It may change when a delete is
+	 * enqueued.
+	 *
+	 * @return arena.
+	 */
+	char[] text() {
+		return text;
+	}
+
+	/**
+	 * Gets the offset of a candidate on the arena.
+	 *
+	 * @param candidate
+	 *            .
+	 * @return offset.
+	 */
+	int offset(int candidate) {
+		return offsets[candidate];
+	}
+
+	/**
+	 * Gets the length of a candidate.
+	 *
+	 * @param candidate
+	 *            .
+	 * @return length.
+	 */
+	int length(int candidate) {
+		return lengths[candidate];
+	}
+
+	/**
+	 * Enqueues the delete of a candidate if it was not visited before.
+	 *
+	 * @param candidate
+	 *            .
+	 * @param position
+	 *            of the deleted character.
+	 * @return true if the delete was enqueued.
+	 */
+	boolean enqueueDelete(int candidate, int position) {
+		int offset = offsets[candidate];
+		int length = lengths[candidate];
+		if (!visited.add(DeleteDictionary.fingerprint(text, offset, length,
+				position)))
+			return false;
+		ensureText(length - 1);
+		int start = textSize;
+		System.arraycopy(text, offset, text, start, position);
+		System.arraycopy(text, offset + position + 1, text, start + position,
+				length - position - 1);
+		push(start, length - 1);
+		return true;
+	}
+
+	/**
+	 * Marks a word as suggested.
+	 *
+	 * @param word
+	 *            index.
+	 * @return true if the word was not suggested before.
+	 */
+	boolean suggest(int word) {
+		return suggested.add(word);
+	}
+
+	/**
+	 * Gets the distance calculator of this thread.
+	 *
+	 * @return distance calculator.
+	 */
+	BoundedDistance distance() {
+		return distance;
+	}
+
+	/**
+	 * Checks if a candidate is equal to a word.
+	 *
+	 * @param candidate
+	 *            .
+	 * @param word
+	 *            .
+	 * @return true if both have the same characters.
+	 */
+	boolean matches(int candidate, String word) {
+		int length = lengths[candidate];
+		if (word.length() != length)
+			return false;
+		int offset = offsets[candidate];
+		for (int i = 0; i < length; i++) {
+			if (text[offset + i] != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a candidate to the queue.
+	 *
+	 * @param offset
+	 *            on the arena.
+	 * @param length
+	 *            of the candidate.
+	 */
+	private void push(int offset, int length) {
+		if (tail == offsets.length) {
+			offsets = Arrays.copyOf(offsets, tail * 2);
+			lengths = Arrays.copyOf(lengths, tail * 2);
+		}
+		offsets[tail] = offset;
+		lengths[tail] = length;
+		tail++;
+		textSize = offset + length;
+	}
+
+	/**
+	 * Ensures that the arena has room for more characters.
+	 *
+	 * @param length
+	 *            needed.
+	 */
+	private void ensureText(int length) {
+		if (textSize + length > text.length)
+			text = Arrays.copyOf(text,
+					Math.max(textSize + length, text.length * 2));
+	}
+}
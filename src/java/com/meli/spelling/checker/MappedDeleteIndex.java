@@ -0,0 +1,205 @@
+package com.meli.spelling.checker;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import com.meli.spelling.snapshot.Snapshot;
+
+/**
+ * This class serves the delete dictionary of a language straight from a
+ * snapshot section (see DeleteIndex.writeTo for the layout). The table, the
+ * postings and the words are read from the mapped file; only the words that
+ * are actually suggested are materialized as Strings, and they are cached.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class MappedDeleteIndex implements DeleteIndex {
+	/**
+	 * Size of the header of the section.
+	 */
+	private static final int HEADER = 24;
+
+	/**
+	 * Section of the snapshot.
+	 */
+	private final ByteBuffer section;
+
+	/**
+	 * Fingerprints of the entries, 0 means empty slot.
+	 */
+	private final LongBuffer keys;
+
+	/**
+	 * Postings of the entries (see DeleteDictionary).
+	 */
+	private final IntBuffer refs;
+
+	/**
+	 * Index of the word of the entries or NO_WORD.
+	 */
+	private final IntBuffer words;
+
+	/**
+	 * Posting blocks: size, capacity and postings.
+	 */
+	private final IntBuffer arena;
+
+	/**
+	 * Count of each word.
+	 */
+	private final IntBuffer counts;
+
+	/**
+	 * Offset of each word on chars (one more than words).
+	 */
+	private final IntBuffer offsets;
+
+	/**
+	 * Chars of all the words.
+	 */
+	private final CharBuffer chars;
+
+	/**
+	 * Words already read. Strings are immutable, so a word read twice by
+	 * concurrent lookups is harmless.
+	 */
+	private final String[] cache;
+
+	/**
+	 * Mask of the table (capacity - 1).
+	 */
+	private final int mask;
+
+	/**
+	 * Number of entries.
+	 */
+	private final int size;
+
+	/**
+	 * Maximum word length.
+	 */
+	private final int maxLength;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param section
+	 *            of the snapshot containing the dictionary.
+	 */
+	MappedDeleteIndex(ByteBuffer section) {
+		this.section = section;
+		int capacity = section.getInt(0);
+		size = section.getInt(4);
+		maxLength = section.getInt(8);
+		int wordCount = section.getInt(12);
+		int arenaSize = section.getInt(16);
+		int charCount = section.getInt(20);
+		if (Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Invalid dictionary capacity "
+					+ capacity);
+		mask = capacity - 1;
+		int offset = HEADER;
+		keys = Snapshot.slice(section, offset, capacity * 8).asLongBuffer();
+		offset += capacity * 8;
+		refs = Snapshot.slice(section, offset, capacity * 4).asIntBuffer();
+		offset += capacity * 4;
+		words = Snapshot.slice(section, offset, capacity * 4).asIntBuffer();
+		offset += capacity * 4;
+		arena = Snapshot.slice(section, offset, arenaSize * 4).asIntBuffer();
+		offset += arenaSize * 4;
+		counts = Snapshot.slice(section, offset, wordCount * 4).asIntBuffer();
+		offset += wordCount * 4;
+		offsets = Snapshot.slice(section, offset, (wordCount + 1) * 4)
+				.asIntBuffer();
+		offset += (wordCount + 1) * 4;
+		chars = Snapshot.slice(section, offset, charCount * 2).asCharBuffer();
+		cache = new String[wordCount];
+	}
+
+	@Override
+	public int find(long fingerprint) {
+		int slot = (int) fingerprint & mask;
+		long key;
+		while ((key = keys.get(slot)) != 0) {
+			if (key == fingerprint)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	@Override
+	public int wordAt(int slot) {
+		return words.get(slot);
+	}
+
+	@Override
+	public String word(int index) {
+		String word = cache[index];
+		if (word == null) {
+			int start = offsets.get(index);
+			char[] value = new char[offsets.get(index + 1) - start];
+			for (int i = 0; i < value.length; i++)
+				value[i] = chars.get(start + i);
+			word = new String(value);
+			cache[index] = word;
+		}
+		return word;
+	}
+
+	@Override
+	public int count(int index) {
+		return counts.get(index);
+	}
+
+	@Override
+	public int postingSize(int slot) {
+		int ref = refs.get(slot);
+		if (ref == NO_POSTINGS)
+			return 0;
+		if (ref >= 0)
+			return 1;
+		return arena.get(-ref - 1);
+	}
+
+	@Override
+	public int posting(int slot, int i) {
+		int ref = refs.get(slot);
+		if (ref >= 0)
+			return ref;
+		return arena.get(-ref - 1 + BLOCK_HEADER + i);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int wordCount() {
+		return cache.length;
+	}
+
+	@Override
+	public int maxLength() {
+		return maxLength;
+	}
+
+	@Override
+	public void writeTo(DataOutput out) throws IOException {
+		// the section already has the layout of the snapshot
+		ByteBuffer content = section.duplicate();
+		content.clear();
+		byte[] chunk = new byte[1 << 16];
+		while (content.hasRemaining()) {
+			int length = Math.min(chunk.length, content.remaining());
+			content.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+}
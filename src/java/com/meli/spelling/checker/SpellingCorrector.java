@@ -1,378 +1,376 @@
 package com.meli.spelling.checker;
 
-import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FilenameUtils;
 
+import com.meli.spelling.cache.ResultCache;
 import com.meli.spelling.config.CheckerConfig;
+import com.meli.spelling.metrics.FlightEvent;
+import com.meli.spelling.metrics.Metrics;
+import com.meli.spelling.ranking.Popularity;
+import com.meli.spelling.snapshot.Snapshot;
+import com.meli.spelling.snapshot.SnapshotWriter;
+import com.meli.spelling.utils.BatchExecutor;
 
 /**
  * This class provides an spelling corrector for states, cities and cities. It
  * is trained when the class is instantiated using some configuration
  * parameters.
  * 
+ * The state of a corrector is its own (there is no static mutable state), so
+ * several correctors with different names or parameters can live in the same
+ * JVM; getInstance returns the one of the configuration. Lookups take no locks:
+ * they read the immutable dictionary of the site published on a concurrent
+ * map, and only use buffers of their own thread.
+ * 
  * @author Fabian Bertetto
  *
  */
-public class SpellingCorrector {
+public class SpellingCorrector implements Metrics.Collector {
+	/**
+	 * Distance used when it is not set (2 is suggested when training).
+	 */
+	private static final int EDIT_DISTANCE_MAX = 2;
+
+	/**
+	 * Verbose used when it is not set.
+	 */
+	private static final int VERBOSE = 2;
+
 	/**
 	 * Directory that contains files with name of the cities separated by site.
 	 */
-	private final static String DIR_CITIES = CheckerConfig
-			.getDirSpellingNames();
+	private final String dir;
+
 	/**
 	 * Distance to calculate possible spelling corrections (2 is suggested when
 	 * training).
 	 */
-	private static int editDistanceMax = 2;
+	private final int editDistanceMax;
+
 	/**
-	 * TODO check if we can delete this.
+	 * Suggestions returned by lookup: 0 for the best suggestion, 1 for the
+	 * suggestions of the smallest distance, 2 for every suggestion (sorted by
+	 * distance). Lookups stop early below 2.
 	 */
-	private static int verbose = 2;
+	private final int verbose;
+
 	/**
-	 * Dictionary that contains both the original words and the deletes derived
-	 * from them. A term might be both word and delete from another word at the
-	 * same time. For space reduction a item might be either of type
-	 * dictionaryItem or Int A dictionaryItem is used for word, word/delete, and
-	 * delete with multiple suggestions. Int is used for deletes with a single
-	 * suggestion (the majority of entries).
+	 * Dictionaries by language (site). Each one contains both the original
+	 * words and the deletes derived from them. A term might be both word and
+	 * delete from another word at the same time. Dictionaries are immutable:
+	 * a reloaded or updated dictionary replaces the previous one atomically.
 	 */
-	private static HashMap<String, Object> dictionary = new HashMap<String, Object>();
+	private final ConcurrentHashMap<String, SpellingIndex> dictionaries = new ConcurrentHashMap<String, SpellingIndex>();
 
 	/**
-	 * List of unique words. By using the suggestions (Int) as index for this
-	 * list they are translated into the original String.
+	 * Dictionaries of the contexts (sites, states and cities) by context,
+	 * derived from their names the first time they are used; the least
+	 * recently used are discarded. Guarded by itself.
 	 */
-	private static List<String> wordlist = new ArrayList<String>();
+	private final LinkedHashMap<String, ContextDictionary> contexts = new LinkedHashMap<String, ContextDictionary>(
+			16, 0.75f, true);
 
 	/**
-	 * Maximum dictionary term length. This attribute is important to avoid
-	 * overflow.
+	 * Entries of the dictionaries of the contexts. Guarded by contexts.
 	 */
-	public static int maxlength = 0;
+	private long contextEntries = 0;
 
 	/**
-	 * Unique instance of the class.
+	 * Source of the names of the contexts, null if inputs are only corrected
+	 * on the dictionary of their site.
 	 */
-	private static final SpellingCorrector INSTANCE = new SpellingCorrector();
+	private volatile ContextNames contextNames;
 
 	/**
-	 * Constructor of the class. It will train the corrector if it is not
-	 * initiated;
+	 * Popularity of the words, added to their counts; null if words are only
+	 * ranked by their counts.
 	 */
-	private SpellingCorrector() {
-		if (INSTANCE != null) {
-			throw new IllegalStateException("Already Instantiated");
-		} else {
-			train();
-		}
-	}
+	private final Popularity popularity = Popularity.getInstance();
 
 	/**
-	 * Gets trained instance of the class.
-	 * 
-	 * @return SpellingCorrector.
+	 * Locks that serialize the changes of the dictionary of each language.
+	 * Lookups never take them.
 	 */
-	public static SpellingCorrector getInstance() {
-		return INSTANCE;
-	}
+	private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
 
 	/**
-	 * Logger utility
+	 * Compactions running in the background by language, with the changes
+	 * made to the dictionary since they started. Changed holding the lock of
+	 * the language.
 	 */
-	Logger log = Logger.getLogger("Logger");
+	private final ConcurrentHashMap<String, Compaction> compactions = new ConcurrentHashMap<String, Compaction>();
 
 	/**
-	 * for every word there all deletes with an edit distance of editDistanceMax
-	 * created and added to the dictionary every delete entry has a suggestions
-	 * list, which points to the original term(s) it was created from The
-	 * dictionary may be dynamically updated (word frequency and new words) at
-	 * any time by calling createDictionaryEntry
-	 * 
-	 * @param key
-	 *            to insert on the dictionary.
-	 * @param language
-	 *            .
-	 * @return success status.
-	 */
-	private static boolean CreateDictionaryEntry(String key, String language) {
-		boolean result = false;
-		dictionaryItem value = null;
-		Object valueo;
-		valueo = dictionary.get(language + key);
-		if (valueo != null) {
-			// int or dictionaryItem? delete existed before word!
-			if (valueo instanceof Integer) {
-				int tmp = ((Integer) valueo).intValue();
-				value = new dictionaryItem();
-				value.suggestions.add(tmp);
-				dictionary.put(language + key, value);
-			}
-			// already exists:
-			// 1. word appears several times
-			// 2. word1==deletes(word2)
-			else {
-				value = (dictionaryItem) valueo;
-			}
-			// prevent overflow
-			if (value.count < Integer.MAX_VALUE)
-				value.count++;
-		} else if (wordlist.size() < Integer.MAX_VALUE) {
-			value = new dictionaryItem();
-			value.count++;
-			dictionary.put(language + key, value);
-
-			if (key.length() > maxlength)
-				maxlength = key.length();
-		}
-
-		// edits/suggestions are created only once, no matter how often word
-		// occurs
-		// edits/suggestions are created only as soon as the word occurs in the
-		// corpus,
-		// even if the same term existed before in the dictionary as an edit
-		// from another word
-		// a treshold might be specifid, when a term occurs so frequently in the
-		// corpus that it is considered a valid word for spelling correction
-		if (value.count == 1) {
-			// word2index
-			wordlist.add(key);
-			int keyint = (int) (wordlist.size() - 1);
-
-			result = true;
-
-			// create deletes
-			for (String delete : Edits(key, 0, new HashSet<String>())) {
-				Object value2;
-				value2 = dictionary.get(language + delete);
-				if (value2 != null) {
-					// already exists:
-					// 1. word1==deletes(word2)
-					// 2. deletes(word1)==deletes(word2)
-					// int or dictionaryItem? single delete existed before!
-					if (value2 instanceof Integer) {
-						// transformes int to dictionaryItem
-						int tmp = ((Integer) value2).intValue();
-						;
-						dictionaryItem di = new dictionaryItem();
-						di.suggestions.add(tmp);
-						dictionary.put(language + delete, di);
-						if (!di.suggestions.contains(keyint))
-							AddLowestDistance(di, key, keyint, delete);
-					} else if (!((dictionaryItem) value2).suggestions
-							.contains(keyint))
-						AddLowestDistance((dictionaryItem) value2, key, keyint,
-								delete);
-				} else {
-					dictionary.put(language + delete, keyint);
+	 * Thread that compacts the dictionaries changed online, so the change
+	 * that makes a dictionary worth compacting does not wait for its
+	 * training. It is shared by every corrector and it is a daemon, so
+	 * correctors need not be closed.
+	 */
+	private static final ExecutorService COMPACTOR = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "dictionary-compactor");
+					thread.setDaemon(true);
+					return thread;
 				}
+			});
 
-			}
+	/**
+	 * Name of the snapshot section that lists the dictionaries. Each
+	 * dictionary is on its own section, named SECTION:language.
+	 */
+	private static final String SECTION = "spelling";
+
+	/**
+	 * Maximum number of words of an input corrected word by word. Longer
+	 * inputs are only looked up whole, so the work of a correction is
+	 * bounded.
+	 */
+	private static final int COMPOUND_WORDS = 8;
+
+	/**
+	 * Number of candidates of each word of a compound input.
+	 */
+	private static final int COMPOUND_CANDIDATES = 3;
+
+	/**
+	 * Maximum number of entries (words and deletes) of the dictionaries of
+	 * the contexts kept.
+	 */
+	private static final int CONTEXT_ENTRIES = 1 << 22;
+
+	/**
+	 * Scratch buffers used by the lookups of each thread. They are reset on
+	 * every lookup, so correctors running on the same thread share them.
+	 */
+	private static final ThreadLocal<LookupBuffers> BUFFERS = new ThreadLocal<LookupBuffers>() {
+		@Override
+		protected LookupBuffers initialValue() {
+			return new LookupBuffers();
 		}
-		return result;
-	}
+	};
 
-	// create a frequency dictionary from a corpus
 	/**
-	 * Create a frequency dictionary from a corpus file.
-	 * 
-	 * @param corpus
-	 *            file.
-	 * @param language
-	 *            .
+	 * Sorts suggestions by descending count.
 	 */
-	private void CreateDictionary(String corpus, String language) {
-		File f = new File(corpus);
-		if (!(f.exists() && !f.isDirectory())) {
-			log.info("File not found: " + corpus);
-			return;
+	private static final Comparator<suggestItem> BY_COUNT = new Comparator<suggestItem>() {
+		public int compare(suggestItem f1, suggestItem f2) {
+			return f1.count > f2.count ? -1 : (f1.count == f2.count ? 0 : 1);
 		}
+	};
 
-		log.info("Creating dictionary...");
-		long startTime = System.currentTimeMillis();
-		long wordCount = 0;
+	/**
+	 * Sorts suggestions by ascending distance, then by descending count.
+	 */
+	private static final Comparator<suggestItem> BY_DISTANCE_AND_COUNT = new Comparator<suggestItem>() {
+		public int compare(suggestItem x, suggestItem y) {
+			if (x.distance != y.distance)
+				return x.distance - y.distance;
+			return BY_COUNT.compare(x, y);
+		}
+	};
 
-		BufferedReader br = null;
-		try {
-			br = new BufferedReader(new FileReader(corpus));
-			String line;
-			while ((line = br.readLine()) != null) {
-
-				String words[] = line.split(" ");
-				for (String word : words) {
-					if (CreateDictionaryEntry(word.toLowerCase(), language))
-						wordCount++;
-				}
+	/**
+	 * Unique instance of the class.
+	 */
+	private static final SpellingCorrector INSTANCE = new SpellingCorrector();
 
-				if (CreateDictionaryEntry(line.toLowerCase(), language))
-					wordCount++;
-			}
+	/**
+	 * Constructor of the class for the configured names. It will load the
+	 * snapshot if it is configured, otherwise it will train the corrector.
+	 */
+	private SpellingCorrector() {
+		this(CheckerConfig.getDirSpellingNames(), EDIT_DISTANCE_MAX, VERBOSE,
+				CheckerConfig.getSnapshot());
+	}
 
-		} catch (Exception e) {
-			log.info("There was a problem creating dictionary" + corpus);
-		}
-		long endTime = System.currentTimeMillis();
-		log.info("\rDictionary: " + wordCount + " words, " + dictionary.size()
-				+ " entries, edit distance=" + editDistanceMax + " in "
-				+ (endTime - startTime) + "ms ");
+	/**
+	 * Creates a corrector trained with the names of a directory, independent
+	 * of the configured one (for example, to correct streets next to cities).
+	 * 
+	 * @param dir
+	 *            directory that contains a file of names by site.
+	 */
+	public SpellingCorrector(String dir) {
+		this(dir, EDIT_DISTANCE_MAX, VERBOSE, null);
 	}
 
 	/**
-	 * save some time and space
+	 * Creates a corrector trained with the names of a directory and its own
+	 * parameters, independent of the configured one.
 	 * 
-	 * @param item
-	 *            .
-	 * @param suggestion
-	 *            .
-	 * @param suggestionint
-	 *            .
-	 * @param delete
-	 *            .
+	 * @param dir
+	 *            directory that contains a file of names by site.
+	 * @param editDistanceMax
+	 *            distance to calculate possible spelling corrections.
+	 * @param verbose
+	 *            0 for the best suggestion, 1 for the suggestions of the
+	 *            smallest distance, 2 for every suggestion.
 	 */
-	private static void AddLowestDistance(dictionaryItem item,
-			String suggestion, int suggestionint, String delete) {
-		// remove all existing suggestions of higher distance, if verbose<2
-		if ((verbose < 2)
-				&& (item.suggestions.size() > 0)
-				&& (wordlist.get(item.suggestions.get(0)).length()
-						- delete.length() > suggestion.length()
-						- delete.length()))
-			item.suggestions.clear();
-		// do not add suggestion of higher distance than existing, if verbose<2
-		if ((verbose == 2)
-				|| (item.suggestions.size() == 0)
-				|| (wordlist.get(item.suggestions.get(0)).length()
-						- delete.length() >= suggestion.length()
-						- delete.length()))
-			item.suggestions.add(suggestionint);
-	}
-
-	/**
-	 * Edits possibility.
+	public SpellingCorrector(String dir, int editDistanceMax, int verbose) {
+		this(dir, editDistanceMax, verbose, null);
+	}
+
+	/**
+	 * Constructor of the class. It will load the snapshot if it is set,
+	 * otherwise it will train the corrector.
 	 * 
-	 * @param word
-	 * @param editDistance
-	 * @param deletes
-	 * @return
+	 * @param dir
+	 *            directory that contains a file of names by site.
+	 * @param editDistanceMax
+	 *            distance to calculate possible spelling corrections.
+	 * @param verbose
+	 *            0 for the best suggestion, 1 for the suggestions of the
+	 *            smallest distance, 2 for every suggestion.
+	 * @param snapshot
+	 *            path of the snapshot, null to train.
 	 */
-	private static HashSet<String> Edits(String word, int editDistance,
-			HashSet<String> deletes) {
-		editDistance++;
-		if (word.length() > 1) {
-			for (int i = 0; i < word.length(); i++) {
-				// delete ith character
-				String delete = word.substring(0, i) + word.substring(i + 1);
-				if (deletes.add(delete)) {
-					// recursion, if maximum edit distance not yet reached
-					if (editDistance < editDistanceMax)
-						Edits(delete, editDistance, deletes);
-				}
-			}
-		}
-		return deletes;
+	private SpellingCorrector(String dir, int editDistanceMax, int verbose,
+			String snapshot) {
+		this.dir = dir;
+		this.editDistanceMax = editDistanceMax;
+		this.verbose = verbose;
+		if (snapshot == null || !load(new File(snapshot)))
+			train();
 	}
 
+	/**
+	 * Gets trained instance of the class.
+	 * 
+	 * @return SpellingCorrector.
+	 */
+	public static SpellingCorrector getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Logger utility
+	 */
+	Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Corrections by language and input, null if they are not cached. The
+	 * corrections of a language are invalidated when its dictionary changes.
+	 */
+	private final ResultCache<String> cache = ResultCache
+			.fromConfig(new ResultCache.Weigher<String>() {
+				public int weigh(String correction) {
+					return 40 + 2 * correction.length();
+				}
+			});
+
 	/**
 	 * Gets possible suggestions for an input in an specific language.
 	 * 
+	 * @param index
+	 *            dictionary of the language or context, it can be null.
 	 * @param input
 	 * @param language
+	 *            or context, to rank the words by popularity.
 	 * @param editDistanceMax
 	 * @return
 	 */
-	private List<suggestItem> lookup(String input, String language,
-			int editDistanceMax) {
-		if (input.length() - editDistanceMax > maxlength)
+	private List<suggestItem> lookup(SpellingIndex index, String input,
+			String language, int editDistanceMax) {
+		if (index == null
+				|| input.length() - editDistanceMax > index.maxLength())
 			return new ArrayList<suggestItem>();
+		FlightEvent event = FlightEvent.begin(FlightEvent.CORRECTION);
+		// work done, reported on the event
+		int candidates = 0, postings = 0, distances = 0;
 
-		List<String> candidates = new ArrayList<String>();
-		HashSet<String> hashset1 = new HashSet<String>();
+		// candidates and visited deletes/suggestions live on reused buffers
+		LookupBuffers buffers = BUFFERS.get();
+		buffers.reset(input);
+		Popularity.Scope ranking = popularity == null ? null : popularity
+				.scope(language);
 
 		List<suggestItem> suggestions = new ArrayList<suggestItem>();
-		HashSet<String> hashset2 = new HashSet<String>();
-		Object valueo;
-		candidates.add(input);
 
-		while (candidates.size() > 0) {
-			String candidate = candidates.get(0);
-			candidates.remove(0);
+		while (buffers.hasCandidates()) {
+			int candidate = buffers.next();
+			int candidateLength = buffers.length(candidate);
+			candidates++;
 			nosort: {
 
 				if ((verbose < 2)
 						&& (suggestions.size() > 0)
-						&& (input.length() - candidate.length() > suggestions
+						&& (input.length() - candidateLength > suggestions
 								.get(0).distance))
 					break nosort;
 
-				// read candidate entry from dictionary
-				valueo = dictionary.get(language + candidate);
-				if (valueo != null) {
-					dictionaryItem value = new dictionaryItem();
-					if (valueo instanceof Integer)
-						value.suggestions.add(((Integer) valueo).intValue());
-					else
-						value = (dictionaryItem) valueo;
-
-					// if count>0 then candidate entry is correct dictionary
-					// term, not only delete item
-					if ((value.count > 0) && hashset2.add(candidate)) {
+				// read candidate entry from every dictionary of the index
+				long fingerprint = DeleteDictionary.fingerprint(
+						buffers.text(), buffers.offset(candidate),
+						candidateLength);
+				for (int layer = 0; layer < index.layers(); layer++) {
+					DeleteIndex dictionary = index.layer(layer);
+					int offset = index.offset(layer);
+					int slot = dictionary.find(fingerprint);
+					if (slot < 0)
+						continue;
+					int word = dictionary.wordAt(slot);
+					// if the entry has a word then candidate entry is correct
+					// dictionary term, not only delete item
+					if ((word != DeleteIndex.NO_WORD)
+							&& buffers.matches(candidate, dictionary.word(word))
+							&& !index.isRemoved(dictionary.word(word))
+							&& buffers.suggest(offset + word)) {
 						// add correct dictionary term term to suggestion list
 						suggestItem si = new suggestItem();
-						si.term = candidate;
-						si.count = value.count;
-						si.distance = input.length() - candidate.length();
+						si.term = dictionary.word(word);
+						si.count = frequency(index.count(dictionary, word),
+								ranking, si.term);
+						si.distance = input.length() - candidateLength;
 						suggestions.add(si);
 						// early termination
 						if ((verbose < 2)
-								&& (input.length() - candidate.length() == 0))
+								&& (input.length() - candidateLength == 0))
 							break nosort;
 					}
-					Object value2;
-					for (int suggestionint : value.suggestions) {
-						String suggestion = wordlist.get(suggestionint);
-						if (hashset2.add(suggestion)) {
+					for (int p = 0; p < dictionary.postingSize(slot); p++) {
+						int suggestionint = dictionary.posting(slot, p);
+						postings++;
+						if (buffers.suggest(offset + suggestionint)) {
+							String suggestion = dictionary.word(suggestionint);
+							if (index.isRemoved(suggestion))
+								continue;
 							int distance = 0;
 							if (suggestion != input) {
-								if (suggestion.length() == candidate.length())
+								if (suggestion.length() == candidateLength)
 									distance = input.length()
-											- candidate.length();
-								else if (input.length() == candidate.length())
+											- candidateLength;
+								else if (input.length() == candidateLength)
 									distance = suggestion.length()
-											- candidate.length();
+											- candidateLength;
 								else {
-									int ii = 0;
-									int jj = 0;
-									while ((ii < suggestion.length())
-											&& (ii < input.length())
-											&& (suggestion.charAt(ii) == input
-													.charAt(ii)))
-										ii++;
-									while ((jj < suggestion.length() - ii)
-											&& (jj < input.length() - ii)
-											&& (suggestion.charAt(suggestion
-													.length() - jj - 1) == input
-													.charAt(input.length() - jj
-															- 1)))
-										jj++;
-									if ((ii > 0) || (jj > 0)) {
-										distance = DamerauLevenshteinDistance(
-												suggestion.substring(ii,
-														suggestion.length()
-																- jj),
-												input.substring(ii,
-														input.length() - jj));
-									} else
-										distance = DamerauLevenshteinDistance(
-												suggestion, input);
+									// bounded: only needs to know if it is
+									// within editDistanceMax
+									distance = buffers.distance().distance(
+											suggestion, input, editDistanceMax);
+									distances++;
 								}
 							}
 
@@ -383,57 +381,67 @@ public class SpellingCorrector {
 									&& (distance > suggestions.get(0).distance))
 								continue;
 							if (distance <= editDistanceMax) {
-								value2 = dictionary.get(language + suggestion);
-								if (value2 != null) {
-									suggestItem si = new suggestItem();
-									si.term = suggestion;
-									si.count = ((dictionaryItem) value2).count;
-									si.distance = distance;
-									suggestions.add(si);
-								}
+								suggestItem si = new suggestItem();
+								si.term = suggestion;
+								si.count = frequency(index.count(dictionary,
+										suggestionint), ranking, suggestion);
+								si.distance = distance;
+								suggestions.add(si);
 							}
 						}
 					}
 				}
 
-				if (input.length() - candidate.length() < editDistanceMax) {
+				if (input.length() - candidateLength < editDistanceMax) {
 					if ((verbose < 2)
 							&& (suggestions.size() > 0)
-							&& (input.length() - candidate.length() >= suggestions
+							&& (input.length() - candidateLength >= suggestions
 									.get(0).distance))
 						continue;
 
-					for (int i = 0; i < candidate.length(); i++) {
-						String delete = candidate.substring(0, i)
-								+ candidate.substring(i + 1);
-						if (hashset1.add(delete))
-							candidates.add(delete);
-					}
+					// deletes are hashed in place and only copied to the
+					// queue when they were not visited before
+					for (int i = 0; i < candidateLength; i++)
+						buffers.enqueueDelete(candidate, i);
 				}
 			}
 		}
 
 		if (verbose < 2)
-			Collections.sort(suggestions, new Comparator<suggestItem>() {
-				public int compare(suggestItem f1, suggestItem f2) {
-					return -(f1.count - f2.count);
-				}
-			});
+			Collections.sort(suggestions, BY_COUNT);
 		else
-			Collections.sort(suggestions, new Comparator<suggestItem>() {
-				public int compare(suggestItem x, suggestItem y) {
-					return ((2 * x.distance - y.distance) > 0 ? 1 : 0)
-							- ((x.count - y.count) > 0 ? 1 : 0);
-				}
-			});
+			Collections.sort(suggestions, BY_DISTANCE_AND_COUNT);
 		if ((verbose == 0) && (suggestions.size() > 1))
-			return suggestions.subList(0, 1);
-		else
-			return suggestions;
+			suggestions = suggestions.subList(0, 1);
+		if (event != null)
+			event.commit(language, input.length(), editDistanceMax,
+					candidates, postings, distances, suggestions.size());
+		return suggestions;
+	}
+
+	/**
+	 * Gets the frequency of a word: its count on the dictionary plus its
+	 * popularity.
+	 * 
+	 * @param count
+	 *            of the word on the dictionary.
+	 * @param ranking
+	 *            popularity of the words of the language, it can be null.
+	 * @param term
+	 *            word.
+	 * @return frequency.
+	 */
+	private static int frequency(int count, Popularity.Scope ranking,
+			String term) {
+		if (ranking == null)
+			return count;
+		return (int) Math.min(Integer.MAX_VALUE, (long) count
+				+ ranking.count(term));
 	}
 
 	/**
-	 * Correct an input in an specific language.
+	 * Correct an input in an specific language. Corrections are cached. An
+	 * input that is already a word is counted on its popularity.
 	 * 
 	 * @param input
 	 *            .
@@ -442,28 +450,64 @@ public class SpellingCorrector {
 	 * @return correction (just the word).
 	 */
 	public String correctSpelling(String input, String language) {
+		if (cache == null || input == null || language == null)
+			return record(input, language,
+					correct(dictionaries.get(language), input, language));
+		String key = cache.key(language, input);
+		String correction = cache.get(key);
+		if (correction == null) {
+			correction = correct(dictionaries.get(language), input, language);
+			cache.put(key, correction);
+		}
+		return record(input, language, correction);
+	}
+
+	/**
+	 * Counts a served query on the popularity of its word, if the input was
+	 * already a word of the dictionary.
+	 * 
+	 * @param input
+	 *            corrected.
+	 * @param language
+	 *            .
+	 * @param correction
+	 *            of the input.
+	 * @return correction.
+	 */
+	private String record(String input, String language, String correction) {
+		if (popularity != null && input != null && language != null
+				&& input.equals(correction)) {
+			SpellingIndex index = dictionaries.get(language);
+			if (index != null && index.count(input) > 0)
+				popularity.record(language, input);
+		}
+		return correction;
+	}
+
+	/**
+	 * Corrects an input in an specific language looking it up on the
+	 * dictionary.
+	 * 
+	 * @param index
+	 *            dictionary of the language or context, it can be null.
+	 * @param input
+	 *            .
+	 * @param language
+	 *            or context.
+	 * @return correction (just the word).
+	 */
+	private String correct(SpellingIndex index, String input, String language) {
 		try {
-			List<suggestItem> suggestions = null;
 			// check in dictionary for existence and frequency; sort by
-			// ascending
-			// edit distance, then by descending word frequency
-			suggestions = lookup(input, language, 3);
-			// display term and frequency
-			for (suggestItem suggestion : suggestions) {
+			// ascending edit distance, then by descending word frequency
+			for (suggestItem suggestion : lookup(index, input, language, 3)) {
 				return suggestion.term;
 			}
-
-			String[] words = input.split(" ");
-			if (words.length > 1) {
-				StringBuilder sb = new StringBuilder();
-				for (String word : words) {
-					sb.append((lookup(word, language, 2)).get(0).term);
-					sb.append(" ");
-				}
-				suggestions = lookup(sb.toString(), language, 3);
-				for (suggestItem suggestion : suggestions) {
-					return suggestion.term;
-				}
+			String[] words = input.trim().split("\\s+");
+			if (words.length >= 2 && words.length <= COMPOUND_WORDS) {
+				String compound = correctCompound(index, words, language);
+				if (compound != null)
+					return compound;
 			}
 		} catch (Exception e) {
 			log.info("There was a problem trying to correct spelling of "
@@ -473,14 +517,620 @@ public class SpellingCorrector {
 	}
 
 	/**
-	 * This method will train the spelling corrector.
+	 * Corrects an input of several words that is not near any term of the
+	 * dictionary, word by word (as SymSpell LookupCompound). Each word can be
+	 * replaced by one of its nearest words, joined with the next one (a space
+	 * typed in the middle of a word) or split in two words (a missing space);
+	 * the best combinations of the first words, with the lowest total
+	 * distance and then the most frequent words, are kept by dynamic
+	 * programming over the words. Only a combination that is a term itself
+	 * (a whole name) is a correction.
+	 * 
+	 * @param index
+	 *            dictionary of the language or context, it can be null.
+	 * @param words
+	 *            of the input, from 2 to COMPOUND_WORDS.
+	 * @param language
+	 *            or context.
+	 * @return the best combination that is a term, null if there is none.
+	 */
+	private String correctCompound(SpellingIndex index, String[] words,
+			String language) {
+		if (index == null)
+			return null;
+		Popularity.Scope ranking = popularity == null ? null : popularity
+				.scope(language);
+		// best[i] are the best corrections of the first i words
+		List<List<Correction>> best = new ArrayList<List<Correction>>();
+		best.add(Collections.singletonList(Correction.EMPTY));
+		for (int i = 1; i <= words.length; i++) {
+			List<Correction> corrections = new ArrayList<Correction>();
+			for (suggestItem word : candidates(words[i - 1], language, index,
+					ranking, true))
+				for (Correction previous : best.get(i - 1))
+					Correction.offer(corrections, previous.then(word, 0));
+			if (i > 1) {
+				// the space between both words was a typo
+				for (suggestItem word : candidates(words[i - 2]
+						+ words[i - 1], language, index, ranking, false))
+					for (Correction previous : best.get(i - 2))
+						Correction.offer(corrections, previous.then(word, 1));
+			}
+			best.add(corrections);
+		}
+		for (Correction correction : best.get(words.length))
+			if (index.count(correction.text) > 0)
+				return correction.text;
+		return null;
+	}
+
+	/**
+	 * Gets the candidates of a word of a compound input: its nearest words
+	 * and, if it is not a word, the best split in two words. A word without
+	 * candidates is kept as it is, with a distance higher than any
+	 * correction.
+	 * 
+	 * @param word
+	 *            of the input.
+	 * @param language
+	 *            .
+	 * @param index
+	 *            dictionary of the language.
+	 * @param ranking
+	 *            popularity of the words of the language, it can be null.
+	 * @param keep
+	 *            true to keep the word when it has no candidates.
+	 * @return candidates, the best first.
+	 */
+	private List<suggestItem> candidates(String word, String language,
+			SpellingIndex index, Popularity.Scope ranking, boolean keep) {
+		int distance = word.length() <= 3 ? 1 : editDistanceMax;
+		List<suggestItem> candidates = new ArrayList<suggestItem>(lookup(
+				index, word, language, distance));
+		if (candidates.size() > COMPOUND_CANDIDATES)
+			candidates = candidates.subList(0, COMPOUND_CANDIDATES);
+		if (candidates.isEmpty() || candidates.get(0).distance > 0) {
+			suggestItem split = null;
+			for (int i = 1; i < word.length(); i++) {
+				String first = word.substring(0, i);
+				String second = word.substring(i);
+				int count = Math.min(index.count(first), index.count(second));
+				if (count > 0) {
+					count = Math.min(frequency(count, ranking, first),
+							frequency(count, ranking, second));
+					if (split == null || count > split.count) {
+						split = new suggestItem();
+						split.term = first + " " + second;
+						split.distance = 1;
+						split.count = count;
+					}
+				}
+			}
+			if (split != null)
+				candidates.add(split);
+		}
+		if (candidates.isEmpty() && keep) {
+			suggestItem same = new suggestItem();
+			same.term = word;
+			same.distance = distance + 1;
+			candidates.add(same);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Corrects a batch of inputs in an specific language. Inputs are
+	 * corrected in parallel on the shared batch pool.
+	 * 
+	 * @param inputs
+	 *            to correct.
+	 * @param language
+	 *            .
+	 * @return correction of each input, in the same order.
+	 */
+	public List<String> correctSpelling(final List<String> inputs,
+			final String language) {
+		return BatchExecutor.getInstance().map(inputs.size(),
+				new BatchExecutor.Item<String>() {
+					public String process(int index) {
+						return correctSpelling(inputs.get(index), language);
+					}
+				});
+	}
+
+	/**
+	 * Sets the source of the names of the contexts, so inputs can be
+	 * corrected on the names of their context.
+	 * 
+	 * @param contextNames
+	 *            source of the names, null to correct inputs only on the
+	 *            dictionary of their site.
+	 */
+	public void setContextNames(ContextNames contextNames) {
+		this.contextNames = contextNames;
+		synchronized (contexts) {
+			contexts.clear();
+			contextEntries = 0;
+		}
+	}
+
+	/**
+	 * Corrects an input on the names of its context (the states of a site,
+	 * the cities of a state or the streets of a city), the only ones its
+	 * suggestions can be looked for on. The dictionary of the context is
+	 * small, so the correction is cheap and is not cached. Inputs of
+	 * contexts without names are corrected on the dictionary of their site.
+	 * 
+	 * @param input
+	 *            .
+	 * @param language
+	 *            site of the context.
+	 * @param context
+	 *            site, state or city (as used on the suggestor).
+	 * @return correction (just the word), the input as it was if it has no
+	 *         correction.
+	 */
+	public String correctSpelling(String input, String language,
+			String context) {
+		SpellingIndex index = contextIndex(context);
+		if (index == null || input == null)
+			return correctSpelling(input, language);
+		// names are looked up in lower case
+		String lower = input.toLowerCase();
+		String correction = correct(index, lower, context);
+		return correction.equals(lower) ? input : correction;
+	}
+
+	/**
+	 * Corrects a batch of inputs, each one on the names of its context as
+	 * correctSpelling(String, String, String) does. Inputs are corrected in
+	 * parallel on the shared batch pool.
+	 * 
+	 * @param inputs
+	 *            to correct.
+	 * @param language
+	 *            site of the contexts.
+	 * @param contexts
+	 *            of each input.
+	 * @return correction of each input, in the same order.
+	 */
+	public List<String> correctSpelling(final List<String> inputs,
+			final String language, final List<String> contexts) {
+		return BatchExecutor.getInstance().map(inputs.size(),
+				new BatchExecutor.Item<String>() {
+					public String process(int index) {
+						return correctSpelling(inputs.get(index), language,
+								contexts.get(index));
+					}
+				});
+	}
+
+	/**
+	 * Gets the dictionary of the names of a context, deriving it if they
+	 * changed since it was derived.
+	 * 
+	 * @param context
+	 *            site, state or city, it can be null.
+	 * @return dictionary, null if the context has no names.
+	 */
+	private SpellingIndex contextIndex(String context) {
+		ContextNames source = contextNames;
+		if (source == null || context == null)
+			return null;
+		Collection<String> names = source.getNames(context);
+		if (names == null || names.isEmpty())
+			return null;
+		ContextDictionary dictionary;
+		synchronized (contexts) {
+			dictionary = contexts.get(context);
+		}
+		if (dictionary != null && dictionary.names == names)
+			return dictionary.index;
+		dictionary = new ContextDictionary(names, new SpellingIndex(
+				new DictionaryTrainer(editDistanceMax, verbose, null)
+						.train(names)));
+		synchronized (contexts) {
+			ContextDictionary previous = contexts.put(context, dictionary);
+			if (previous != null)
+				contextEntries -= previous.entries;
+			contextEntries += dictionary.entries;
+			Iterator<ContextDictionary> eldest = contexts.values().iterator();
+			while (contextEntries > CONTEXT_ENTRIES && eldest.hasNext()) {
+				ContextDictionary discarded = eldest.next();
+				if (discarded != dictionary) {
+					contextEntries -= discarded.entries;
+					eldest.remove();
+				}
+			}
+		}
+		return dictionary.index;
+	}
+
+	/**
+	 * This method will train the spelling corrector. The dictionary of each
+	 * site is created concurrently and the deletes of each dictionary are
+	 * generated on the same fork-join pool.
 	 */
 	public void train() {
-		File dir = new File(DIR_CITIES);
-		File[] directoryListing = dir.listFiles();
-		for (File child : directoryListing) {
-			CreateDictionary(child.getAbsolutePath(),
-					FilenameUtils.removeExtension(child.getName()));
+		File[] directoryListing = new File(dir).listFiles();
+		int parallelism = CheckerConfig.getTrainingParallelism();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		final DictionaryTrainer trainer = new DictionaryTrainer(
+				editDistanceMax, verbose, pool);
+		long startTime = System.currentTimeMillis();
+		try {
+			List<String> languages = new ArrayList<String>();
+			List<ForkJoinTask<DeleteDictionary>> tasks = new ArrayList<ForkJoinTask<DeleteDictionary>>();
+			for (final File child : directoryListing) {
+				final String language = FilenameUtils.removeExtension(child
+						.getName());
+				languages.add(language);
+				tasks.add(pool.submit(new Callable<DeleteDictionary>() {
+					public DeleteDictionary call() {
+						return trainer.train(child.getAbsolutePath(),
+								language);
+					}
+				}));
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				DeleteDictionary dictionary = tasks.get(i).join();
+				if (dictionary != null) {
+					dictionaries.put(languages.get(i), new SpellingIndex(
+							dictionary));
+					compactions.remove(languages.get(i));
+					invalidate(languages.get(i));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		Metrics.getInstance().trained("corrector",
+				System.currentTimeMillis() - startTime);
+		log.info("Spelling corrector trained: " + dictionaries.size()
+				+ " dictionaries in "
+				+ (System.currentTimeMillis() - startTime)
+				+ "ms, parallelism=" + parallelism);
+	}
+
+	/**
+	 * Trains again the dictionary of a site from its file and replaces the
+	 * current one, or removes it if the file does not exist anymore. Lookups
+	 * keep using the previous dictionary until the new one is complete. The
+	 * changes made online to the previous dictionary are discarded.
+	 * 
+	 * @param corpus
+	 *            file of the site.
+	 */
+	public void reload(File corpus) {
+		String language = FilenameUtils.removeExtension(corpus.getName());
+		synchronized (lock(language)) {
+			// a running compaction has the changes being discarded
+			compactions.remove(language);
+			if (!corpus.isFile()) {
+				dictionaries.remove(language);
+				invalidate(language);
+				log.info("Dictionary " + language + " removed");
+				return;
+			}
+			ForkJoinPool pool = new ForkJoinPool(
+					CheckerConfig.getTrainingParallelism());
+			try {
+				DeleteDictionary dictionary = new DictionaryTrainer(
+						editDistanceMax, verbose, pool).train(
+						corpus.getAbsolutePath(), language);
+				if (dictionary != null) {
+					dictionaries.put(language, new SpellingIndex(dictionary));
+					invalidate(language);
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Adds a term to the dictionary of a site as if it were a new line of its
+	 * corpus: every word of the term and the whole term are added, or their
+	 * counts are incremented if they already exist. Lookups running
+	 * concurrently see the dictionary before or after the change, never in
+	 * between.
+	 * 
+	 * @param term
+	 *            to add.
+	 * @param language
+	 *            site of the dictionary, it must exist.
+	 * @return true if the dictionary exists.
+	 */
+	public boolean addTerm(String term, String language) {
+		return addTerm(term, language, 1);
+	}
+
+	/**
+	 * Adds a term to the dictionary of a site as if it appeared a number of
+	 * times on its corpus, see addTerm(String, String). It is also used to
+	 * increase the frequency of an existing term.
+	 * 
+	 * @param term
+	 *            to add.
+	 * @param language
+	 *            site of the dictionary, it must exist.
+	 * @param count
+	 *            times the term is added (greater than 0).
+	 * @return true if the dictionary exists.
+	 */
+	public boolean addTerm(String term, String language, int count) {
+		if (count <= 0)
+			throw new IllegalArgumentException("Invalid count: " + count);
+		String line = term.toLowerCase();
+		synchronized (lock(language)) {
+			SpellingIndex index = dictionaries.get(language);
+			if (index == null)
+				return false;
+			DictionaryTrainer trainer = new DictionaryTrainer(editDistanceMax,
+					verbose, null);
+			List<Change> changes = new ArrayList<Change>();
+			for (String word : line.split(" ")) {
+				changes.add(new Change(word, count));
+			}
+			changes.add(new Change(line, count));
+			for (Change change : changes) {
+				index = change.apply(index, trainer);
+			}
+			update(language, index, changes);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a term from the dictionary of a site. Only the whole term is
+	 * removed, its words may belong to other terms.
+	 * 
+	 * @param term
+	 *            to remove.
+	 * @param language
+	 *            site of the dictionary.
+	 * @return true if the term was removed.
+	 */
+	public boolean removeTerm(String term, String language) {
+		String word = term.toLowerCase();
+		synchronized (lock(language)) {
+			SpellingIndex index = dictionaries.get(language);
+			if (index == null)
+				return false;
+			SpellingIndex updated = index.remove(word);
+			if (updated == index)
+				return false;
+			update(language, updated,
+					Collections.singletonList(new Change(word, 0)));
+		}
+		return true;
+	}
+
+	/**
+	 * Publishes the new dictionary of a site. When it has too many changes it
+	 * is compacted in the background, and lookups keep using the base and
+	 * its changes meanwhile; the changes made while it is compacted are
+	 * recorded to be applied to the compacted one. It must be called holding
+	 * the lock of the site.
+	 * 
+	 * @param language
+	 *            site of the dictionary.
+	 * @param index
+	 *            new dictionary.
+	 * @param changes
+	 *            made to the previous dictionary.
+	 */
+	private void update(String language, SpellingIndex index,
+			List<Change> changes) {
+		dictionaries.put(language, index);
+		invalidate(language);
+		Compaction compaction = compactions.get(language);
+		if (compaction != null) {
+			compaction.changes.addAll(changes);
+		} else if (index.needsCompaction()) {
+			final String site = language;
+			final Compaction started = new Compaction(index);
+			compactions.put(language, started);
+			COMPACTOR.execute(new Runnable() {
+				public void run() {
+					compact(site, started);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Compacts the dictionary of a site without holding its lock. Then, with
+	 * the lock, applies the changes made meanwhile to the compacted
+	 * dictionary and replaces the current one with it, unless the dictionary
+	 * was reloaded. Lookups give the same results with both.
+	 * 
+	 * @param language
+	 *            site of the dictionary.
+	 * @param compaction
+	 *            to run.
+	 */
+	private void compact(String language, Compaction compaction) {
+		long startTime = System.currentTimeMillis();
+		SpellingIndex compacted;
+		try {
+			compacted = compact(compaction.from);
+		} catch (RuntimeException e) {
+			log.info("There was a problem compacting dictionary " + language
+					+ ": " + e);
+			synchronized (lock(language)) {
+				compactions.remove(language, compaction);
+			}
+			return;
+		}
+		synchronized (lock(language)) {
+			if (!compactions.remove(language, compaction))
+				// reloaded while it was compacted
+				return;
+			SpellingIndex current = dictionaries.get(language);
+			DictionaryTrainer trainer = new DictionaryTrainer(editDistanceMax,
+					verbose, null);
+			for (Change change : compaction.changes)
+				compacted = change.apply(compacted, trainer);
+			if (current != null
+					&& dictionaries.replace(language, current, compacted))
+				log.info("Dictionary " + language + " compacted in "
+						+ (System.currentTimeMillis() - startTime) + "ms, "
+						+ compaction.changes.size()
+						+ " changes made meanwhile");
+		}
+	}
+
+	/**
+	 * Invalidates the cached corrections of a language. It must be called
+	 * after its new dictionary is published.
+	 * 
+	 * @param language
+	 *            site of the dictionary.
+	 */
+	private void invalidate(String language) {
+		if (cache != null)
+			cache.invalidate(language);
+	}
+
+	/**
+	 * Gets the cache of the corrections, to report its statistics.
+	 * 
+	 * @return cache, null if corrections are not cached.
+	 */
+	public ResultCache<String> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Adds the sizes of the dictionaries and the statistics of the cache to
+	 * the metrics.
+	 * 
+	 * @param samples
+	 *            where they are added.
+	 */
+	@Override
+	public void collect(Metrics.Samples samples) {
+		for (Map.Entry<String, SpellingIndex> dictionary : dictionaries
+				.entrySet()) {
+			DeleteIndex base = dictionary.getValue().base();
+			samples.gauge("checker_dictionary_words",
+					"Words of the dictionary of each site.", "site",
+					dictionary.getKey(), base.wordCount());
+			samples.gauge("checker_dictionary_entries",
+					"Words and deletes of the dictionary of each site.",
+					"site", dictionary.getKey(), base.size());
+		}
+		synchronized (contexts) {
+			samples.gauge("checker_context_dictionaries",
+					"Dictionaries of contexts kept.", null, null,
+					contexts.size());
+			samples.gauge("checker_context_dictionary_entries",
+					"Words and deletes of the dictionaries of contexts kept.",
+					null, null, contextEntries);
+		}
+		if (cache != null) {
+			cache.collect("corrections", samples);
+		}
+	}
+
+	/**
+	 * Folds the changes of a dictionary into a new trained one.
+	 * 
+	 * @param index
+	 *            dictionary with changes.
+	 * @return compacted dictionary.
+	 */
+	private SpellingIndex compact(SpellingIndex index) {
+		ForkJoinPool pool = new ForkJoinPool(
+				CheckerConfig.getTrainingParallelism());
+		try {
+			return index.compact(new DictionaryTrainer(editDistanceMax,
+					verbose, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Gets the lock that serializes the changes of a dictionary.
+	 * 
+	 * @param language
+	 *            site of the dictionary.
+	 * @return lock.
+	 */
+	private Object lock(String language) {
+		Object lock = locks.get(language);
+		if (lock == null) {
+			lock = new Object();
+			Object previous = locks.putIfAbsent(language, lock);
+			if (previous != null)
+				lock = previous;
+		}
+		return lock;
+	}
+
+	/**
+	 * Maps the dictionaries from a snapshot instead of training them.
+	 * 
+	 * @param file
+	 *            of the snapshot.
+	 * @return true if the dictionaries were loaded.
+	 */
+	private boolean load(File file) {
+		long startTime = System.currentTimeMillis();
+		try {
+			Snapshot snapshot = Snapshot.open(file);
+			ByteBuffer header = snapshot.section(SECTION);
+			if (header == null) {
+				log.info("Snapshot without dictionaries: " + file);
+				return false;
+			}
+			if (header.getInt() != editDistanceMax
+					|| header.getInt() != verbose) {
+				log.info("Snapshot trained with other parameters: " + file);
+				return false;
+			}
+			int languages = header.getInt();
+			HashMap<String, SpellingIndex> loaded = new HashMap<String, SpellingIndex>();
+			for (int i = 0; i < languages; i++) {
+				String language = Snapshot.readString(header);
+				DeleteIndex dictionary = new MappedDeleteIndex(
+						snapshot.section(SECTION + ":" + language));
+				loaded.put(language, new SpellingIndex(dictionary));
+			}
+			dictionaries.putAll(loaded);
+		} catch (Exception e) {
+			log.info("There was a problem loading snapshot " + file + ": " + e);
+			return false;
+		}
+		log.info("Spelling corrector loaded from snapshot: "
+				+ dictionaries.size() + " dictionaries in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+		return true;
+	}
+
+	/**
+	 * Writes the dictionaries on a snapshot. Dictionaries changed online are
+	 * compacted before being written.
+	 * 
+	 * @param writer
+	 *            of the snapshot.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public void writeSnapshot(SnapshotWriter writer) throws IOException {
+		DataOutputStream out = writer.section(SECTION);
+		out.writeInt(editDistanceMax);
+		out.writeInt(verbose);
+		out.writeInt(dictionaries.size());
+		for (String language : dictionaries.keySet())
+			Snapshot.writeString(out, language);
+		for (String language : dictionaries.keySet()) {
+			SpellingIndex index = dictionaries.get(language);
+			if (index.isModified())
+				index = compact(index);
+			index.base().writeTo(writer.section(SECTION + ":" + language));
 		}
 	}
 
@@ -542,11 +1192,169 @@ public class SpellingCorrector {
 	}
 
 	/**
-	 * Internal class that represents an item of the dictionary.
+	 * Dictionary derived from the names of a context.
 	 */
-	private static class dictionaryItem {
-		public List<Integer> suggestions = new ArrayList<Integer>();
-		public int count = 0;
+	private static final class ContextDictionary {
+		/**
+		 * Names the dictionary was derived from.
+		 */
+		final Collection<String> names;
+
+		/**
+		 * Dictionary of the names.
+		 */
+		final SpellingIndex index;
+
+		/**
+		 * Number of entries of the dictionary.
+		 */
+		final int entries;
+
+		ContextDictionary(Collection<String> names, SpellingIndex index) {
+			this.names = names;
+			this.index = index;
+			this.entries = index.base().size();
+		}
+	}
+
+	/**
+	 * Change made online to the dictionary of a site.
+	 */
+	private static final class Change {
+		/**
+		 * Word added or removed.
+		 */
+		final String term;
+
+		/**
+		 * Times the word is added, 0 if it is removed.
+		 */
+		final int count;
+
+		Change(String term, int count) {
+			this.term = term;
+			this.count = count;
+		}
+
+		/**
+		 * Makes the change on a dictionary.
+		 * 
+		 * @param index
+		 *            dictionary.
+		 * @param trainer
+		 *            that creates the deletes of new words.
+		 * @return changed dictionary.
+		 */
+		SpellingIndex apply(SpellingIndex index, DictionaryTrainer trainer) {
+			return count > 0 ? index.add(term, count, trainer) : index
+					.remove(term);
+		}
+	}
+
+	/**
+	 * Compaction of the dictionary of a site running in the background.
+	 */
+	private static final class Compaction {
+		/**
+		 * Dictionary being compacted.
+		 */
+		final SpellingIndex from;
+
+		/**
+		 * Changes made to the dictionary since the compaction started, to
+		 * apply to the compacted one. Guarded by the lock of the site.
+		 */
+		final List<Change> changes = new ArrayList<Change>();
+
+		Compaction(SpellingIndex from) {
+			this.from = from;
+		}
+	}
+
+	/**
+	 * Correction of the first words of a compound input.
+	 */
+	private static final class Correction {
+		/**
+		 * Correction of no words.
+		 */
+		static final Correction EMPTY = new Correction("", 0, 0);
+
+		/**
+		 * Corrections of the same words kept.
+		 */
+		static final int BEAM = 16;
+
+		/**
+		 * Corrected words.
+		 */
+		final String text;
+
+		/**
+		 * Total edit distance.
+		 */
+		final int distance;
+
+		/**
+		 * Logarithm of the probability of the words (sum of the logarithms
+		 * of their frequencies), to prefer frequent words and fewer words.
+		 */
+		final double frequency;
+
+		Correction(String text, int distance, double frequency) {
+			this.text = text;
+			this.distance = distance;
+			this.frequency = frequency;
+		}
+
+		/**
+		 * Appends a word to the correction.
+		 * 
+		 * @param word
+		 *            candidate of the next words.
+		 * @param cost
+		 *            distance added by joining the words.
+		 * @return new correction.
+		 */
+		Correction then(suggestItem word, int cost) {
+			return new Correction(text.isEmpty() ? word.term : text + " "
+					+ word.term, distance + word.distance + cost, frequency
+					+ Math.log((word.count + 1) / 1e6));
+		}
+
+		/**
+		 * Adds a correction to the best corrections of the same words, if it
+		 * is one of the BEAM best: the lowest distance first, then the
+		 * highest frequency.
+		 * 
+		 * @param beam
+		 *            best corrections, the best first.
+		 * @param correction
+		 *            to add.
+		 */
+		static void offer(List<Correction> beam, Correction correction) {
+			int i = beam.size();
+			while (i > 0 && correction.isBetter(beam.get(i - 1)))
+				i--;
+			if (i < BEAM) {
+				beam.add(i, correction);
+				if (beam.size() > BEAM)
+					beam.remove(BEAM);
+			}
+		}
+
+		/**
+		 * Compares two corrections of the same words.
+		 * 
+		 * @param other
+		 *            correction.
+		 * @return true if this one has a lower distance, or the same and a
+		 *         higher frequency.
+		 */
+		boolean isBetter(Correction other) {
+			return distance < other.distance
+					|| (distance == other.distance && frequency > other.frequency);
+		}
 	}
 
 	/**
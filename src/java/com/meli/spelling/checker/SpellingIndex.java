@@ -0,0 +1,330 @@
+package com.meli.spelling.checker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is the immutable state of the dictionary of a language (site):
+ * the trained dictionary (base) and the changes made online since it was
+ * trained. New words live on a small overlay dictionary with their deletes,
+ * removed words are hidden by tombstones and changed counts are kept apart, so
+ * nothing shared with the lookups is ever modified. Every change creates a new
+ * instance copying only the changes; when they grow too much they are folded
+ * into a new base (see compact).
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class SpellingIndex {
+	/**
+	 * Number of changes (new words, removed words and changed counts) that
+	 * makes the index worth compacting.
+	 */
+	private static final int COMPACT_THRESHOLD = 256;
+
+	/**
+	 * Dictionaries of the index: the base and the overlay if it exists.
+	 */
+	private final DeleteIndex[] layers;
+
+	/**
+	 * Offset of the word indexes of each layer, so indexes are unique on the
+	 * whole index.
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Words removed from the index.
+	 */
+	private final Set<String> removed;
+
+	/**
+	 * Counts of the words changed after they were added.
+	 */
+	private final Map<String, Integer> counts;
+
+	/**
+	 * Constructor of the class for a trained dictionary without changes.
+	 *
+	 * @param base
+	 *            trained dictionary.
+	 */
+	SpellingIndex(DeleteIndex base) {
+		this(base, null, Collections.<String> emptySet(), Collections
+				.<String, Integer> emptyMap());
+	}
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param base
+	 *            trained dictionary.
+	 * @param overlay
+	 *            dictionary of the new words, null if there are none.
+	 * @param removed
+	 *            words.
+	 * @param counts
+	 *            changed counts.
+	 */
+	private SpellingIndex(DeleteIndex base, DeleteDictionary overlay,
+			Set<String> removed, Map<String, Integer> counts) {
+		if (overlay == null) {
+			this.layers = new DeleteIndex[] { base };
+			this.offsets = new int[] { 0 };
+		} else {
+			this.layers = new DeleteIndex[] { base, overlay };
+			this.offsets = new int[] { 0, base.wordCount() };
+		}
+		this.removed = removed;
+		this.counts = counts;
+	}
+
+	/**
+	 * Gets the number of dictionaries of the index.
+	 *
+	 * @return 1 or 2 if there is an overlay.
+	 */
+	int layers() {
+		return layers.length;
+	}
+
+	/**
+	 * Gets a dictionary of the index.
+	 *
+	 * @param layer
+	 *            0 for the base, 1 for the overlay.
+	 * @return dictionary.
+	 */
+	DeleteIndex layer(int layer) {
+		return layers[layer];
+	}
+
+	/**
+	 * Gets the offset of the word indexes of a dictionary.
+	 *
+	 * @param layer
+	 *            of the dictionary.
+	 * @return offset.
+	 */
+	int offset(int layer) {
+		return offsets[layer];
+	}
+
+	/**
+	 * Gets the trained dictionary.
+	 *
+	 * @return base dictionary.
+	 */
+	DeleteIndex base() {
+		return layers[0];
+	}
+
+	/**
+	 * Checks if a word was removed.
+	 *
+	 * @param word
+	 *            .
+	 * @return true if it was removed.
+	 */
+	boolean isRemoved(String word) {
+		return !removed.isEmpty() && removed.contains(word);
+	}
+
+	/**
+	 * Gets the count of a word of a dictionary of the index.
+	 *
+	 * @param layer
+	 *            dictionary of the word.
+	 * @param word
+	 *            index of the word on the dictionary.
+	 * @return count.
+	 */
+	int count(DeleteIndex layer, int word) {
+		if (!counts.isEmpty()) {
+			Integer count = counts.get(layer.word(word));
+			if (count != null)
+				return count;
+		}
+		return layer.count(word);
+	}
+
+	/**
+	 * Gets maximum word length.
+	 *
+	 * @return maximum word length.
+	 */
+	int maxLength() {
+		int maxLength = 0;
+		for (DeleteIndex layer : layers)
+			maxLength = Math.max(maxLength, layer.maxLength());
+		return maxLength;
+	}
+
+	/**
+	 * Checks if the index was changed after it was trained.
+	 *
+	 * @return true if it has changes.
+	 */
+	boolean isModified() {
+		return layers.length > 1 || !removed.isEmpty() || !counts.isEmpty();
+	}
+
+	/**
+	 * Checks if the changes are too many and the index should be compacted.
+	 *
+	 * @return true if it should be compacted.
+	 */
+	boolean needsCompaction() {
+		int changes = removed.size() + counts.size();
+		if (layers.length > 1)
+			changes += layers[1].wordCount();
+		return changes > COMPACT_THRESHOLD;
+	}
+
+	/**
+	 * Gets the count of a word of the index.
+	 *
+	 * @param term
+	 *            word.
+	 * @return count, or 0 if the word is not on the index.
+	 */
+	int count(String term) {
+		if (isRemoved(term))
+			return 0;
+		for (DeleteIndex layer : layers) {
+			int word = indexOf(layer, term);
+			if (word != DeleteIndex.NO_WORD)
+				return count(layer, word);
+		}
+		return 0;
+	}
+
+	/**
+	 * Creates an index with a word added, or with its count incremented if
+	 * it already exists.
+	 *
+	 * @param term
+	 *            word to add.
+	 * @param count
+	 *            times the word is added.
+	 * @param trainer
+	 *            that creates the deletes of new words.
+	 * @return new index.
+	 */
+	SpellingIndex add(String term, int count, DictionaryTrainer trainer) {
+		int current = count(term);
+		if (current == 0 && !exists(term)) {
+			DeleteDictionary overlay = overlay() != null ? overlay().copy()
+					: new DeleteDictionary();
+			trainer.add(overlay, term);
+			Map<String, Integer> counts = this.counts;
+			if (count != 1) {
+				counts = new HashMap<String, Integer>(this.counts);
+				counts.put(term, count);
+			}
+			return new SpellingIndex(layers[0], overlay, removed, counts);
+		}
+		Set<String> removed = this.removed;
+		if (current == 0) {
+			// the word was removed, it is added again from scratch
+			removed = new HashSet<String>(this.removed);
+			removed.remove(term);
+		}
+		Map<String, Integer> counts = new HashMap<String, Integer>(this.counts);
+		counts.put(term, (int) Math.min(Integer.MAX_VALUE, (long) current
+				+ count));
+		return new SpellingIndex(layers[0], overlay(), removed, counts);
+	}
+
+	/**
+	 * Creates an index without a word.
+	 *
+	 * @param term
+	 *            word to remove.
+	 * @return new index, or this one if the word does not exist.
+	 */
+	SpellingIndex remove(String term) {
+		if (count(term) == 0)
+			return this;
+		Set<String> removed = new HashSet<String>(this.removed);
+		removed.add(term);
+		Map<String, Integer> counts = this.counts;
+		if (counts.containsKey(term)) {
+			counts = new HashMap<String, Integer>(this.counts);
+			counts.remove(term);
+		}
+		return new SpellingIndex(layers[0], overlay(), removed, counts);
+	}
+
+	/**
+	 * Creates an index without changes training a new base with the words of
+	 * this one, each one with its current count. Words keep their order, so
+	 * lookups give the same results.
+	 *
+	 * @param trainer
+	 *            that creates the deletes.
+	 * @return compacted index.
+	 */
+	SpellingIndex compact(DictionaryTrainer trainer) {
+		DeleteDictionary dictionary = new DeleteDictionary();
+		for (DeleteIndex layer : layers) {
+			for (int word = 0; word < layer.wordCount(); word++) {
+				String term = layer.word(word);
+				if (!isRemoved(term)
+						&& DictionaryTrainer.CreateDictionaryEntry(dictionary,
+								term))
+					dictionary.setCount(dictionary.wordCount() - 1,
+							count(layer, word));
+			}
+		}
+		trainer.createDeletes(dictionary, 0);
+		dictionary.trim();
+		return new SpellingIndex(dictionary);
+	}
+
+	/**
+	 * Gets the overlay dictionary.
+	 *
+	 * @return overlay, null if there are no new words.
+	 */
+	private DeleteDictionary overlay() {
+		return layers.length > 1 ? (DeleteDictionary) layers[1] : null;
+	}
+
+	/**
+	 * Checks if a word is on some dictionary, even if it was removed.
+	 *
+	 * @param term
+	 *            word.
+	 * @return true if it exists.
+	 */
+	private boolean exists(String term) {
+		for (DeleteIndex layer : layers) {
+			if (indexOf(layer, term) != DeleteIndex.NO_WORD)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the index of a word on a dictionary.
+	 *
+	 * @param layer
+	 *            dictionary.
+	 * @param term
+	 *            word.
+	 * @return index of the word or NO_WORD.
+	 */
+	private static int indexOf(DeleteIndex layer, String term) {
+		int slot = layer.find(DeleteDictionary.fingerprint(term));
+		if (slot < 0)
+			return DeleteIndex.NO_WORD;
+		int word = layer.wordAt(slot);
+		if (word != DeleteIndex.NO_WORD && layer.word(word).equals(term))
+			return word;
+		return DeleteIndex.NO_WORD;
+	}
+}
@@ -0,0 +1,92 @@
+package com.meli.spelling.cluster;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of the contexts (sites, states and cities) among the
+ * nodes of a partitioned deployment. Each node is placed on a ring of hashes
+ * many times (its replicas) and a context is owned by the first node after its
+ * hash, so adding or removing a node only moves the contexts of its part of
+ * the ring. Hashes do not depend on the JVM, every node computes the same
+ * owner.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class HashRing {
+	/**
+	 * Nodes by their hashes on the ring.
+	 */
+	private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+
+	/**
+	 * Nodes of the ring.
+	 */
+	private final List<String> nodes;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param nodes
+	 *            of the ring, identified by their URL.
+	 * @param replicas
+	 *            number of times each node is placed on the ring.
+	 */
+	public HashRing(List<String> nodes, int replicas) {
+		if (nodes.isEmpty()) {
+			throw new IllegalArgumentException("A ring needs some node");
+		}
+		this.nodes = Collections.unmodifiableList(nodes);
+		for (String node : nodes) {
+			for (int i = 0; i < replicas; i++) {
+				ring.put(hash(node + "#" + i), node);
+			}
+		}
+	}
+
+	/**
+	 * Gets the node that owns a context.
+	 *
+	 * @param context
+	 *            site, state or city.
+	 * @return URL of the node.
+	 */
+	public String owner(String context) {
+		Map.Entry<Long, String> entry = ring.ceilingEntry(hash(context));
+		return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+	}
+
+	/**
+	 * Gets the nodes of the ring.
+	 *
+	 * @return URL of each node.
+	 */
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Hashes a string: FNV-1a of its chars, mixed so close strings are spread
+	 * over the ring.
+	 *
+	 * @param string
+	 *            to hash.
+	 * @return hash.
+	 */
+	static long hash(String string) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < string.length(); i++) {
+			hash ^= string.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,234 @@
+package com.meli.spelling.cluster;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.meli.spelling.config.CheckerConfig;
+
+/**
+ * Routes the suggestions of the contexts a node does not own to their owner,
+ * on a partitioned deployment (see HashRing). The names are asked to the /names
+ * action of the owner; concurrent requests of the same names share a single
+ * call.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class Router {
+	/**
+	 * Number of times each node is placed on the ring.
+	 */
+	private static final int REPLICAS = 128;
+
+	/**
+	 * Encoding of the requests and the responses.
+	 */
+	private static final String UTF_8 = "UTF-8";
+
+	/**
+	 * Gson used to read the names of the responses.
+	 */
+	private static final Gson GSON = new Gson();
+
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Ring of the nodes.
+	 */
+	private final HashRing ring;
+
+	/**
+	 * URL of this node.
+	 */
+	private final String self;
+
+	/**
+	 * Timeout of the calls to other nodes, in milliseconds.
+	 */
+	private final int timeout;
+
+	/**
+	 * Calls running by names asked.
+	 */
+	private final ConcurrentHashMap<String, FutureTask<List<String>>> calls = new ConcurrentHashMap<String, FutureTask<List<String>>>();
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param nodes
+	 *            URL of each node of the deployment.
+	 * @param self
+	 *            URL of this node, it must be one of the nodes.
+	 * @param timeout
+	 *            of the calls to other nodes, in milliseconds.
+	 */
+	public Router(List<String> nodes, String self, int timeout) {
+		List<String> urls = new ArrayList<String>(nodes.size());
+		for (String node : nodes) {
+			urls.add(url(node));
+		}
+		this.self = url(self);
+		if (!urls.contains(this.self)) {
+			throw new IllegalArgumentException(self + " is not one of the nodes "
+					+ nodes);
+		}
+		this.ring = new HashRing(urls, REPLICAS);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Creates the router of the configured deployment.
+	 *
+	 * @return router, null if the deployment is not partitioned (or its
+	 *         configuration is not valid) and every context is served locally.
+	 */
+	public static Router fromConfig() {
+		String nodes = CheckerConfig.getClusterNodes();
+		if (nodes == null || nodes.trim().isEmpty()) {
+			return null;
+		}
+		try {
+			Router router = new Router(Arrays.asList(nodes.trim().split(
+					"\\s*,\\s*")), String.valueOf(CheckerConfig
+					.getClusterSelf()), CheckerConfig.getClusterTimeout());
+			log.info("Contexts partitioned among " + router.ring.getNodes()
+					+ ", this node is " + router.self);
+			return router;
+		} catch (IllegalArgumentException e) {
+			log.info("Contexts are not partitioned: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the trailing slash of the URL of a node.
+	 *
+	 * @param node
+	 *            URL.
+	 * @return URL without trailing slash.
+	 */
+	private static String url(String node) {
+		String url = node.trim();
+		return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+	}
+
+	/**
+	 * Checks if this node owns a context.
+	 *
+	 * @param context
+	 *            site, state or city.
+	 * @return true if its names are served by this node.
+	 */
+	public boolean owns(String context) {
+		return self.equals(ring.owner(context));
+	}
+
+	/**
+	 * Gets the node that owns a context.
+	 *
+	 * @param context
+	 *            site, state or city.
+	 * @return URL of the node.
+	 */
+	public String owner(String context) {
+		return ring.owner(context);
+	}
+
+	/**
+	 * Gets the suggested names of a key from the owner of its context. If the
+	 * same names are being asked by another request its call is awaited.
+	 *
+	 * @param key
+	 *            to get suggestions.
+	 * @param context
+	 *            site, state or city.
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them.
+	 * @return names, empty if the owner could not be called.
+	 */
+	public List<String> names(final String key, final String context,
+			final int limit) {
+		final String owner = ring.owner(context);
+		String id = context + '\0' + key + '\0' + Math.max(limit, 0);
+		FutureTask<List<String>> call = new FutureTask<List<String>>(
+				new Callable<List<String>>() {
+					public List<String> call() throws IOException {
+						return fetch(owner, key, context, limit);
+					}
+				});
+		FutureTask<List<String>> running = calls.putIfAbsent(id, call);
+		try {
+			if (running == null) {
+				try {
+					call.run();
+				} finally {
+					calls.remove(id, call);
+				}
+				running = call;
+			}
+			return running.get();
+		} catch (ExecutionException e) {
+			log.info("Could not get names of " + context + " from " + owner
+					+ ": " + e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Calls the owner of a context to get the suggested names of a key.
+	 *
+	 * @param owner
+	 *            URL of the node.
+	 * @param key
+	 *            to get suggestions.
+	 * @param context
+	 *            site, state or city.
+	 * @param limit
+	 *            maximum number of suggestions.
+	 * @return names.
+	 * @throws IOException
+	 *             if the node can not be called.
+	 */
+	private List<String> fetch(String owner, String key, String context,
+			int limit) throws IOException {
+		URL url = new URL(owner + "/names?context="
+				+ URLEncoder.encode(context, UTF_8) + "&key="
+				+ URLEncoder.encode(key, UTF_8) + "&limit=" + Math.max(limit, 0));
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		int status = connection.getResponseCode();
+		if (status != HttpURLConnection.HTTP_OK) {
+			connection.disconnect();
+			throw new IOException("Status " + status + " from " + url);
+		}
+		InputStream in = connection.getInputStream();
+		try {
+			String[] names = GSON.fromJson(new InputStreamReader(in, UTF_8),
+					String[].class);
+			return names == null ? Collections.<String> emptyList() : Arrays
+					.asList(names);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -2,6 +2,8 @@ package com.meli.spelling.config;
 
 import grails.util.Holders;
 
+import java.util.Map;
+
 /**
  * This class contains configuration for the solution (spelling corrector and
  * suggestor).
@@ -15,6 +17,29 @@ public class CheckerConfig {
 	private static final String DIR_SUGGESTOR_NAMES_STREETS = "com.meli.checker.suggestor.names.streets";
 	private static final String DIR_SUGGESTOR_NAMES_CITIES = "com.meli.checker.suggestor.names.cities";
 	private static final String DIR_SUGGESTOR_NAMES_STATES = "com.meli.checker.suggestor.names.states";
+	private static final String TRAINING_PARALLELISM = "com.meli.checker.training.parallelism";
+	private static final String SNAPSHOT = "com.meli.checker.snapshot";
+	private static final String SUGGESTOR_INDEX = "com.meli.checker.suggestor.index";
+	private static final String SUGGESTOR_LIMIT = "com.meli.checker.suggestor.limit";
+	private static final String RELOAD = "com.meli.checker.reload";
+	private static final String BATCH_PARALLELISM = "com.meli.checker.batch.parallelism";
+	private static final String BATCH_MAX_SIZE = "com.meli.checker.batch.maxSize";
+	private static final String CACHE_SIZE = "com.meli.checker.cache.megabytes";
+	private static final String CACHE_TTL = "com.meli.checker.cache.ttl";
+	private static final String SUGGESTOR_LAZY = "com.meli.checker.suggestor.lazy";
+	private static final String SUGGESTOR_SIZE = "com.meli.checker.suggestor.megabytes";
+	private static final String SUGGESTOR_FUZZY = "com.meli.checker.suggestor.fuzzy";
+	private static final String POPULARITY = "com.meli.checker.popularity.enabled";
+	private static final String POPULARITY_COUNTS = "com.meli.checker.popularity.counts";
+	private static final String CORRECTOR_CONTEXTS = "com.meli.checker.corrector.contexts";
+	private static final String FLIGHT_EVENTS = "com.meli.checker.jfr.enabled";
+	private static final String ASYNC = "com.meli.checker.async.enabled";
+	private static final String ASYNC_THREADS = "com.meli.checker.async.threads";
+	private static final String ASYNC_QUEUE = "com.meli.checker.async.queue";
+	private static final String ASYNC_TIMEOUT = "com.meli.checker.async.timeout";
+	private static final String CLUSTER_NODES = "com.meli.checker.cluster.nodes";
+	private static final String CLUSTER_SELF = "com.meli.checker.cluster.self";
+	private static final String CLUSTER_TIMEOUT = "com.meli.checker.cluster.timeout";
 
 	/**
 	 * Gets Directory containing names for training the spelling corrector.
@@ -22,7 +47,7 @@ public class CheckerConfig {
 	 * @return directory containing names for training spelling corrector.
 	 */
 	public static String getDirSpellingNames() {
-		return (String) Holders.getFlatConfig().get(DIR_SPELLING_NAMES);
+		return get(DIR_SPELLING_NAMES);
 	}
 
 	/**
@@ -31,8 +56,7 @@ public class CheckerConfig {
 	 * @return directory containing street names for training the suggestor.
 	 */
 	public static String getDirSuggestorNamesStreets() {
-		return (String) Holders.getFlatConfig()
-				.get(DIR_SUGGESTOR_NAMES_STREETS);
+		return get(DIR_SUGGESTOR_NAMES_STREETS);
 	}
 
 	/**
@@ -41,7 +65,7 @@ public class CheckerConfig {
 	 * @return directory containing city names for training the suggestor.
 	 */
 	public static String getDirSuggestorNamesCities() {
-		return (String) Holders.getFlatConfig().get(DIR_SUGGESTOR_NAMES_CITIES);
+		return get(DIR_SUGGESTOR_NAMES_CITIES);
 	}
 
 	/**
@@ -50,7 +74,280 @@ public class CheckerConfig {
 	 * @return directory containing state names for training the suggestor.
 	 */
 	public static String getDirSuggestorNamesStates() {
-		return (String) Holders.getFlatConfig().get(DIR_SUGGESTOR_NAMES_STATES);
+		return get(DIR_SUGGESTOR_NAMES_STATES);
+	}
+
+	/**
+	 * Gets the number of threads used to train the spelling corrector.
+	 * 
+	 * @return parallelism level, the number of available processors if it is
+	 *         not configured.
+	 */
+	public static int getTrainingParallelism() {
+		int parallelism = getInt(TRAINING_PARALLELISM, 0);
+		return parallelism > 0 ? parallelism : Runtime.getRuntime()
+				.availableProcessors();
+	}
+
+	/**
+	 * Gets the path of the snapshot with the precomputed indexes. When it is
+	 * configured the indexes are mapped from it instead of trained.
+	 * 
+	 * @return path of the snapshot, null if it is not configured.
+	 */
+	public static String getSnapshot() {
+		return get(SNAPSHOT);
+	}
+
+	/**
+	 * Gets the kind of index used by the suggestor: suffixTree or
+	 * suffixArray.
+	 * 
+	 * @return kind of index, null if it is not configured (suffixTree).
+	 */
+	public static String getSuggestorIndex() {
+		return get(SUGGESTOR_INDEX);
+	}
+
+	/**
+	 * Gets the number of suggestions returned when the request does not set
+	 * a limit.
+	 * 
+	 * @return limit of suggestions, 0 if they are not limited.
+	 */
+	public static int getSuggestionLimit() {
+		return getInt(SUGGESTOR_LIMIT, 0);
+	}
+
+	/**
+	 * Checks if the names must be reloaded when their files change.
+	 * 
+	 * @return true if names are reloaded, false by default.
+	 */
+	public static boolean isReloadEnabled() {
+		return Boolean.parseBoolean(get(RELOAD));
+	}
+
+	/**
+	 * Gets the number of threads that process the terms of batch requests.
+	 * 
+	 * @return parallelism level, the number of available processors if it is
+	 *         not configured.
+	 */
+	public static int getBatchParallelism() {
+		int parallelism = getInt(BATCH_PARALLELISM, 0);
+		return parallelism > 0 ? parallelism : Runtime.getRuntime()
+				.availableProcessors();
+	}
+
+	/**
+	 * Gets the maximum number of terms of a batch request.
+	 * 
+	 * @return maximum number of terms, 10000 if it is not configured.
+	 */
+	public static int getBatchMaxSize() {
+		return getInt(BATCH_MAX_SIZE, 10000);
+	}
+
+	/**
+	 * Gets the size of each cache of results (corrections and suggestions).
+	 * 
+	 * @return size in megabytes, 32 if it is not configured, 0 if results are
+	 *         not cached.
+	 */
+	public static int getCacheMegabytes() {
+		return getInt(CACHE_SIZE, 32);
+	}
+
+	/**
+	 * Gets the time cached results are used.
+	 * 
+	 * @return time in seconds, 0 if it is not configured (results are used
+	 *         until names change).
+	 */
+	public static int getCacheTtl() {
+		return getInt(CACHE_TTL, 0);
+	}
+
+	/**
+	 * Checks if the names of each context are indexed on its first request
+	 * instead of on startup.
+	 * 
+	 * @return true if contexts are loaded on demand, false by default.
+	 */
+	public static boolean isSuggestorLazy() {
+		return Boolean.parseBoolean(get(SUGGESTOR_LAZY));
+	}
+
+	/**
+	 * Gets the heap the indexes of the suggestor can use. The least recently
+	 * used contexts are unloaded to keep them under it.
+	 * 
+	 * @return size in megabytes, 0 if it is not configured (no limit).
+	 */
+	public static int getSuggestorMegabytes() {
+		return getInt(SUGGESTOR_SIZE, 0);
+	}
+
+	/**
+	 * Gets the maximum number of edits of the keys completed with typos when
+	 * no name contains them.
+	 * 
+	 * @return edits, 0 by default (disabled).
+	 */
+	public static int getSuggestorFuzzy() {
+		return getInt(SUGGESTOR_FUZZY, 0);
+	}
+
+	/**
+	 * Checks if names are ranked by popularity (counts file and served
+	 * queries).
+	 * 
+	 * @return false by default.
+	 */
+	public static boolean isPopularityEnabled() {
+		String value = get(POPULARITY);
+		return value != null && Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * Gets the file with the counts of the names, loaded on startup.
+	 * 
+	 * @return path, null if it is not configured (only served queries are
+	 *         counted).
+	 */
+	public static String getPopularityCounts() {
+		return get(POPULARITY_COUNTS);
+	}
+
+	/**
+	 * Checks if inputs without suggestions are corrected on the names of
+	 * their context (state or city) instead of the dictionary of their site.
+	 * 
+	 * @return false by default.
+	 */
+	public static boolean isContextCorrectionEnabled() {
+		String value = get(CORRECTOR_CONTEXTS);
+		return value != null && Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * Checks if lookups emit Java Flight Recorder events with the work they
+	 * do.
+	 * 
+	 * @return false by default.
+	 */
+	public static boolean isFlightEventsEnabled() {
+		return Boolean.parseBoolean(get(FLIGHT_EVENTS));
+	}
+
+	/**
+	 * Checks if the actions of the checker run asynchronously, on the threads
+	 * of the request executor instead of the ones of the container.
+	 * 
+	 * @return false by default.
+	 */
+	public static boolean isAsyncEnabled() {
+		return Boolean.parseBoolean(get(ASYNC));
+	}
+
+	/**
+	 * Gets the number of threads that run the asynchronous actions.
+	 * 
+	 * @return threads, the number of available processors if it is not
+	 *         configured.
+	 */
+	public static int getAsyncThreads() {
+		int threads = getInt(ASYNC_THREADS, 0);
+		return threads > 0 ? threads : Runtime.getRuntime()
+				.availableProcessors();
+	}
+
+	/**
+	 * Gets the number of asynchronous actions that can wait for a thread,
+	 * more requests are rejected.
+	 * 
+	 * @return size of the queue, 1024 if it is not configured.
+	 */
+	public static int getAsyncQueue() {
+		return getInt(ASYNC_QUEUE, 1024);
+	}
+
+	/**
+	 * Gets the time an asynchronous action has to complete, queued time
+	 * included.
+	 * 
+	 * @return timeout in milliseconds, 10000 if it is not configured.
+	 */
+	public static int getAsyncTimeout() {
+		return getInt(ASYNC_TIMEOUT, 10000);
+	}
+
+	/**
+	 * Gets the nodes a partitioned deployment splits the contexts among.
+	 * 
+	 * @return URL of each node (as http://host:8080/checker) separated by
+	 *         commas, null if it is not configured (not partitioned).
+	 */
+	public static String getClusterNodes() {
+		return get(CLUSTER_NODES);
+	}
+
+	/**
+	 * Gets the URL of this node on a partitioned deployment.
+	 * 
+	 * @return URL, one of the nodes.
+	 */
+	public static String getClusterSelf() {
+		return get(CLUSTER_SELF);
+	}
+
+	/**
+	 * Gets the timeout of the calls to other nodes of a partitioned
+	 * deployment.
+	 * 
+	 * @return timeout in milliseconds, 2000 if it is not configured.
+	 */
+	public static int getClusterTimeout() {
+		return getInt(CLUSTER_TIMEOUT, 2000);
+	}
+
+	/**
+	 * Gets a configuration value. Outside the application (offline tools) the
+	 * value is taken from the system properties.
+	 * 
+	 * @param key
+	 *            of the value.
+	 * @return value, null if it is not configured.
+	 */
+	private static String get(String key) {
+		Map<?, ?> config = Holders.getFlatConfig();
+		Object value = config == null ? null : config.get(key);
+		if (value == null) {
+			return System.getProperty(key);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Gets a numeric configuration value.
+	 * 
+	 * @param key
+	 *            of the value.
+	 * @param defaultValue
+	 *            used if the value is not configured or is not a number.
+	 * @return value.
+	 */
+	private static int getInt(String key, int defaultValue) {
+		String value = get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
 	}
 
 }
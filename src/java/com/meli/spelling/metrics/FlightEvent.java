@@ -0,0 +1,207 @@
+package com.meli.spelling.metrics;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.meli.spelling.config.CheckerConfig;
+
+/**
+ * Java Flight Recorder event of the work done by a lookup, so a recording
+ * shows why a request was slow: how long the input was, how many candidates
+ * were expanded, postings scanned and distances computed, and how many
+ * results were returned.
+ *
+ * The application is built for Java 7, which has no JFR API, so the event
+ * types are defined at runtime with jdk.jfr.EventFactory (JDK 9 and later,
+ * and the JFR backport of JDK 8) and used by reflection. Events are disabled
+ * by default: the types are null and lookups only test them. When they are
+ * enabled an event is created for each lookup and committed only if JFR is
+ * recording it.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class FlightEvent {
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Lookup of a correction on a dictionary, null if events are disabled.
+	 */
+	public static final Type CORRECTION = CheckerConfig
+			.isFlightEventsEnabled() ? Type.define(
+			"com.meli.checker.Correction", "Correction",
+			"Lookup of a correction on a dictionary", new Object[] {
+					String.class, "context", int.class, "inputLength",
+					int.class, "maxDistance", int.class, "candidates",
+					int.class, "postings", int.class, "distances", int.class,
+					"results" }) : null;
+
+	/**
+	 * Lookup of the suggestions of a context, null if events are disabled.
+	 */
+	public static final Type SUGGESTION = CheckerConfig
+			.isFlightEventsEnabled() ? Type.define(
+			"com.meli.checker.Suggestion", "Suggestion",
+			"Lookup of the suggestions of a context", new Object[] {
+					String.class, "context", int.class, "inputLength",
+					int.class, "limit", boolean.class, "near", int.class,
+					"results" }) : null;
+
+	/**
+	 * Type of the event.
+	 */
+	private final Type type;
+
+	/**
+	 * JFR event.
+	 */
+	private final Object event;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param type
+	 *            of the event.
+	 * @param event
+	 *            JFR event, already begun.
+	 */
+	private FlightEvent(Type type, Object event) {
+		this.type = type;
+		this.event = event;
+	}
+
+	/**
+	 * Begins an event.
+	 *
+	 * @param type
+	 *            of the event, it can be null.
+	 * @return event, null if its type is null (events are disabled) or JFR
+	 *         is not recording it.
+	 */
+	public static FlightEvent begin(Type type) {
+		if (type == null) {
+			return null;
+		}
+		try {
+			Object event = type.newEvent.invoke(type.factory);
+			if (!(Boolean) type.isEnabled.invoke(event)) {
+				return null;
+			}
+			type.begin.invoke(event);
+			return new FlightEvent(type, event);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Ends the event and commits it with its fields, if it lasted enough to
+	 * be recorded.
+	 *
+	 * @param values
+	 *            of the fields, in the order of the type.
+	 */
+	public void commit(Object... values) {
+		try {
+			type.end.invoke(event);
+			if ((Boolean) type.shouldCommit.invoke(event)) {
+				for (int i = 0; i < values.length; i++) {
+					type.set.invoke(event, i, values[i]);
+				}
+				type.commit.invoke(event);
+			}
+		} catch (Exception e) {
+			// the event is lost, the lookup is not affected
+		}
+	}
+
+	/**
+	 * Type of events defined on JFR.
+	 */
+	public static final class Type {
+		/**
+		 * Factory of the events.
+		 */
+		private final Object factory;
+
+		/**
+		 * Methods of the factory and the events.
+		 */
+		private final Method newEvent, isEnabled, begin, end, shouldCommit,
+				set, commit;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param factory
+		 *            of the events.
+		 * @throws ReflectiveOperationException
+		 *             if the JFR API is not the expected one.
+		 */
+		private Type(Object factory) throws ReflectiveOperationException {
+			this.factory = factory;
+			this.newEvent = factory.getClass().getMethod("newEvent");
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			this.isEnabled = event.getMethod("isEnabled");
+			this.begin = event.getMethod("begin");
+			this.end = event.getMethod("end");
+			this.shouldCommit = event.getMethod("shouldCommit");
+			this.set = event.getMethod("set", int.class, Object.class);
+			this.commit = event.getMethod("commit");
+		}
+
+		/**
+		 * Defines a type of events on JFR.
+		 *
+		 * @param name
+		 *            of the type.
+		 * @param label
+		 *            shown for the type.
+		 * @param description
+		 *            of the type.
+		 * @param fields
+		 *            class and name of each field.
+		 * @return type, null if JFR is not available.
+		 */
+		static Type define(String name, String label, String description,
+				Object[] fields) {
+			try {
+				Class<?> annotation = Class.forName("jdk.jfr.AnnotationElement");
+				Constructor<?> element = annotation.getConstructor(Class.class,
+						Object.class);
+				Class<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor");
+				Constructor<?> field = descriptor.getConstructor(Class.class,
+						String.class);
+				List<Object> annotations = Arrays.asList(
+						element.newInstance(Class.forName("jdk.jfr.Name"), name),
+						element.newInstance(Class.forName("jdk.jfr.Label"),
+								label),
+						element.newInstance(
+								Class.forName("jdk.jfr.Description"),
+								description),
+						element.newInstance(Class.forName("jdk.jfr.Category"),
+								new String[] { "Checker" }));
+				List<Object> descriptors = new ArrayList<Object>();
+				for (int i = 0; i < fields.length; i += 2) {
+					descriptors.add(field.newInstance(fields[i], fields[i + 1]));
+				}
+				Object factory = Class.forName("jdk.jfr.EventFactory")
+						.getMethod("create", List.class, List.class)
+						.invoke(null, annotations, descriptors);
+				log.info("Flight recorder events " + name + " enabled");
+				return new Type(factory);
+			} catch (Exception e) {
+				log.info("Flight recorder events " + name
+						+ " are not available: " + e);
+				return null;
+			}
+		}
+	}
+}
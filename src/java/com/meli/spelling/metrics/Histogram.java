@@ -0,0 +1,120 @@
+package com.meli.spelling.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations, recorded without locks. Durations are counted on
+ * buckets of powers of two of nanoseconds, so a bucket is found with a single
+ * instruction and the memory is fixed whatever the number of durations. The
+ * counters are striped by thread, so concurrent requests seldom increment the
+ * same counter.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class Histogram {
+	/**
+	 * Number of buckets, the last one counts every longer duration.
+	 */
+	private static final int BUCKETS = 40;
+
+	/**
+	 * First bucket written, of durations up to a microsecond.
+	 */
+	private static final int FIRST_WRITTEN = 10;
+
+	/**
+	 * Number of stripes of counters, a power of 2.
+	 */
+	private static final int STRIPES = 8;
+
+	/**
+	 * Counters of each stripe: the count of each bucket followed by the sum
+	 * of the durations.
+	 */
+	private static final int STRIPE = BUCKETS + 1;
+
+	/**
+	 * Counters of every stripe.
+	 */
+	private final AtomicLongArray counters = new AtomicLongArray(STRIPES
+			* STRIPE);
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param nanos
+	 *            duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+		int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1))
+				* STRIPE;
+		counters.incrementAndGet(stripe + bucket);
+		counters.addAndGet(stripe + BUCKETS, nanos);
+	}
+
+	/**
+	 * Records the duration since a start.
+	 *
+	 * @param start
+	 *            value of System.nanoTime() when it started.
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Writes the histogram in Prometheus text format: a cumulative bucket for
+	 * each power of two of nanoseconds (in seconds), the sum and the count.
+	 *
+	 * @param out
+	 *            where it is written.
+	 * @param name
+	 *            of the metric.
+	 * @param labels
+	 *            of the histogram, as name="value" separated by commas, it
+	 *            can be empty.
+	 */
+	void write(StringBuilder out, String name, String labels) {
+		long[] counts = new long[BUCKETS];
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES * STRIPE; stripe += STRIPE) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				counts[bucket] += counters.get(stripe + bucket);
+			}
+			sum += counters.get(stripe + BUCKETS);
+		}
+		String separator = labels.isEmpty() ? "" : ",";
+		long count = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			count += counts[bucket];
+			if (bucket >= FIRST_WRITTEN && bucket < BUCKETS - 1) {
+				out.append(name).append("_bucket{").append(labels)
+						.append(separator).append("le=\"")
+						.append((1L << bucket) / 1e9).append("\"} ")
+						.append(count).append('\n');
+			}
+		}
+		out.append(name).append("_bucket{").append(labels).append(separator)
+				.append("le=\"+Inf\"} ").append(count).append('\n');
+		out.append(name).append("_sum").append(braces(labels)).append(' ')
+				.append(sum / 1e9).append('\n');
+		out.append(name).append("_count").append(braces(labels)).append(' ')
+				.append(count).append('\n');
+	}
+
+	/**
+	 * Encloses some labels in braces.
+	 *
+	 * @param labels
+	 *            as name="value" separated by commas, it can be empty.
+	 * @return labels in braces, empty if there is none.
+	 */
+	private static String braces(String labels) {
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+}
@@ -0,0 +1,498 @@
+package com.meli.spelling.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the application, written in Prometheus text format on /metrics:
+ * the latency of each action and of each stage of a suggestion, the lookups
+ * of the indexes of the suggestor and the duration of the last training of
+ * each corpus. Recording takes no lock: histograms and counters are created
+ * once and then only incremented. Values that are already kept elsewhere
+ * (caches, sizes of the indexes) are asked to their collectors when the
+ * metrics are written.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class Metrics {
+	/**
+	 * Attribute of a request with the time it started, in nanoseconds. An
+	 * asynchronous action removes it and records its latency when it
+	 * completes.
+	 */
+	public static final String REQUEST_START = "com.meli.checker.metrics.start";
+
+	/**
+	 * Unique instance of the class.
+	 */
+	private static final Metrics INSTANCE = new Metrics();
+
+	/**
+	 * Latency of the requests by action.
+	 */
+	private final Family<Histogram> requests = new Family<Histogram>(
+			"checker_request_seconds", "Latency of the requests by action.",
+			"action");
+
+	/**
+	 * Requests that failed by action.
+	 */
+	private final Family<AtomicLong> errors = new Family<AtomicLong>(
+			"checker_request_errors_total", "Requests that failed by action.",
+			"action");
+
+	/**
+	 * Latency of the stages of the suggestions.
+	 */
+	private final Family<Histogram> stages = new Family<Histogram>(
+			"checker_stage_seconds",
+			"Latency of the stages of the suggestions: suggest, correction, second suggest and load of an index.",
+			"stage");
+
+	/**
+	 * Lookups of the indexes of the suggestor by result.
+	 */
+	private final Family<AtomicLong> lookups = new Family<AtomicLong>(
+			"checker_index_lookups_total",
+			"Lookups of the indexes of the suggestor: hit (loaded), load (loaded on demand) or miss (no such context).",
+			"result");
+
+	/**
+	 * Duration of the last training of each corpus, in milliseconds.
+	 */
+	private final Family<AtomicLong> trainings = new Family<AtomicLong>(
+			"checker_training_seconds",
+			"Duration of the last training of each corpus.", "corpus");
+
+	/**
+	 * Collectors asked for their values when the metrics are written.
+	 */
+	private final List<Collector> collectors = new CopyOnWriteArrayList<Collector>();
+
+	/**
+	 * Constructor of the class.
+	 */
+	private Metrics() {
+	}
+
+	/**
+	 * Gets the instance of the class.
+	 *
+	 * @return metrics.
+	 */
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the histogram of the latency of an action.
+	 *
+	 * @param action
+	 *            of a controller.
+	 * @return histogram.
+	 */
+	public Histogram request(String action) {
+		Histogram histogram = requests.get(action);
+		return histogram != null ? histogram : requests.add(action,
+				new Histogram());
+	}
+
+	/**
+	 * Gets the counter of the failed requests of an action.
+	 *
+	 * @param action
+	 *            of a controller.
+	 * @return counter.
+	 */
+	public AtomicLong error(String action) {
+		AtomicLong counter = errors.get(action);
+		return counter != null ? counter : errors.add(action, new AtomicLong());
+	}
+
+	/**
+	 * Gets the histogram of the latency of a stage of the suggestions.
+	 *
+	 * @param stage
+	 *            suggest, correction, second suggest or load.
+	 * @return histogram.
+	 */
+	public Histogram stage(String stage) {
+		Histogram histogram = stages.get(stage);
+		return histogram != null ? histogram : stages.add(stage,
+				new Histogram());
+	}
+
+	/**
+	 * Gets the counter of the lookups of the indexes of the suggestor with a
+	 * result.
+	 *
+	 * @param result
+	 *            hit, load or miss.
+	 * @return counter.
+	 */
+	public AtomicLong lookup(String result) {
+		AtomicLong counter = lookups.get(result);
+		return counter != null ? counter : lookups
+				.add(result, new AtomicLong());
+	}
+
+	/**
+	 * Sets the duration of the last training of a corpus.
+	 *
+	 * @param corpus
+	 *            trained, as corrector, corrector/MLA or suggestor.
+	 * @param millis
+	 *            duration in milliseconds.
+	 */
+	public void trained(String corpus, long millis) {
+		AtomicLong training = trainings.get(corpus);
+		if (training == null) {
+			training = trainings.add(corpus, new AtomicLong());
+		}
+		training.set(millis);
+	}
+
+	/**
+	 * Registers a collector, asked for its values when the metrics are
+	 * written.
+	 *
+	 * @param collector
+	 *            to register.
+	 */
+	public void register(Collector collector) {
+		if (!collectors.contains(collector)) {
+			collectors.add(collector);
+		}
+	}
+
+	/**
+	 * Writes every metric in Prometheus text format.
+	 *
+	 * @return metrics.
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder(16384);
+		writeHistograms(out, requests);
+		writeHistograms(out, stages);
+		writeCounters(out, errors);
+		writeCounters(out, lookups);
+		if (trainings.header(out, "gauge")) {
+			for (Map.Entry<String, AtomicLong> training : trainings.sorted()
+					.entrySet()) {
+				sample(out, trainings.name, trainings.label, training.getKey(),
+						training.getValue().get() / 1e3);
+			}
+		}
+		Samples samples = new Samples();
+		for (Collector collector : collectors) {
+			collector.collect(samples);
+		}
+		samples.write(out);
+		return out.toString();
+	}
+
+	/**
+	 * Writes the histograms of a metric.
+	 *
+	 * @param out
+	 *            where they are written.
+	 * @param family
+	 *            of histograms.
+	 */
+	private static void writeHistograms(StringBuilder out,
+			Family<Histogram> family) {
+		if (family.header(out, "histogram")) {
+			for (Map.Entry<String, Histogram> histogram : family.sorted()
+					.entrySet()) {
+				histogram.getValue().write(out, family.name,
+						labels(family.label, histogram.getKey()));
+			}
+		}
+	}
+
+	/**
+	 * Writes the counters of a metric.
+	 *
+	 * @param out
+	 *            where they are written.
+	 * @param family
+	 *            of counters.
+	 */
+	private static void writeCounters(StringBuilder out,
+			Family<AtomicLong> family) {
+		if (family.header(out, "counter")) {
+			for (Map.Entry<String, AtomicLong> counter : family.sorted()
+					.entrySet()) {
+				sample(out, family.name, family.label, counter.getKey(),
+						counter.getValue().get());
+			}
+		}
+	}
+
+	/**
+	 * Writes a sample of a metric.
+	 *
+	 * @param out
+	 *            where it is written.
+	 * @param name
+	 *            of the metric.
+	 * @param label
+	 *            name of the label, null if the metric has none.
+	 * @param value
+	 *            of the label.
+	 * @param sample
+	 *            value of the metric.
+	 */
+	private static void sample(StringBuilder out, String name, String label,
+			String value, Object sample) {
+		out.append(name);
+		if (label != null) {
+			out.append('{').append(labels(label, value)).append('}');
+		}
+		out.append(' ').append(sample).append('\n');
+	}
+
+	/**
+	 * Renders a label, escaping its value.
+	 *
+	 * @param label
+	 *            name of the label.
+	 * @param value
+	 *            of the label, it can be null.
+	 * @return label as name="value".
+	 */
+	private static String labels(String label, String value) {
+		String escaped = String.valueOf(value).replace("\\", "\\\\")
+				.replace("\"", "\\\"").replace("\n", "\\n");
+		return label + "=\"" + escaped + "\"";
+	}
+
+	/**
+	 * Writes the help and the type of a metric.
+	 *
+	 * @param out
+	 *            where it is written.
+	 * @param name
+	 *            of the metric.
+	 * @param help
+	 *            of the metric.
+	 * @param type
+	 *            counter, gauge or histogram.
+	 */
+	private static void header(StringBuilder out, String name, String help,
+			String type) {
+		out.append("# HELP ").append(name).append(' ').append(help)
+				.append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type)
+				.append('\n');
+	}
+
+	/**
+	 * Metrics of a name with a label, by the value of the label.
+	 *
+	 * @param <T>
+	 *            histogram or counter.
+	 */
+	private static final class Family<T> {
+		/**
+		 * Name of the metric.
+		 */
+		final String name;
+
+		/**
+		 * Help of the metric.
+		 */
+		final String help;
+
+		/**
+		 * Name of the label.
+		 */
+		final String label;
+
+		/**
+		 * Metrics by value of the label.
+		 */
+		private final ConcurrentHashMap<String, T> metrics = new ConcurrentHashMap<String, T>();
+
+		Family(String name, String help, String label) {
+			this.name = name;
+			this.help = help;
+			this.label = label;
+		}
+
+		/**
+		 * Gets the metric of a value of the label.
+		 *
+		 * @param value
+		 *            of the label.
+		 * @return metric, null if it was not added.
+		 */
+		T get(String value) {
+			return metrics.get(value);
+		}
+
+		/**
+		 * Adds the metric of a value of the label, unless another request
+		 * added it first.
+		 *
+		 * @param value
+		 *            of the label.
+		 * @param metric
+		 *            to add.
+		 * @return metric of the value.
+		 */
+		T add(String value, T metric) {
+			T added = metrics.putIfAbsent(value, metric);
+			return added != null ? added : metric;
+		}
+
+		/**
+		 * Gets the metrics sorted by value of the label.
+		 *
+		 * @return metrics.
+		 */
+		Map<String, T> sorted() {
+			return new TreeMap<String, T>(metrics);
+		}
+
+		/**
+		 * Writes the help and the type of the metric, if it has any value.
+		 *
+		 * @param out
+		 *            where it is written.
+		 * @param type
+		 *            counter, gauge or histogram.
+		 * @return true if it has values.
+		 */
+		boolean header(StringBuilder out, String type) {
+			if (metrics.isEmpty()) {
+				return false;
+			}
+			Metrics.header(out, name, help, type);
+			return true;
+		}
+	}
+
+	/**
+	 * Source of metrics whose values are kept elsewhere, asked for them when
+	 * the metrics are written.
+	 */
+	public interface Collector {
+		/**
+		 * Adds the current values of the metrics.
+		 *
+		 * @param samples
+		 *            where they are added.
+		 */
+		void collect(Samples samples);
+	}
+
+	/**
+	 * Values of the metrics of the collectors, grouped by metric.
+	 */
+	public static final class Samples {
+		/**
+		 * Metrics by name: help, type and then the label and value of each
+		 * sample.
+		 */
+		private final Map<String, List<Object>> metrics = new TreeMap<String, List<Object>>();
+
+		/**
+		 * Constructor of the class.
+		 */
+		private Samples() {
+		}
+
+		/**
+		 * Adds a value of a gauge.
+		 *
+		 * @param name
+		 *            of the metric.
+		 * @param help
+		 *            of the metric.
+		 * @param label
+		 *            name of the label, null if the metric has none.
+		 * @param value
+		 *            of the label.
+		 * @param sample
+		 *            value of the metric.
+		 */
+		public void gauge(String name, String help, String label,
+				String value, Number sample) {
+			add(name, help, "gauge", label, value, sample);
+		}
+
+		/**
+		 * Adds a value of a counter.
+		 *
+		 * @param name
+		 *            of the metric, ending in _total.
+		 * @param help
+		 *            of the metric.
+		 * @param label
+		 *            name of the label, null if the metric has none.
+		 * @param value
+		 *            of the label.
+		 * @param sample
+		 *            value of the metric.
+		 */
+		public void counter(String name, String help, String label,
+				String value, long sample) {
+			add(name, help, "counter", label, value, sample);
+		}
+
+		/**
+		 * Adds a value of a metric.
+		 *
+		 * @param name
+		 *            of the metric.
+		 * @param help
+		 *            of the metric.
+		 * @param type
+		 *            counter or gauge.
+		 * @param label
+		 *            name of the label, null if the metric has none.
+		 * @param value
+		 *            of the label.
+		 * @param sample
+		 *            value of the metric.
+		 */
+		private void add(String name, String help, String type, String label,
+				String value, Object sample) {
+			List<Object> metric = metrics.get(name);
+			if (metric == null) {
+				metric = new ArrayList<Object>();
+				metric.add(help);
+				metric.add(type);
+				metrics.put(name, metric);
+			}
+			metric.add(label);
+			metric.add(value);
+			metric.add(sample);
+		}
+
+		/**
+		 * Writes the samples.
+		 *
+		 * @param out
+		 *            where they are written.
+		 */
+		private void write(StringBuilder out) {
+			for (Map.Entry<String, List<Object>> metric : metrics.entrySet()) {
+				List<Object> values = metric.getValue();
+				header(out, metric.getKey(), (String) values.get(0),
+						(String) values.get(1));
+				for (int i = 2; i < values.size(); i += 3) {
+					sample(out, metric.getKey(), (String) values.get(i),
+							(String) values.get(i + 1), values.get(i + 2));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package com.meli.spelling.pipeline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Format of the files of the pipeline: CSV (state,city,street) or JSON lines
+ * ({"state":...,"city":...,"street":...}). Addresses are read and written one
+ * line at a time.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+abstract class AddressFormat {
+
+	/**
+	 * Gets the format of a file from its extension: .csv or .jsonl (any
+	 * other).
+	 *
+	 * @param path
+	 *            of the file.
+	 * @return format.
+	 */
+	static AddressFormat of(String path) {
+		if (path.toLowerCase().endsWith(".csv")) {
+			return new Csv();
+		}
+		return new JsonLines();
+	}
+
+	/**
+	 * Reads the next address.
+	 *
+	 * @param in
+	 *            input.
+	 * @param sequence
+	 *            position of the address.
+	 * @return address, null at the end of the input.
+	 * @throws IOException
+	 *             if it can not be read.
+	 */
+	abstract AddressRecord read(BufferedReader in, long sequence)
+			throws IOException;
+
+	/**
+	 * Writes a normalized address.
+	 *
+	 * @param out
+	 *            output.
+	 * @param record
+	 *            normalized address.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	abstract void write(Writer out, AddressRecord record) throws IOException;
+
+	/**
+	 * Gets a part of an address as a String.
+	 *
+	 * @param value
+	 *            of the part.
+	 * @return value, null if it is empty.
+	 */
+	static String part(Object value) {
+		if (value == null || value.toString().trim().isEmpty()) {
+			return null;
+		}
+		return value.toString();
+	}
+
+	/**
+	 * CSV without header (a first line state,city,street is skipped). The
+	 * output has the columns state, stateHash, city, cityHash and street.
+	 */
+	static final class Csv extends AddressFormat {
+
+		@Override
+		AddressRecord read(BufferedReader in, long sequence) throws IOException {
+			String line = in.readLine();
+			if (line != null && sequence == 0
+					&& line.trim().equalsIgnoreCase("state,city,street")) {
+				line = in.readLine();
+			}
+			if (line == null) {
+				return null;
+			}
+			List<String> fields = split(line);
+			return new AddressRecord(sequence, field(fields, 0), field(fields,
+					1), field(fields, 2));
+		}
+
+		@Override
+		void write(Writer out, AddressRecord record) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			append(sb, record.normalizedState == null ? null
+					: record.normalizedState.getName()).append(',');
+			append(sb, record.normalizedState == null ? null
+					: record.normalizedState.getHashCode()).append(',');
+			append(sb, record.normalizedCity == null ? null
+					: record.normalizedCity.getName()).append(',');
+			append(sb, record.normalizedCity == null ? null
+					: record.normalizedCity.getHashCode()).append(',');
+			append(sb, record.normalizedStreet == null ? null
+					: record.normalizedStreet.getName()).append('\n');
+			out.write(sb.toString());
+		}
+
+		/**
+		 * Gets a field of a line.
+		 *
+		 * @param fields
+		 *            of the line.
+		 * @param i
+		 *            position of the field.
+		 * @return field, null if it is missing or empty.
+		 */
+		private static String field(List<String> fields, int i) {
+			return i < fields.size() ? part(fields.get(i)) : null;
+		}
+
+		/**
+		 * Splits a line in fields. Fields may be quoted, and quotes are
+		 * escaped doubling them.
+		 *
+		 * @param line
+		 *            to split.
+		 * @return fields.
+		 */
+		private static List<String> split(String line) {
+			List<String> fields = new ArrayList<String>();
+			StringBuilder field = new StringBuilder();
+			boolean quoted = false;
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				if (quoted) {
+					if (c == '"' && i + 1 < line.length()
+							&& line.charAt(i + 1) == '"') {
+						field.append('"');
+						i++;
+					} else if (c == '"') {
+						quoted = false;
+					} else {
+						field.append(c);
+					}
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else {
+					field.append(c);
+				}
+			}
+			fields.add(field.toString());
+			return fields;
+		}
+
+		/**
+		 * Appends a field, quoted if it is needed.
+		 *
+		 * @param sb
+		 *            line.
+		 * @param value
+		 *            of the field, null for an empty field.
+		 * @return line.
+		 */
+		private static StringBuilder append(StringBuilder sb, String value) {
+			if (value == null) {
+				return sb;
+			}
+			if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+				return sb.append(value);
+			}
+			return sb.append('"').append(value.replace("\"", "\"\""))
+					.append('"');
+		}
+	}
+
+	/**
+	 * JSON lines. The output has the same structure of the response of
+	 * /normalizeAddresses.
+	 */
+	static final class JsonLines extends AddressFormat {
+		/**
+		 * Instance of Gson used internally on this class.
+		 */
+		private final Gson gson = new Gson();
+
+		@Override
+		AddressRecord read(BufferedReader in, long sequence) throws IOException {
+			String line;
+			do {
+				line = in.readLine();
+			} while (line != null && line.trim().isEmpty());
+			if (line == null) {
+				return null;
+			}
+			Map<?, ?> address = null;
+			try {
+				address = gson.fromJson(line, Map.class);
+			} catch (JsonParseException e) {
+				// an invalid line is written as an address without parts
+			}
+			if (address == null) {
+				return new AddressRecord(sequence, null, null, null);
+			}
+			return new AddressRecord(sequence, part(address.get("state")),
+					part(address.get("city")), part(address.get("street")));
+		}
+
+		@Override
+		void write(Writer out, AddressRecord record) throws IOException {
+			Map<String, Object> normalized = new LinkedHashMap<String, Object>();
+			if (record.normalizedState != null) {
+				normalized.put("state", record.normalizedState);
+			}
+			if (record.normalizedCity != null) {
+				normalized.put("city", record.normalizedCity);
+			}
+			if (record.normalizedStreet != null) {
+				normalized.put("street", record.normalizedStreet);
+			}
+			out.write(gson.toJson(normalized));
+			out.write('\n');
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package com.meli.spelling.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.meli.spelling.checker.SpellingCorrector;
+import com.meli.spelling.checker.entities.Suggestion;
+import com.meli.spelling.config.CheckerConfig;
+import com.meli.spelling.suggestor.Suggestor;
+
+/**
+ * Offline normalization of big files of addresses. Each address goes through
+ * the same chain of the controller (state, then city on the state, then street
+ * on the city, correcting the part when it has no suggestions) on a pipeline:
+ * a reader, a stage for each part with its own workers and a writer, connected
+ * by bounded queues. The number of addresses in flight is bounded too, so the
+ * memory does not depend on the size of the input and a slow writer stops the
+ * reader. Addresses are written as soon as they and all the previous ones are
+ * normalized, in the order of the input.
+ *
+ * The directories of the names are taken from the same keys of the
+ * configuration, passed as system properties (a snapshot avoids the training):
+ *
+ * java -Dcom.meli.checker.snapshot=... AddressPipeline MLA addresses.csv
+ * normalized.csv
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public class AddressPipeline {
+	/**
+	 * Maximum number of addresses in flight.
+	 */
+	private static final int IN_FLIGHT = 4096;
+
+	/**
+	 * Capacity of the queue of each stage.
+	 */
+	private static final int QUEUE = 1024;
+
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Site of the addresses.
+	 */
+	private final String site;
+
+	/**
+	 * Number of workers of each stage.
+	 */
+	private final int workers;
+
+	/**
+	 * Spelling corrector used when a part has no suggestions.
+	 */
+	private final SpellingCorrector corrector = SpellingCorrector
+			.getInstance();
+
+	/**
+	 * Suggestor of the parts.
+	 */
+	private final Suggestor suggestor = Suggestor.getInstance();
+
+	/**
+	 * Permits of the addresses in flight, taken by the reader and released by
+	 * the writer.
+	 */
+	private final Semaphore inFlight = new Semaphore(IN_FLIGHT);
+
+	/**
+	 * Error of the reader, if any.
+	 */
+	private volatile IOException readError;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param site
+	 *            of the addresses.
+	 * @param workers
+	 *            number of workers of each stage.
+	 */
+	public AddressPipeline(String site, int workers) {
+		this.site = site;
+		this.workers = workers;
+		if (CheckerConfig.isContextCorrectionEnabled()) {
+			corrector.setContextNames(suggestor);
+		}
+	}
+
+	/**
+	 * Normalizes every address of the input.
+	 *
+	 * @param in
+	 *            input.
+	 * @param out
+	 *            where normalized addresses are written.
+	 * @param format
+	 *            of the input and the output.
+	 * @return number of addresses.
+	 * @throws IOException
+	 *             if the input can not be read or the output written.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted.
+	 */
+	long run(final BufferedReader in, Writer out, final AddressFormat format)
+			throws IOException, InterruptedException {
+		final BlockingQueue<AddressRecord> states = new ArrayBlockingQueue<AddressRecord>(
+				QUEUE);
+		BlockingQueue<AddressRecord> cities = new ArrayBlockingQueue<AddressRecord>(
+				QUEUE);
+		BlockingQueue<AddressRecord> streets = new ArrayBlockingQueue<AddressRecord>(
+				QUEUE);
+		BlockingQueue<AddressRecord> results = new ArrayBlockingQueue<AddressRecord>(
+				QUEUE);
+		start(new Stage(states, cities, workers, workers) {
+			@Override
+			void process(AddressRecord record) {
+				record.normalizedState = best(record.state, site, true);
+			}
+		}, "state");
+		start(new Stage(cities, streets, workers, workers) {
+			@Override
+			void process(AddressRecord record) {
+				if (record.normalizedState != null) {
+					record.normalizedCity = best(record.city,
+							record.normalizedState.getHashCode(), true);
+				}
+			}
+		}, "city");
+		start(new Stage(streets, results, workers, 1) {
+			@Override
+			void process(AddressRecord record) {
+				if (record.normalizedCity != null) {
+					record.normalizedStreet = best(record.street,
+							record.normalizedState.getHashCode() + "-"
+									+ record.normalizedCity.getHashCode(),
+							false);
+				}
+			}
+		}, "street");
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					long sequence = 0;
+					AddressRecord record;
+					while ((record = format.read(in, sequence)) != null) {
+						inFlight.acquire();
+						states.put(record);
+						sequence++;
+					}
+				} catch (IOException e) {
+					readError = e;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					try {
+						for (int i = 0; i < workers; i++) {
+							states.put(AddressRecord.END);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "pipeline-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		// addresses finish out of order, they wait here for the previous ones
+		HashMap<Long, AddressRecord> pending = new HashMap<Long, AddressRecord>();
+		long next = 0;
+		AddressRecord record;
+		while ((record = results.take()) != AddressRecord.END) {
+			pending.put(record.sequence, record);
+			while ((record = pending.remove(next)) != null) {
+				format.write(out, record);
+				inFlight.release();
+				next++;
+			}
+		}
+		out.flush();
+		if (readError != null) {
+			throw readError;
+		}
+		return next;
+	}
+
+	/**
+	 * Gets the best suggestion of a part of an address as the controller
+	 * does: if it has no suggestions it is corrected on the names of its
+	 * context and suggested again.
+	 *
+	 * @param key
+	 *            part of the address.
+	 * @param context
+	 *            where it is contained (site, state or city).
+	 * @param hash
+	 *            , if the hashcode is needed.
+	 * @return best suggestion, null if there is none.
+	 */
+	private Suggestion best(String key, String context, boolean hash) {
+		if (key == null) {
+			return null;
+		}
+		List<Suggestion> suggestions = suggestor.getSuggestion(key, context,
+				hash, 1);
+		if (suggestions.isEmpty()) {
+			suggestions = suggestor.getSuggestion(
+					corrector.correctSpelling(key, site, context), context, hash,
+					1);
+		}
+		return suggestions.isEmpty() ? null : suggestions.get(0);
+	}
+
+	/**
+	 * Starts the workers of a stage.
+	 *
+	 * @param stage
+	 *            to start.
+	 * @param name
+	 *            of the stage.
+	 */
+	private void start(Stage stage, String name) {
+		for (int i = 0; i < stage.workers; i++) {
+			Thread worker = new Thread(stage, "pipeline-" + name + "-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stage of the pipeline: its workers take addresses from a queue, process
+	 * them and put them on the queue of the next stage. The last worker that
+	 * finds the end of the input passes it to every worker of the next stage.
+	 */
+	private abstract class Stage implements Runnable {
+		/**
+		 * Queue of the stage.
+		 */
+		private final BlockingQueue<AddressRecord> in;
+
+		/**
+		 * Queue of the next stage.
+		 */
+		private final BlockingQueue<AddressRecord> out;
+
+		/**
+		 * Number of workers.
+		 */
+		private final int workers;
+
+		/**
+		 * Workers still running.
+		 */
+		private final AtomicInteger running;
+
+		/**
+		 * Number of consumers of the next queue.
+		 */
+		private final int successors;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param in
+		 *            queue of the stage.
+		 * @param out
+		 *            queue of the next stage.
+		 * @param workers
+		 *            number of workers.
+		 * @param successors
+		 *            number of consumers of the next queue.
+		 */
+		Stage(BlockingQueue<AddressRecord> in,
+				BlockingQueue<AddressRecord> out, int workers, int successors) {
+			this.in = in;
+			this.out = out;
+			this.workers = workers;
+			this.running = new AtomicInteger(workers);
+			this.successors = successors;
+		}
+
+		/**
+		 * Processes an address.
+		 *
+		 * @param record
+		 *            address.
+		 */
+		abstract void process(AddressRecord record);
+
+		public void run() {
+			try {
+				AddressRecord record;
+				while ((record = in.take()) != AddressRecord.END) {
+					try {
+						process(record);
+					} catch (RuntimeException e) {
+						log.info("There was a problem normalizing address "
+								+ record.sequence + ": " + e);
+					}
+					out.put(record);
+				}
+				if (running.decrementAndGet() == 0) {
+					for (int i = 0; i < successors; i++) {
+						out.put(AddressRecord.END);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Normalizes a file of addresses.
+	 *
+	 * @param args
+	 *            site, input file, output file and optionally the number of
+	 *            workers of each stage.
+	 * @throws Exception
+	 *             if the files can not be read or written.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3 || args.length > 4) {
+			System.err
+					.println("Usage: AddressPipeline <site> <input .csv|.jsonl> <output> [workers]");
+			System.exit(1);
+		}
+		int workers = args.length > 3 ? Integer.parseInt(args[3])
+				: CheckerConfig.getBatchParallelism();
+		AddressPipeline pipeline = new AddressPipeline(args[0], workers);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(args[1]), "UTF-8"));
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(args[2]), "UTF-8"));
+		long startTime = System.currentTimeMillis();
+		long addresses;
+		try {
+			addresses = pipeline.run(in, out, AddressFormat.of(args[1]));
+		} finally {
+			in.close();
+			out.close();
+		}
+		long time = Math.max(1, System.currentTimeMillis() - startTime);
+		System.out.println(addresses + " addresses normalized in " + time
+				+ "ms (" + (addresses * 1000 / time) + " addresses/s)");
+	}
+}
@@ -0,0 +1,71 @@
+package com.meli.spelling.pipeline;
+
+import com.meli.spelling.checker.entities.Suggestion;
+
+/**
+ * An address that goes through the pipeline: the parts read from the input
+ * and the suggestion found for each one.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+final class AddressRecord {
+	/**
+	 * Marks the end of the input on the queues.
+	 */
+	static final AddressRecord END = new AddressRecord(-1, null, null, null);
+
+	/**
+	 * Position of the address on the input.
+	 */
+	final long sequence;
+
+	/**
+	 * State read from the input.
+	 */
+	final String state;
+
+	/**
+	 * City read from the input.
+	 */
+	final String city;
+
+	/**
+	 * Street read from the input.
+	 */
+	final String street;
+
+	/**
+	 * Best suggestion of the state, null if it was not found.
+	 */
+	Suggestion normalizedState;
+
+	/**
+	 * Best suggestion of the city on the state, null if it was not found.
+	 */
+	Suggestion normalizedCity;
+
+	/**
+	 * Best suggestion of the street on the city, null if it was not found.
+	 */
+	Suggestion normalizedStreet;
+
+	/**
+	 * Constructor of the class.
+	 * 
+	 * @param sequence
+	 *            position on the input.
+	 * @param state
+	 *            read from the input.
+	 * @param city
+	 *            read from the input.
+	 * @param street
+	 *            read from the input.
+	 */
+	AddressRecord(long sequence, String state, String city, String street) {
+		this.sequence = sequence;
+		this.state = state;
+		this.city = city;
+		this.street = street;
+	}
+}
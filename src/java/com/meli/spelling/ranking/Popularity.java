@@ -0,0 +1,387 @@
+package com.meli.spelling.ranking;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Logger;
+
+import com.meli.spelling.config.CheckerConfig;
+
+/**
+ * Popularity of the names of each context (site, state or city): how many
+ * times they were asked. It is the count of a counts file plus the queries
+ * served since the application started. Names are ranked by it, so the most
+ * likely ones are suggested first.
+ *
+ * Served queries are counted on a count-min sketch: some rows of counters,
+ * each one incremented at a position given by the hash of the name. The
+ * counters are independent atomic integers, so concurrent requests only
+ * collide when they count names with the same hash and no lock is taken. The
+ * count of a name is the lowest of its counters, it can only be higher than
+ * the real one. The memory is fixed, whatever the number of names.
+ *
+ * Names are compared ignoring case and hashed without being copied.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class Popularity {
+	/**
+	 * Number of rows of the sketch.
+	 */
+	private static final int ROWS = 4;
+
+	/**
+	 * Number of counters of each row, a power of 2.
+	 */
+	private static final int COLUMNS = 1 << 16;
+
+	/**
+	 * Separator of the fields of the counts file.
+	 */
+	private static final String SEPARATOR = "\t";
+
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Unique instance of the class, null if names are not ranked by
+	 * popularity.
+	 */
+	private static final Popularity INSTANCE = fromConfig();
+
+	/**
+	 * Counters of the served queries, row after row.
+	 */
+	private final AtomicIntegerArray served = new AtomicIntegerArray(ROWS
+			* COLUMNS);
+
+	/**
+	 * Counts of the counts file, on an open addressing table by hash.
+	 */
+	private volatile Counts counts = new Counts(0);
+
+	/**
+	 * Gets the instance of the configuration.
+	 *
+	 * @return popularity, null if it is disabled.
+	 */
+	public static Popularity getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Creates the popularity of the configuration, loading its counts file if
+	 * there is one.
+	 *
+	 * @return popularity, null if it is disabled.
+	 */
+	private static Popularity fromConfig() {
+		if (!CheckerConfig.isPopularityEnabled()) {
+			return null;
+		}
+		Popularity popularity = new Popularity();
+		String path = CheckerConfig.getPopularityCounts();
+		if (path != null && !path.isEmpty()) {
+			try {
+				int names = popularity.load(new File(path));
+				log.info("Popularity of " + names + " names loaded from " + path);
+			} catch (IOException e) {
+				log.info("Could not load popularity from " + path + ": " + e);
+			}
+		}
+		return popularity;
+	}
+
+	/**
+	 * Loads a counts file, replacing the counts of the previous one. Each line
+	 * has the context, the name and its count separated by tabs; invalid lines
+	 * are skipped. The context is the one of the requests: the site for
+	 * states and spelling corrections, the hash of the state for cities and
+	 * both hashes separated by a dash for streets.
+	 *
+	 * @param file
+	 *            of counts, encoded in UTF-8.
+	 * @return number of names loaded.
+	 * @throws IOException
+	 *             if the file can not be read.
+	 */
+	public int load(File file) throws IOException {
+		Counts loaded = new Counts(1024);
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] fields = line.split(SEPARATOR);
+				if (fields.length != 3) {
+					continue;
+				}
+				try {
+					int count = Integer.parseInt(fields[2].trim());
+					if (count > 0) {
+						loaded = loaded.add(hash(seed(fields[0]), fields[1], 0,
+								fields[1].length()), count);
+					}
+				} catch (NumberFormatException e) {
+					// not a count
+				}
+			}
+		} finally {
+			br.close();
+		}
+		counts = loaded;
+		return loaded.size;
+	}
+
+	/**
+	 * Gets the popularity of the names of a context.
+	 *
+	 * @param context
+	 *            site, state or city.
+	 * @return popularity of the context.
+	 */
+	public Scope scope(String context) {
+		return new Scope(seed(context));
+	}
+
+	/**
+	 * Counts a query served for a name.
+	 *
+	 * @param context
+	 *            site, state or city.
+	 * @param name
+	 *            asked.
+	 */
+	public void record(String context, CharSequence name) {
+		long hash = hash(seed(context), name, 0, name.length());
+		for (int row = 0; row < ROWS; row++) {
+			int counter = counter(hash, row);
+			if (served.get(counter) < Integer.MAX_VALUE) {
+				served.incrementAndGet(counter);
+			}
+		}
+	}
+
+	/**
+	 * Gets the popularity of a name.
+	 *
+	 * @param hash
+	 *            of the name on its context.
+	 * @return count of the file plus served queries.
+	 */
+	private int count(long hash) {
+		int count = Integer.MAX_VALUE;
+		for (int row = 0; row < ROWS; row++) {
+			count = Math.min(count, served.get(counter(hash, row)));
+		}
+		return (int) Math.min(Integer.MAX_VALUE, (long) count
+				+ counts.get(hash));
+	}
+
+	/**
+	 * Gets the position of the counter of a name on a row of the sketch.
+	 *
+	 * @param hash
+	 *            of the name.
+	 * @param row
+	 *            of the sketch.
+	 * @return position on the counters.
+	 */
+	private static int counter(long hash, int row) {
+		return row * COLUMNS
+				+ (int) (mix(hash + row * 0x9e3779b97f4a7c15L) & (COLUMNS - 1));
+	}
+
+	/**
+	 * Hashes a context, to hash its names after it.
+	 *
+	 * @param context
+	 *            site, state or city.
+	 * @return hash of the context.
+	 */
+	private static long seed(String context) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < context.length(); i++) {
+			hash = (hash ^ context.charAt(i)) * 0x100000001b3L;
+		}
+		return hash * 0x100000001b3L;
+	}
+
+	/**
+	 * Hashes a name of a context (FNV-1a of its chars in lower case).
+	 *
+	 * @param seed
+	 *            hash of the context.
+	 * @param chars
+	 *            containing the name.
+	 * @param start
+	 *            of the name on the chars.
+	 * @param end
+	 *            of the name on the chars.
+	 * @return hash of the name.
+	 */
+	private static long hash(long seed, CharSequence chars, int start, int end) {
+		long hash = seed;
+		for (int i = start; i < end; i++) {
+			hash = (hash ^ Character.toLowerCase(chars.charAt(i))) * 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Mixes the bits of a hash (finalizer of MurmurHash3).
+	 *
+	 * @param hash
+	 *            to mix.
+	 * @return mixed hash.
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	/**
+	 * Popularity of the names of a context.
+	 */
+	public final class Scope {
+		/**
+		 * Hash of the context.
+		 */
+		private final long seed;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param seed
+		 *            hash of the context.
+		 */
+		private Scope(long seed) {
+			this.seed = seed;
+		}
+
+		/**
+		 * Gets the popularity of a name.
+		 *
+		 * @param name
+		 *            of the context.
+		 * @return count of the file plus served queries.
+		 */
+		public int count(CharSequence name) {
+			return count(name, 0, name.length());
+		}
+
+		/**
+		 * Gets the popularity of a name that is part of some chars.
+		 *
+		 * @param chars
+		 *            containing the name.
+		 * @param start
+		 *            of the name on the chars.
+		 * @param end
+		 *            of the name on the chars.
+		 * @return count of the file plus served queries.
+		 */
+		public int count(CharSequence chars, int start, int end) {
+			return Popularity.this.count(hash(seed, chars, start, end));
+		}
+	}
+
+	/**
+	 * Counts of a file by hash of the name, on an open addressing table.
+	 */
+	private static final class Counts {
+		/**
+		 * Hashes of the names, 0 for empty slots.
+		 */
+		private final long[] hashes;
+
+		/**
+		 * Count of each name.
+		 */
+		private final int[] values;
+
+		/**
+		 * Number of names.
+		 */
+		private int size;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param capacity
+		 *            number of slots, a power of 2 (or 0 for no counts).
+		 */
+		Counts(int capacity) {
+			this.hashes = new long[capacity];
+			this.values = new int[capacity];
+		}
+
+		/**
+		 * Adds the count of a name, growing the table if it is too full.
+		 *
+		 * @param hash
+		 *            of the name.
+		 * @param count
+		 *            to add.
+		 * @return table with the count.
+		 */
+		Counts add(long hash, int count) {
+			if (hash == 0) {
+				hash = 1;
+			}
+			if ((size + 1) * 4 > hashes.length * 3) {
+				Counts grown = new Counts(hashes.length * 2);
+				for (int i = 0; i < hashes.length; i++) {
+					if (hashes[i] != 0) {
+						grown.add(hashes[i], values[i]);
+					}
+				}
+				return grown.add(hash, count);
+			}
+			int slot = (int) hash & (hashes.length - 1);
+			while (hashes[slot] != 0 && hashes[slot] != hash) {
+				slot = (slot + 1) & (hashes.length - 1);
+			}
+			if (hashes[slot] == 0) {
+				hashes[slot] = hash;
+				size++;
+			}
+			values[slot] = (int) Math.min(Integer.MAX_VALUE, (long) values[slot]
+					+ count);
+			return this;
+		}
+
+		/**
+		 * Gets the count of a name.
+		 *
+		 * @param hash
+		 *            of the name.
+		 * @return count, 0 if it is not on the file.
+		 */
+		int get(long hash) {
+			if (size == 0) {
+				return 0;
+			}
+			if (hash == 0) {
+				hash = 1;
+			}
+			int slot = (int) hash & (hashes.length - 1);
+			while (hashes[slot] != 0) {
+				if (hashes[slot] == hash) {
+					return values[slot];
+				}
+				slot = (slot + 1) & (hashes.length - 1);
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.meli.spelling.reload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.meli.spelling.checker.SpellingCorrector;
+import com.meli.spelling.config.CheckerConfig;
+import com.meli.spelling.suggestor.Suggestor;
+
+/**
+ * This class watches the directories of names and reloads the index of every
+ * file that changes, without restarting the application. Changes are
+ * collected until the directories are quiet for a while (a file is usually
+ * written in several steps) and then only the affected site, state or city is
+ * trained again on a background thread. The new index replaces the previous
+ * one atomically, so requests never wait for a reload nor see a partial
+ * index.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+public class CorpusReloader implements Runnable {
+	/**
+	 * Time without changes before reloading.
+	 */
+	private static final long QUIET_MILLIS = 500;
+
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Directory of the spelling corrector.
+	 */
+	private final Path spellingDir = path(CheckerConfig.getDirSpellingNames());
+
+	/**
+	 * Directory of the streets, it has a directory by state.
+	 */
+	private final Path streetsDir = path(CheckerConfig
+			.getDirSuggestorNamesStreets());
+
+	/**
+	 * Directory watched by each key.
+	 */
+	private final HashMap<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+	/**
+	 * Service notifying the changes.
+	 */
+	private WatchService watcher;
+
+	/**
+	 * Thread that reloads the indexes.
+	 */
+	private Thread thread;
+
+	/**
+	 * Starts watching the directories.
+	 * 
+	 * @throws IOException
+	 *             if the directories can not be watched.
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			return;
+		}
+		watcher = FileSystems.getDefault().newWatchService();
+		register(spellingDir);
+		register(path(CheckerConfig.getDirSuggestorNamesStates()));
+		register(path(CheckerConfig.getDirSuggestorNamesCities()));
+		register(streetsDir);
+		File[] states = streetsDir.toFile().listFiles();
+		if (states != null) {
+			for (File state : states) {
+				if (state.isDirectory()) {
+					register(state.toPath());
+				}
+			}
+		}
+		thread = new Thread(this, "corpus-reloader");
+		thread.setDaemon(true);
+		thread.start();
+		log.info("Watching names for changes");
+	}
+
+	/**
+	 * Stops watching the directories.
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			log.info("Could not close watcher: " + e);
+		}
+		thread.interrupt();
+		thread = null;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<Path>();
+				WatchKey key = watcher.take();
+				while (key != null) {
+					collect(key, changed);
+					key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				for (Path path : changed) {
+					reload(path);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * Adds the files changed on a key.
+	 * 
+	 * @param key
+	 *            signaled.
+	 * @param changed
+	 *            files changed.
+	 */
+	private void collect(WatchKey key, Set<Path> changed) {
+		Path directory = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				log.info("Too many changes on " + directory
+						+ ", some of them may be lost");
+			} else if (directory != null) {
+				changed.add(directory.resolve((Path) event.context()));
+			}
+		}
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	/**
+	 * Reloads the index of a file.
+	 * 
+	 * @param path
+	 *            of the file changed.
+	 */
+	private void reload(Path path) {
+		try {
+			Path directory = path.getParent();
+			if (spellingDir.equals(directory)) {
+				SpellingCorrector.getInstance().reload(path.toFile());
+				return;
+			}
+			if (streetsDir.equals(directory) && path.toFile().isDirectory()) {
+				// new state
+				register(path);
+			}
+			Suggestor.getInstance().reload(path.toFile());
+		} catch (Exception e) {
+			log.info("Could not reload " + path + ": " + e);
+		}
+	}
+
+	/**
+	 * Watches a directory.
+	 * 
+	 * @param directory
+	 *            to watch.
+	 * @throws IOException
+	 *             if it can not be watched.
+	 */
+	private void register(Path directory) throws IOException {
+		WatchKey key = directory.register(watcher,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		directories.put(key, directory);
+	}
+
+	/**
+	 * Gets the absolute path of a directory.
+	 * 
+	 * @param directory
+	 *            configured.
+	 * @return path.
+	 */
+	private static Path path(String directory) {
+		return new File(directory).getAbsoluteFile().toPath();
+	}
+}
@@ -0,0 +1,166 @@
+package com.meli.spelling.snapshot;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * This class gives access to a snapshot of the precomputed indexes. The file
+ * is memory mapped read only, so the indexes are served straight from the page
+ * cache (shared by every JVM of the host) and nothing is copied to the heap
+ * when it is opened.
+ * 
+ * The file starts with a magic number and the version of the format, followed
+ * by named sections (aligned to 8 bytes). It ends with the directory of the
+ * sections (name, offset and length), the offset of the directory and the
+ * magic number again. All the values are big endian.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+public final class Snapshot {
+	/**
+	 * Magic number of the file ("CHKS").
+	 */
+	static final int MAGIC = 0x43484b53;
+
+	/**
+	 * Version of the format. It must be increased with every change of the
+	 * layout of any section.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Size of the header and of the trailer of the file.
+	 */
+	static final int HEADER = 8;
+
+	/**
+	 * Mapped file.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Offset and length of each section.
+	 */
+	private final HashMap<String, int[]> sections = new HashMap<String, int[]>();
+
+	/**
+	 * Constructor of the class.
+	 * 
+	 * @param buffer
+	 *            containing the whole file.
+	 * @throws IOException
+	 *             if it is not a valid snapshot.
+	 */
+	private Snapshot(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		int limit = buffer.limit();
+		if (limit < 2 * HEADER || buffer.getInt(0) != MAGIC
+				|| buffer.getInt(limit - 4) != MAGIC)
+			throw new IOException("Not a snapshot");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported snapshot version "
+					+ buffer.getInt(4) + ", expected " + VERSION);
+		ByteBuffer directory = buffer.duplicate();
+		directory.position(buffer.getInt(limit - HEADER));
+		int count = directory.getInt();
+		for (int i = 0; i < count; i++) {
+			String name = readString(directory);
+			int offset = directory.getInt();
+			int length = directory.getInt();
+			sections.put(name, new int[] { offset, length });
+		}
+	}
+
+	/**
+	 * Maps a snapshot file.
+	 * 
+	 * @param file
+	 *            of the snapshot.
+	 * @return snapshot.
+	 * @throws IOException
+	 *             if the file can not be mapped or it is not a valid snapshot.
+	 */
+	public static Snapshot open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Snapshot too large: " + file);
+			// the mapping remains valid after the channel is closed
+			return new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					size));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Gets a section of the snapshot.
+	 * 
+	 * @param name
+	 *            of the section.
+	 * @return buffer positioned at the beginning of the section, null if the
+	 *         section does not exist.
+	 */
+	public ByteBuffer section(String name) {
+		int[] section = sections.get(name);
+		if (section == null)
+			return null;
+		return slice(buffer, section[0], section[1]);
+	}
+
+	/**
+	 * Gets a part of a buffer without copying it.
+	 * 
+	 * @param buffer
+	 *            .
+	 * @param offset
+	 *            of the part.
+	 * @param length
+	 *            of the part.
+	 * @return buffer sharing the content.
+	 */
+	public static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.limit(offset + length);
+		duplicate.position(offset);
+		return duplicate.slice();
+	}
+
+	/**
+	 * Reads a string written by writeString.
+	 * 
+	 * @param buffer
+	 *            positioned at the string.
+	 * @return string.
+	 */
+	public static String readString(ByteBuffer buffer) {
+		char[] chars = new char[buffer.getInt()];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = buffer.getChar();
+		return new String(chars);
+	}
+
+	/**
+	 * Writes a string as its length followed by its chars.
+	 * 
+	 * @param out
+	 *            where the string is written.
+	 * @param string
+	 *            .
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public static void writeString(DataOutput out, String string)
+			throws IOException {
+		out.writeInt(string.length());
+		out.writeChars(string);
+	}
+}
@@ -0,0 +1,57 @@
+package com.meli.spelling.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.meli.spelling.checker.SpellingCorrector;
+import com.meli.spelling.suggestor.Suggestor;
+
+/**
+ * Offline step that trains the spelling corrector and the suggestor and writes
+ * their indexes on a snapshot. The directories of the names are taken from the
+ * same keys of the configuration, passed as system properties:
+ * 
+ * java -Dcom.meli.checker.spellingCorrector.names.cities=... ... SnapshotBuilder
+ * checker.snapshot
+ * 
+ * The snapshot is written on a temporary file and then moved, so a running
+ * application never maps a partial file.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+public class SnapshotBuilder {
+
+	/**
+	 * Builds the snapshot.
+	 * 
+	 * @param args
+	 *            path of the snapshot.
+	 * @throws IOException
+	 *             if the snapshot can not be written.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: SnapshotBuilder <snapshot file>");
+			System.exit(1);
+		}
+		File file = new File(args[0]);
+		File temporary = new File(file.getPath() + ".tmp");
+		long startTime = System.currentTimeMillis();
+		SnapshotWriter writer = new SnapshotWriter(temporary);
+		try {
+			SpellingCorrector.getInstance().writeSnapshot(writer);
+			Suggestor.getInstance().writeSnapshot(writer);
+		} finally {
+			writer.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		System.out.println("Snapshot " + file + " (" + file.length()
+				+ " bytes) written in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+	}
+}
@@ -0,0 +1,130 @@
+package com.meli.spelling.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class writes a snapshot (see Snapshot for the format). Sections are
+ * written one after the other; the directory is written when the writer is
+ * closed.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+public class SnapshotWriter implements Closeable {
+	/**
+	 * Output of the file.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Offset and length of each section.
+	 */
+	private final LinkedHashMap<String, int[]> sections = new LinkedHashMap<String, int[]>();
+
+	/**
+	 * Section being written.
+	 */
+	private int[] current = null;
+
+	/**
+	 * Constructor of the class.
+	 * 
+	 * @param file
+	 *            where the snapshot is written.
+	 * @throws IOException
+	 *             if the file can not be created.
+	 */
+	public SnapshotWriter(File file) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		out.writeInt(Snapshot.MAGIC);
+		out.writeInt(Snapshot.VERSION);
+	}
+
+	/**
+	 * Starts a new section, finishing the previous one.
+	 * 
+	 * @param name
+	 *            of the section.
+	 * @return output of the section.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public DataOutputStream section(String name) throws IOException {
+		if (sections.containsKey(name))
+			throw new IllegalArgumentException("Duplicated section " + name);
+		endSection();
+		align();
+		current = new int[] { position(), 0 };
+		sections.put(name, current);
+		return out;
+	}
+
+	/**
+	 * Finishes the last section and writes the directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			endSection();
+			align();
+			int directory = position();
+			out.writeInt(sections.size());
+			for (Map.Entry<String, int[]> section : sections.entrySet()) {
+				Snapshot.writeString(out, section.getKey());
+				out.writeInt(section.getValue()[0]);
+				out.writeInt(section.getValue()[1]);
+			}
+			out.writeInt(directory);
+			out.writeInt(Snapshot.MAGIC);
+			position();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Sets the length of the current section.
+	 * 
+	 * @throws IOException
+	 *             if the snapshot is too large.
+	 */
+	private void endSection() throws IOException {
+		if (current != null) {
+			current[1] = position() - current[0];
+			current = null;
+		}
+	}
+
+	/**
+	 * Pads the file to a multiple of 8 bytes.
+	 * 
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	private void align() throws IOException {
+		while ((position() & 7) != 0)
+			out.writeByte(0);
+	}
+
+	/**
+	 * Gets the number of bytes written.
+	 * 
+	 * @return position on the file.
+	 * @throws IOException
+	 *             if the snapshot is larger than what can be mapped.
+	 */
+	private int position() throws IOException {
+		// size() stops counting at Integer.MAX_VALUE
+		if (out.size() == Integer.MAX_VALUE)
+			throw new IOException("Snapshot too large");
+		return out.size();
+	}
+}
@@ -0,0 +1,361 @@
+package com.meli.spelling.suggestor;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import com.meli.spelling.ranking.Popularity;
+
+/**
+ * Finds the names of a context starting with something near a key, so a key
+ * that is still being typed and has a typo ("rio cuatr") gets its completions
+ * ("río cuarto") in a single pass, without correcting it first.
+ *
+ * The names are sorted, so the names sharing a prefix are a range of them:
+ * the sorted array is a trie whose nodes are ranges, and no node is stored.
+ * The trie is walked depth first running a Levenshtein automaton over the key:
+ * each node computes the row of distances between the key and its prefix from
+ * the row of its parent. A branch is left as soon as every distance of its row
+ * is over the maximum, and a name matches with the lowest distance between the
+ * key and any of its prefixes. Transposed chars count as one edit and accents
+ * are ignored.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class FuzzyPrefixIndex {
+	/**
+	 * Orders the names by their chars.
+	 */
+	private static final Comparator<Name> BY_KEY = new Comparator<Name>() {
+		public int compare(Name a, Name b) {
+			return a.key.compareTo(b.key);
+		}
+	};
+
+	/**
+	 * Chars without accents, by char, for the chars of Latin-1.
+	 */
+	private static final char[] FOLDED = new char[256];
+
+	static {
+		for (char c = 0; c < FOLDED.length; c++) {
+			String folded = Normalizer.normalize(String.valueOf(c),
+					Normalizer.Form.NFD);
+			FOLDED[c] = folded.charAt(0);
+		}
+	}
+
+	/**
+	 * Names in lower case, sorted.
+	 */
+	private final String[] keys;
+
+	/**
+	 * Entry of each name on its context.
+	 */
+	private final int[] entries;
+
+	/**
+	 * Length of the longest name, the depth of the trie.
+	 */
+	private final int depth;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param names
+	 *            names of the context in lower case, the entry of each one is
+	 *            its position.
+	 */
+	FuzzyPrefixIndex(Collection<String> names) {
+		Name[] sorted = new Name[names.size()];
+		int entry = 0;
+		for (String name : names) {
+			sorted[entry] = new Name(name, entry + 1);
+			entry++;
+		}
+		Arrays.sort(sorted, BY_KEY);
+		this.keys = new String[sorted.length];
+		this.entries = new int[sorted.length];
+		int depth = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			keys[i] = sorted[i].key;
+			entries[i] = sorted[i].entry;
+			depth = Math.max(depth, keys[i].length());
+		}
+		this.depth = depth;
+	}
+
+	/**
+	 * Estimates the heap used by the index, the names are shared with the
+	 * rendered index.
+	 *
+	 * @return estimated bytes.
+	 */
+	long heapBytes() {
+		return 32 + 8L * keys.length;
+	}
+
+	/**
+	 * Gets the best names starting with something near a key: the nearest
+	 * first, then the most popular, then by entry.
+	 *
+	 * @param key
+	 *            in lower case.
+	 * @param distance
+	 *            maximum number of edits.
+	 * @param limit
+	 *            maximum number of names (greater than 0).
+	 * @param popularity
+	 *            of the names of the context, null to rank them only by
+	 *            distance and entry.
+	 * @return names, the best first.
+	 */
+	List<String> getTopKeysStartingNear(CharSequence key, int distance,
+			int limit, Popularity.Scope popularity) {
+		TopSuggestions<String> top = new TopSuggestions<String>(limit);
+		offerKeysStartingNear(key, distance, popularity,
+				Collections.<String> emptySet(), 0, top);
+		return top.best();
+	}
+
+	/**
+	 * Offers the names starting with something near a key to a ranking, so
+	 * the names of several indexes can be ranked together.
+	 *
+	 * @param key
+	 *            in lower case.
+	 * @param distance
+	 *            maximum number of edits.
+	 * @param popularity
+	 *            of the names of the context, null to rank them only by
+	 *            distance and entry.
+	 * @param skipped
+	 *            names that are not offered.
+	 * @param offset
+	 *            added to the entries of the names.
+	 * @param top
+	 *            ranking where the names are offered.
+	 */
+	void offerKeysStartingNear(CharSequence key, int distance,
+			Popularity.Scope popularity, Set<String> skipped, int offset,
+			TopSuggestions<String> top) {
+		Walk walk = new Walk(key, distance, popularity, skipped, offset, top);
+		if (keys.length > 0) {
+			walk.visit(0, keys.length, 0, walk.rows[0][walk.word.length]);
+		}
+	}
+
+	/**
+	 * Removes the accent of a char.
+	 *
+	 * @param c
+	 *            char.
+	 * @return char without accent.
+	 */
+	private static char fold(char c) {
+		return c < FOLDED.length ? FOLDED[c] : c;
+	}
+
+	/**
+	 * A name and its entry, to sort them.
+	 */
+	private static final class Name {
+		final String key;
+		final int entry;
+
+		Name(String key, int entry) {
+			this.key = key;
+			this.entry = entry;
+		}
+	}
+
+	/**
+	 * Walk of the trie for a key.
+	 */
+	private final class Walk {
+		/**
+		 * Chars of the key without accents.
+		 */
+		final char[] word;
+
+		/**
+		 * Maximum number of edits.
+		 */
+		final int distance;
+
+		/**
+		 * Popularity of the names, it can be null.
+		 */
+		final Popularity.Scope popularity;
+
+		/**
+		 * Row of distances of each depth of the walk: the distance between
+		 * every prefix of the key and the prefix of the node.
+		 */
+		final int[][] rows;
+
+		/**
+		 * Names that are not offered.
+		 */
+		final Set<String> skipped;
+
+		/**
+		 * Added to the entries of the names.
+		 */
+		final int offset;
+
+		/**
+		 * Best names found.
+		 */
+		final TopSuggestions<String> top;
+
+		Walk(CharSequence key, int distance, Popularity.Scope popularity,
+				Set<String> skipped, int offset, TopSuggestions<String> top) {
+			this.word = new char[key.length()];
+			for (int i = 0; i < word.length; i++) {
+				word[i] = fold(key.charAt(i));
+			}
+			this.distance = distance;
+			this.popularity = popularity;
+			this.rows = new int[depth + 1][];
+			this.rows[0] = new int[word.length + 1];
+			for (int i = 0; i <= word.length; i++) {
+				rows[0][i] = i;
+			}
+			this.skipped = skipped;
+			this.offset = offset;
+			this.top = top;
+		}
+
+		/**
+		 * Visits a node of the trie.
+		 *
+		 * @param from
+		 *            first name of the node.
+		 * @param to
+		 *            end of the names of the node.
+		 * @param depth
+		 *            length of the prefix of the node.
+		 * @param best
+		 *            lowest distance of the key to the prefixes of the node,
+		 *            its own included.
+		 */
+		void visit(int from, int to, int depth, int best) {
+			int[] row = rows[depth];
+			int min = row[0];
+			for (int i = 1; i < row.length; i++) {
+				min = Math.min(min, row[i]);
+			}
+			if (min >= best) {
+				// no longer prefix is nearer
+				if (best <= distance) {
+					offer(from, to, best);
+				}
+				return;
+			}
+			if (min > distance) {
+				return;
+			}
+			// names that end on this node come first
+			int i = from;
+			while (i < to && keys[i].length() == depth) {
+				i++;
+			}
+			if (best <= distance) {
+				offer(from, i, best);
+			}
+			while (i < to) {
+				char c = keys[i].charAt(depth);
+				int end = end(i, to, depth, c);
+				int[] next = row(depth + 1, fold(c),
+						depth > 0 ? fold(keys[i].charAt(depth - 1)) : 0);
+				visit(i, end, depth + 1, Math.min(best, next[word.length]));
+				i = end;
+			}
+		}
+
+		/**
+		 * Computes the row of a child node.
+		 *
+		 * @param depth
+		 *            length of the prefix of the child.
+		 * @param c
+		 *            last char of the prefix, without accent.
+		 * @param previous
+		 *            char before it, without accent.
+		 * @return row of the child.
+		 */
+		int[] row(int depth, char c, char previous) {
+			if (rows[depth] == null) {
+				rows[depth] = new int[word.length + 1];
+			}
+			int[] parent = rows[depth - 1];
+			int[] grandparent = depth > 1 ? rows[depth - 2] : null;
+			int[] row = rows[depth];
+			row[0] = depth;
+			for (int i = 1; i <= word.length; i++) {
+				int cost = word[i - 1] == c ? 0 : 1;
+				int value = Math.min(Math.min(parent[i] + 1, row[i - 1] + 1),
+						parent[i - 1] + cost);
+				if (grandparent != null && i > 1 && word[i - 1] == previous
+						&& word[i - 2] == c) {
+					value = Math.min(value, grandparent[i - 2] + 1);
+				}
+				row[i] = value;
+			}
+			return row;
+		}
+
+		/**
+		 * Finds the end of the names of a child node.
+		 *
+		 * @param from
+		 *            first name of the child.
+		 * @param to
+		 *            end of the names of the parent.
+		 * @param depth
+		 *            position of the char of the child.
+		 * @param c
+		 *            char of the child.
+		 * @return end of the names of the child.
+		 */
+		int end(int from, int to, int depth, char c) {
+			int low = from + 1;
+			int high = to;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (keys[middle].charAt(depth) <= c) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Offers some names to the ranking.
+		 *
+		 * @param from
+		 *            first name.
+		 * @param to
+		 *            end of the names.
+		 * @param near
+		 *            distance of the key to the names.
+		 */
+		void offer(int from, int to, int near) {
+			for (int i = from; i < to; i++) {
+				if (!skipped.contains(keys[i])) {
+					top.offer(keys[i], near, popularity == null ? 0
+							: popularity.count(keys[i]), offset + entries[i]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,564 @@
+package com.meli.spelling.suggestor;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.meli.spelling.ranking.Popularity;
+
+/**
+ * Suggestion index of a context together with its names already rendered
+ * (see RenderedName). The base index and its rendered names are immutable and
+ * shared by every version of the index: the names added and removed online
+ * are a small delta of each version, merged with the base at query time. When
+ * the delta grows too much the index is folded into a new base in the
+ * background (see Suggestor), so a change costs a copy of the delta, not of
+ * the names.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class RenderedIndex implements SuggestionIndex {
+	/**
+	 * Names added and removed since the base was built that make the index
+	 * worth folding.
+	 */
+	private static final int FOLD_CHANGES = 64;
+
+	/**
+	 * Index and rendered names the index was built with.
+	 */
+	private final Base base;
+
+	/**
+	 * Rendered names added to the base by name in lower case, in the order
+	 * they were added. The rendered name is null if it can not be rendered.
+	 */
+	private final Map<String, RenderedName> added;
+
+	/**
+	 * Names of the base removed, in lower case.
+	 */
+	private final Set<String> removed;
+
+	/**
+	 * Names of the index, the same set while the index is used.
+	 */
+	private final Set<String> keys;
+
+	/**
+	 * Trie of the names added to complete keys with typos, built the first
+	 * time it is used.
+	 */
+	private volatile FuzzyPrefixIndex fuzzy;
+
+	/**
+	 * Last time the index was used, in milliseconds. It is updated at most
+	 * once a second, to unload the least recently used indexes.
+	 */
+	private volatile long lastUsed = System.currentTimeMillis();
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param index
+	 *            of the names.
+	 * @param keys
+	 *            names of the index in lower case.
+	 */
+	RenderedIndex(SuggestionIndex index, List<String> keys) {
+		this(new Base(index, keys), Collections.<String, RenderedName> emptyMap(),
+				Collections.<String> emptySet());
+	}
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param base
+	 *            index and rendered names the index was built with.
+	 * @param added
+	 *            rendered names added to the base.
+	 * @param removed
+	 *            names of the base removed.
+	 */
+	private RenderedIndex(Base base, Map<String, RenderedName> added,
+			Set<String> removed) {
+		this.base = base;
+		this.added = Collections.unmodifiableMap(added);
+		this.removed = Collections.unmodifiableSet(removed);
+		this.keys = added.isEmpty() && removed.isEmpty() ? base.names.keySet()
+				: new Keys();
+	}
+
+	/**
+	 * Estimates the heap used by some rendered names and their map.
+	 *
+	 * @param names
+	 *            rendered names by name in lower case.
+	 * @return estimated bytes.
+	 */
+	private static long namesBytes(Map<String, RenderedName> names) {
+		long bytes = 0;
+		for (Map.Entry<String, RenderedName> entry : names.entrySet()) {
+			bytes += 96 + 2 * entry.getKey().length()
+					+ (entry.getValue() == null ? 0 : entry.getValue()
+							.heapBytes());
+		}
+		return bytes;
+	}
+
+	/**
+	 * Marks the index as used now.
+	 */
+	void touch() {
+		long now = System.currentTimeMillis();
+		if (now - lastUsed > 1000) {
+			lastUsed = now;
+		}
+	}
+
+	/**
+	 * Gets the last time the index was used.
+	 *
+	 * @return time in milliseconds.
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Gets the names of the index. The same set is returned while the index
+	 * is used, a change creates a new index with a new set.
+	 *
+	 * @return names in lower case, except the ones that can not be rendered.
+	 */
+	Set<String> keys() {
+		return keys;
+	}
+
+	/**
+	 * Gets a rendered name of the index.
+	 *
+	 * @param key
+	 *            name in lower case.
+	 * @return rendered name, rendered now if it is not rendered yet.
+	 */
+	RenderedName name(CharSequence key) {
+		String name = key.toString();
+		RenderedName rendered = added.get(name);
+		if (rendered == null) {
+			rendered = base.names.get(name);
+		}
+		return rendered != null ? rendered : RenderedName.of(name);
+	}
+
+	/**
+	 * Gets an index with a name added after the existing ones. A name of the
+	 * base that was removed gets back its entry.
+	 *
+	 * @param key
+	 *            name in lower case.
+	 * @return new index, or this one if it already has the name.
+	 */
+	RenderedIndex withKey(String key) {
+		if (added.containsKey(key)) {
+			return this;
+		}
+		if (base.contains(key)) {
+			if (!removed.contains(key)) {
+				return this;
+			}
+			Set<String> removed = new HashSet<String>(this.removed);
+			removed.remove(key);
+			return new RenderedIndex(base, added, removed);
+		}
+		Map<String, RenderedName> added = new LinkedHashMap<String, RenderedName>(
+				this.added);
+		added.put(key, render(key));
+		return new RenderedIndex(base, added, removed);
+	}
+
+	/**
+	 * Gets an index without a name.
+	 *
+	 * @param key
+	 *            name in lower case.
+	 * @return new index, or this one if it does not have the name.
+	 */
+	RenderedIndex withoutKey(String key) {
+		if (added.containsKey(key)) {
+			Map<String, RenderedName> added = new LinkedHashMap<String, RenderedName>(
+					this.added);
+			added.remove(key);
+			return new RenderedIndex(base, added, removed);
+		}
+		if (base.contains(key) && !removed.contains(key)) {
+			Set<String> removed = new HashSet<String>(this.removed);
+			removed.add(key);
+			return new RenderedIndex(base, added, removed);
+		}
+		return this;
+	}
+
+	/**
+	 * Checks if the names added and removed are enough to fold the index into
+	 * a new base.
+	 *
+	 * @return true if it should be folded.
+	 */
+	boolean needsFolding() {
+		return added.size() + removed.size() > FOLD_CHANGES;
+	}
+
+	/**
+	 * Gets the names of the index to build a new base with them: the names of
+	 * the base that were not removed and then the names added.
+	 *
+	 * @return names in lower case, including the ones that can not be
+	 *         rendered.
+	 */
+	List<String> foldedKeys() {
+		List<String> keys = new ArrayList<String>(base.names.size()
+				+ base.unrendered.size() + added.size());
+		for (String key : base.names.keySet()) {
+			if (!removed.contains(key)) {
+				keys.add(key);
+			}
+		}
+		for (String key : base.unrendered) {
+			if (!removed.contains(key)) {
+				keys.add(key);
+			}
+		}
+		keys.addAll(added.keySet());
+		return keys;
+	}
+
+	/**
+	 * Renders a name. Names that can not be rendered (empty lines of the
+	 * files) are left out, they fail as before only when they are suggested.
+	 *
+	 * @param key
+	 *            name in lower case.
+	 * @return rendered name, null if it can not be rendered.
+	 */
+	private static RenderedName render(String key) {
+		try {
+			return RenderedName.of(key);
+		} catch (RuntimeException e) {
+			// rendered (and failing) on request, as it always was
+			return null;
+		}
+	}
+
+	@Override
+	public long heapBytes() {
+		FuzzyPrefixIndex fuzzy = this.fuzzy;
+		return base.heapBytes() + namesBytes(added) + 64L * removed.size()
+				+ (fuzzy == null ? 0 : fuzzy.heapBytes());
+	}
+
+	/**
+	 * Gets the best names starting with something near a key (see
+	 * FuzzyPrefixIndex): the nearest first, then the most popular, then by
+	 * entry. The tries are built on the first call; concurrent first calls may
+	 * build them twice.
+	 *
+	 * @param key
+	 *            in lower case.
+	 * @param distance
+	 *            maximum number of edits.
+	 * @param limit
+	 *            maximum number of names (greater than 0).
+	 * @param popularity
+	 *            of the names of the context, null to rank them only by
+	 *            distance and entry.
+	 * @return names, the best first.
+	 */
+	List<String> getTopKeysStartingNear(CharSequence key, int distance,
+			int limit, Popularity.Scope popularity) {
+		if (added.isEmpty() && removed.isEmpty()) {
+			return base.fuzzy().getTopKeysStartingNear(key, distance, limit,
+					popularity);
+		}
+		TopSuggestions<String> top = new TopSuggestions<String>(limit);
+		base.fuzzy().offerKeysStartingNear(key, distance, popularity, removed,
+				0, top);
+		FuzzyPrefixIndex fuzzy = this.fuzzy;
+		if (fuzzy == null) {
+			List<String> rendered = new ArrayList<String>(added.size());
+			for (Map.Entry<String, RenderedName> entry : added.entrySet()) {
+				if (entry.getValue() != null) {
+					rendered.add(entry.getKey());
+				}
+			}
+			fuzzy = new FuzzyPrefixIndex(rendered);
+			this.fuzzy = fuzzy;
+		}
+		fuzzy.offerKeysStartingNear(key, distance, popularity,
+				Collections.<String> emptySet(), base.names.size(), top);
+		return top.best();
+	}
+
+	@Override
+	public Iterable<? extends CharSequence> getKeysContaining(
+			final CharSequence fragment) {
+		if (added.isEmpty() && removed.isEmpty()) {
+			return base.index.getKeysContaining(fragment);
+		}
+		return new Iterable<CharSequence>() {
+			public Iterator<CharSequence> iterator() {
+				final Iterator<? extends CharSequence> found = base.index
+						.getKeysContaining(fragment).iterator();
+				final Iterator<String> names = added.keySet().iterator();
+				return new Merged<CharSequence>() {
+					@Override
+					CharSequence advance() {
+						while (found.hasNext()) {
+							CharSequence key = found.next();
+							if (removed.isEmpty()
+									|| !removed.contains(key.toString())) {
+								return key;
+							}
+						}
+						while (names.hasNext()) {
+							String key = names.next();
+							if (key.contains(fragment)) {
+								return key;
+							}
+						}
+						return null;
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public List<String> getTopKeysContaining(CharSequence fragment, int limit,
+			Popularity.Scope popularity) {
+		if (added.isEmpty() && removed.isEmpty()) {
+			return base.index.getTopKeysContaining(fragment, limit, popularity);
+		}
+		// enough names of the base to fill the limit after the removed ones
+		List<String> found = base.index.getTopKeysContaining(fragment,
+				(int) Math.min(Integer.MAX_VALUE, (long) limit + removed.size()),
+				popularity);
+		TopSuggestions<String> top = new TopSuggestions<String>(limit);
+		// names of the base keep their order, the added ones go after them
+		int entry = 0;
+		for (String key : found) {
+			entry++;
+			if (!removed.contains(key)) {
+				top.offer(key, TopSuggestions.startsWith(key, fragment),
+						popularity == null ? 0 : popularity.count(key), entry);
+			}
+		}
+		for (String key : added.keySet()) {
+			entry++;
+			if (key.contains(fragment)) {
+				top.offer(key, TopSuggestions.startsWith(key, fragment),
+						popularity == null ? 0 : popularity.count(key), entry);
+			}
+		}
+		return top.best();
+	}
+
+	/**
+	 * Index and rendered names an index was built with, shared by the
+	 * versions of the index until it is folded.
+	 */
+	private static final class Base {
+		/**
+		 * Index of the names.
+		 */
+		final SuggestionIndex index;
+
+		/**
+		 * Rendered names by name in lower case, in the order of their entries.
+		 */
+		final Map<String, RenderedName> names;
+
+		/**
+		 * Names of the index that can not be rendered.
+		 */
+		final List<String> unrendered = new ArrayList<String>();
+
+		/**
+		 * Estimated heap used by the rendered names.
+		 */
+		final long namesBytes;
+
+		/**
+		 * Trie of the names to complete keys with typos, built the first time
+		 * it is used.
+		 */
+		private volatile FuzzyPrefixIndex fuzzy;
+
+		Base(SuggestionIndex index, List<String> keys) {
+			this.index = index;
+			Map<String, RenderedName> names = new LinkedHashMap<String, RenderedName>(
+					keys.size() * 4 / 3 + 1);
+			for (String key : keys) {
+				if (!names.containsKey(key)) {
+					RenderedName rendered = render(key);
+					if (rendered != null) {
+						names.put(key, rendered);
+					} else {
+						unrendered.add(key);
+					}
+				}
+			}
+			this.names = Collections.unmodifiableMap(names);
+			this.namesBytes = namesBytes(names);
+		}
+
+		/**
+		 * Checks if the index has a name.
+		 *
+		 * @param key
+		 *            name in lower case.
+		 * @return true if it was built with the name.
+		 */
+		boolean contains(String key) {
+			return names.containsKey(key) || unrendered.contains(key);
+		}
+
+		/**
+		 * Gets the trie of the names, building it the first time.
+		 *
+		 * @return trie.
+		 */
+		FuzzyPrefixIndex fuzzy() {
+			FuzzyPrefixIndex fuzzy = this.fuzzy;
+			if (fuzzy == null) {
+				fuzzy = new FuzzyPrefixIndex(names.keySet());
+				this.fuzzy = fuzzy;
+			}
+			return fuzzy;
+		}
+
+		long heapBytes() {
+			FuzzyPrefixIndex fuzzy = this.fuzzy;
+			return index.heapBytes() + namesBytes
+					+ (fuzzy == null ? 0 : fuzzy.heapBytes());
+		}
+	}
+
+	/**
+	 * Names of an index with a delta: the rendered names of the base that
+	 * were not removed and then the rendered names added.
+	 */
+	private final class Keys extends AbstractSet<String> {
+		/**
+		 * Number of names.
+		 */
+		private final int size;
+
+		Keys() {
+			int size = base.names.size();
+			for (String key : removed) {
+				if (base.names.containsKey(key)) {
+					size--;
+				}
+			}
+			for (RenderedName rendered : added.values()) {
+				if (rendered != null) {
+					size++;
+				}
+			}
+			this.size = size;
+		}
+
+		@Override
+		public boolean contains(Object key) {
+			return added.get(key) != null
+					|| (base.names.containsKey(key) && !removed.contains(key));
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			final Iterator<String> names = base.names.keySet().iterator();
+			final Iterator<Map.Entry<String, RenderedName>> entries = added
+					.entrySet().iterator();
+			return new Merged<String>() {
+				@Override
+				String advance() {
+					while (names.hasNext()) {
+						String key = names.next();
+						if (!removed.contains(key)) {
+							return key;
+						}
+					}
+					while (entries.hasNext()) {
+						Map.Entry<String, RenderedName> entry = entries.next();
+						if (entry.getValue() != null) {
+							return entry.getKey();
+						}
+					}
+					return null;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Read only iterator over the items found by advance.
+	 *
+	 * @param <T>
+	 *            item.
+	 */
+	private abstract static class Merged<T> implements Iterator<T> {
+		/**
+		 * Next item, null at the end.
+		 */
+		private T next;
+
+		/**
+		 * True if next was already found.
+		 */
+		private boolean found;
+
+		/**
+		 * Finds the next item.
+		 *
+		 * @return item, null at the end.
+		 */
+		abstract T advance();
+
+		@Override
+		public boolean hasNext() {
+			if (!found) {
+				next = advance();
+				found = true;
+			}
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			found = false;
+			return next;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
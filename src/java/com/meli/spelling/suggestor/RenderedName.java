@@ -0,0 +1,197 @@
+package com.meli.spelling.suggestor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.meli.spelling.checker.entities.Suggestion;
+import com.meli.spelling.utils.Utils;
+
+/**
+ * A name of the suggestor as it is returned: its display name (first letter of
+ * each word in upper case), its hash and its JSON, encoded in UTF-8. Names are
+ * rendered once when their context is indexed, so requests only copy bytes.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class RenderedName {
+	/**
+	 * Encoding of the JSON.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Gson used to render the names, so the JSON is the same the controller
+	 * renders for a Suggestion.
+	 */
+	private static final Gson GSON = new Gson();
+
+	/**
+	 * Some utilities.
+	 */
+	private static final Utils UTILS = new Utils();
+
+	/**
+	 * Display name.
+	 */
+	private final String name;
+
+	/**
+	 * Hash of the display name, used to identify states and cities.
+	 */
+	private final String hashCode;
+
+	/**
+	 * JSON of the name with its hash: {"name":"...","hashCode":"..."}.
+	 */
+	private final byte[] json;
+
+	/**
+	 * Length of the JSON without the hash, not counting the closing brace: the
+	 * JSON without the hash is json[0, nameLength) followed by '}'.
+	 */
+	private final int nameLength;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param name
+	 *            display name.
+	 * @param hashCode
+	 *            hash of the name.
+	 * @param json
+	 *            JSON of the name with its hash.
+	 * @param nameLength
+	 *            length of the JSON without the hash and its closing brace.
+	 */
+	private RenderedName(String name, String hashCode, byte[] json,
+			int nameLength) {
+		this.name = name;
+		this.hashCode = hashCode;
+		this.json = json;
+		this.nameLength = nameLength;
+	}
+
+	/**
+	 * Renders a name of an index.
+	 *
+	 * @param key
+	 *            name in lower case.
+	 * @return rendered name.
+	 */
+	static RenderedName of(String key) {
+		return ofName(UTILS.firstLetterUpperCaseOfEachWord(key));
+	}
+
+	/**
+	 * Renders a display name, as it was rendered by another node.
+	 *
+	 * @param name
+	 *            display name.
+	 * @return rendered name.
+	 */
+	static RenderedName ofName(String name) {
+		Suggestion suggestion = new Suggestion();
+		suggestion.setName(name);
+		// fields are rendered in order, so the JSON without the hash is a
+		// prefix of the JSON with it
+		int nameLength = GSON.toJson(suggestion).getBytes(UTF_8).length - 1;
+		int code = suggestion.getName().hashCode();
+		code = (code < 0 ? -code : code);
+		suggestion.setHashCode(String.valueOf(code));
+		return new RenderedName(suggestion.getName(),
+				suggestion.getHashCode(), GSON.toJson(suggestion).getBytes(
+						UTF_8), nameLength);
+	}
+
+	/**
+	 * Gets the display name.
+	 *
+	 * @return name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the hash of the name.
+	 *
+	 * @return hash.
+	 */
+	public String getHashCode() {
+		return hashCode;
+	}
+
+	/**
+	 * Estimates the heap used by the name: the object, its strings and its
+	 * JSON.
+	 *
+	 * @return estimated bytes.
+	 */
+	long heapBytes() {
+		return 128 + 2 * name.length() + 2 * hashCode.length() + json.length;
+	}
+
+	/**
+	 * Creates a Suggestion of the name.
+	 *
+	 * @param hash
+	 *            , if the hashcode is needed.
+	 * @return suggestion.
+	 */
+	public Suggestion toSuggestion(boolean hash) {
+		Suggestion suggestion = new Suggestion();
+		suggestion.setName(name);
+		if (hash) {
+			suggestion.setHashCode(hashCode);
+		}
+		return suggestion;
+	}
+
+	/**
+	 * Writes the JSON of the name.
+	 *
+	 * @param out
+	 *            where it is written.
+	 * @param hash
+	 *            , if the hashcode is included.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public void writeTo(OutputStream out, boolean hash) throws IOException {
+		if (hash) {
+			out.write(json);
+		} else {
+			out.write(json, 0, nameLength);
+			out.write('}');
+		}
+	}
+
+	/**
+	 * Writes the JSON array of some names, the same Gson renders for their
+	 * suggestions.
+	 *
+	 * @param names
+	 *            of the array.
+	 * @param hash
+	 *            , if the hashcodes are included.
+	 * @param out
+	 *            where it is written.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public static void writeJson(List<RenderedName> names, boolean hash,
+			OutputStream out) throws IOException {
+		out.write('[');
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			names.get(i).writeTo(out, hash);
+		}
+		out.write(']');
+	}
+}
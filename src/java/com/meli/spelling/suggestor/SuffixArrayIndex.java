@@ -0,0 +1,486 @@
+package com.meli.spelling.suggestor;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.meli.spelling.ranking.Popularity;
+import com.meli.spelling.snapshot.Snapshot;
+
+/**
+ * Read optimized suggestion index. The names of a context are concatenated on
+ * a single char arena, each one followed by a separator, and the suffix array
+ * keeps the position of every suffix of every name sorted. The names
+ * containing a fragment are the names of the contiguous range of suffixes
+ * starting with it, which is found with two binary searches.
+ *
+ * A name is returned at its lowest suffix containing the fragment, the same
+ * order of the suffix tree (names sharing that suffix are returned by entry).
+ * The arena and the arrays are buffers, so the index can be served directly
+ * from a snapshot.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+final class SuffixArrayIndex implements SuggestionIndex {
+	/**
+	 * Char that ends every name, lower than any other char.
+	 */
+	private static final char SEPARATOR = '\0';
+
+	/**
+	 * Ranges shorter than this are sorted by insertion.
+	 */
+	private static final int INSERTION_SORT = 16;
+
+	/**
+	 * Names followed by the separator.
+	 */
+	private final CharBuffer text;
+
+	/**
+	 * Position of each name on the text, plus the length of the text.
+	 */
+	private final IntBuffer starts;
+
+	/**
+	 * Position of the suffixes sorted.
+	 */
+	private final IntBuffer suffixes;
+
+	/**
+	 * Number of names.
+	 */
+	private final int keyCount;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param text
+	 *            names followed by the separator.
+	 * @param starts
+	 *            position of each name, plus the length of the text.
+	 * @param suffixes
+	 *            position of the suffixes sorted.
+	 */
+	private SuffixArrayIndex(CharBuffer text, IntBuffer starts,
+			IntBuffer suffixes) {
+		this.text = text;
+		this.starts = starts;
+		this.suffixes = suffixes;
+		this.keyCount = starts.limit() - 1;
+	}
+
+	/**
+	 * Builds the index of the names of a context.
+	 *
+	 * @param keys
+	 *            names in lower case. Repeated and empty names are ignored.
+	 * @return index.
+	 */
+	static SuffixArrayIndex build(List<String> keys) {
+		List<String> unique = new ArrayList<String>();
+		HashSet<String> seen = new HashSet<String>();
+		int length = 0;
+		for (String key : keys) {
+			if (key.length() > 0 && key.indexOf(SEPARATOR) < 0
+					&& seen.add(key)) {
+				unique.add(key);
+				length += key.length() + 1;
+			}
+		}
+		char[] chars = new char[length];
+		int[] positions = new int[unique.size() + 1];
+		int[] sorted = new int[length - unique.size()];
+		int position = 0;
+		int suffix = 0;
+		for (int i = 0; i < unique.size(); i++) {
+			String key = unique.get(i);
+			positions[i] = position;
+			key.getChars(0, key.length(), chars, position);
+			for (int j = 0; j < key.length(); j++)
+				sorted[suffix++] = position + j;
+			position += key.length();
+			chars[position++] = SEPARATOR;
+		}
+		positions[unique.size()] = length;
+		sort(chars, sorted, 0, sorted.length, 0);
+		return new SuffixArrayIndex(CharBuffer.wrap(chars),
+				IntBuffer.wrap(positions), IntBuffer.wrap(sorted));
+	}
+
+	/**
+	 * Reads an index written by writeTo, without copying it.
+	 *
+	 * @param buffer
+	 *            containing the index.
+	 * @return index.
+	 */
+	static SuffixArrayIndex read(ByteBuffer buffer) {
+		int keys = buffer.getInt(0);
+		int length = buffer.getInt(4);
+		int offset = 8;
+		IntBuffer starts = Snapshot.slice(buffer, offset, (keys + 1) * 4)
+				.asIntBuffer();
+		offset += (keys + 1) * 4;
+		IntBuffer suffixes = Snapshot.slice(buffer, offset,
+				(length - keys) * 4).asIntBuffer();
+		offset += (length - keys) * 4;
+		CharBuffer text = Snapshot.slice(buffer, offset, length * 2)
+				.asCharBuffer();
+		return new SuffixArrayIndex(text, starts, suffixes);
+	}
+
+	/**
+	 * Writes the index: number of names and length of the text, followed by
+	 * the starts, the suffixes and the text.
+	 *
+	 * @param out
+	 *            where the index is written.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(keyCount);
+		out.writeInt(text.limit());
+		for (int i = 0; i < starts.limit(); i++)
+			out.writeInt(starts.get(i));
+		for (int i = 0; i < suffixes.limit(); i++)
+			out.writeInt(suffixes.get(i));
+		for (int i = 0; i < text.limit(); i++)
+			out.writeChar(text.get(i));
+	}
+
+	/**
+	 * Gets the number of bytes written by writeTo.
+	 *
+	 * @return size of the index.
+	 */
+	int byteSize() {
+		return 8 + 4 * starts.limit() + 4 * suffixes.limit() + 2
+				* text.limit();
+	}
+
+	@Override
+	public long heapBytes() {
+		return text.isDirect() ? 0 : byteSize();
+	}
+
+	/**
+	 * Gets all the names, by entry.
+	 *
+	 * @return names.
+	 */
+	List<String> keys() {
+		List<String> keys = new ArrayList<String>(keyCount);
+		for (int i = 0; i < keyCount; i++)
+			keys.add(key(i));
+		return keys;
+	}
+
+	@Override
+	public Iterable<String> getKeysContaining(CharSequence fragment) {
+		final int from = bound(fragment, false);
+		final int to = bound(fragment, true);
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new KeyIterator(from, to);
+			}
+		};
+	}
+
+	@Override
+	public List<String> getTopKeysContaining(CharSequence fragment, int limit,
+			Popularity.Scope popularity) {
+		int to = bound(fragment, true);
+		TopSuggestions<Integer> top = new TopSuggestions<Integer>(limit);
+		BitSet offered = new BitSet();
+		for (int i = bound(fragment, false); i < to; i++) {
+			int position = suffixes.get(i);
+			int key = keyOf(position);
+			if (!offered.get(key)) {
+				offered.set(key);
+				// names are numbered by entry
+				int start = starts.get(key);
+				top.offer(key, compare(start, fragment) == 0,
+						popularity == null ? 0 : popularity.count(text, start,
+								starts.get(key + 1) - 1), key + 1);
+			}
+		}
+		List<String> keys = new ArrayList<String>();
+		for (int key : top.best()) {
+			keys.add(key(key));
+		}
+		return keys;
+	}
+
+	/**
+	 * Finds the first suffix that is greater or equal than the fragment (or
+	 * greater than every suffix starting with it).
+	 *
+	 * @param fragment
+	 *            to find.
+	 * @param upper
+	 *            true to skip the suffixes starting with the fragment.
+	 * @return position on the suffix array.
+	 */
+	private int bound(CharSequence fragment, boolean upper) {
+		int low = 0;
+		int high = suffixes.limit();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(suffixes.get(middle), fragment);
+			if (comparison < 0 || (upper && comparison == 0))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Compares a suffix with a fragment.
+	 *
+	 * @param suffix
+	 *            position of the suffix.
+	 * @param fragment
+	 *            .
+	 * @return 0 if the suffix starts with the fragment, a negative value if it
+	 *         is lower and a positive value if it is greater.
+	 */
+	private int compare(int suffix, CharSequence fragment) {
+		for (int i = 0; i < fragment.length(); i++) {
+			char c = text.get(suffix + i);
+			char f = fragment.charAt(i);
+			if (c != f)
+				return c - f;
+		}
+		return 0;
+	}
+
+	/**
+	 * Gets the name containing a position of the text.
+	 *
+	 * @param position
+	 *            on the text.
+	 * @return index of the name.
+	 */
+	private int keyOf(int position) {
+		int low = 0;
+		int high = keyCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (starts.get(middle) <= position)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Gets a name.
+	 *
+	 * @param key
+	 *            index of the name.
+	 * @return name.
+	 */
+	private String key(int key) {
+		int start = starts.get(key);
+		char[] chars = new char[starts.get(key + 1) - start - 1];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = text.get(start + i);
+		return new String(chars);
+	}
+
+	/**
+	 * Sorts suffixes with multikey quicksort (Bentley-Sedgewick). Equal
+	 * suffixes are sorted by position.
+	 *
+	 * @param chars
+	 *            text.
+	 * @param sorted
+	 *            positions of the suffixes.
+	 * @param low
+	 *            first suffix of the range.
+	 * @param high
+	 *            last suffix (exclusive) of the range.
+	 * @param depth
+	 *            number of chars already equal on the range.
+	 */
+	private static void sort(char[] chars, int[] sorted, int low, int high,
+			int depth) {
+		while (high - low > 1) {
+			if (high - low < INSERTION_SORT) {
+				insertionSort(chars, sorted, low, high, depth);
+				return;
+			}
+			char pivot = median(chars[sorted[low] + depth], chars[sorted[(low
+					+ high) >>> 1]
+					+ depth], chars[sorted[high - 1] + depth]);
+			int lt = low;
+			int gt = high - 1;
+			int i = low;
+			while (i <= gt) {
+				char c = chars[sorted[i] + depth];
+				if (c < pivot)
+					swap(sorted, lt++, i++);
+				else if (c > pivot)
+					swap(sorted, i, gt--);
+				else
+					i++;
+			}
+			sort(chars, sorted, low, lt, depth);
+			sort(chars, sorted, gt + 1, high, depth);
+			if (pivot == SEPARATOR) {
+				Arrays.sort(sorted, lt, gt + 1);
+				return;
+			}
+			low = lt;
+			high = gt + 1;
+			depth++;
+		}
+	}
+
+	/**
+	 * Sorts a small range of suffixes.
+	 *
+	 * @param chars
+	 *            text.
+	 * @param sorted
+	 *            positions of the suffixes.
+	 * @param low
+	 *            first suffix of the range.
+	 * @param high
+	 *            last suffix (exclusive) of the range.
+	 * @param depth
+	 *            number of chars already equal on the range.
+	 */
+	private static void insertionSort(char[] chars, int[] sorted, int low,
+			int high, int depth) {
+		for (int i = low + 1; i < high; i++) {
+			for (int j = i; j > low
+					&& compare(chars, sorted[j - 1], sorted[j], depth) > 0; j--)
+				swap(sorted, j - 1, j);
+		}
+	}
+
+	/**
+	 * Compares two suffixes.
+	 *
+	 * @param chars
+	 *            text.
+	 * @param a
+	 *            position of the first suffix.
+	 * @param b
+	 *            position of the second suffix.
+	 * @param depth
+	 *            number of chars already equal.
+	 * @return comparison, by position if both are equal.
+	 */
+	private static int compare(char[] chars, int a, int b, int depth) {
+		for (int d = depth;; d++) {
+			char ca = chars[a + d];
+			char cb = chars[b + d];
+			if (ca != cb)
+				return ca - cb;
+			if (ca == SEPARATOR)
+				return a - b;
+		}
+	}
+
+	/**
+	 * Gets the median of three chars.
+	 *
+	 * @return median.
+	 */
+	private static char median(char a, char b, char c) {
+		if (a < b)
+			return b < c ? b : (a < c ? c : a);
+		return a < c ? a : (b < c ? c : b);
+	}
+
+	/**
+	 * Swaps two positions of an array.
+	 */
+	private static void swap(int[] array, int i, int j) {
+		int value = array[i];
+		array[i] = array[j];
+		array[j] = value;
+	}
+
+	/**
+	 * Iterates the names of a range of suffixes, skipping the names already
+	 * returned.
+	 */
+	private final class KeyIterator implements Iterator<String> {
+		/**
+		 * Names already returned.
+		 */
+		private final BitSet returned = new BitSet();
+
+		/**
+		 * Next suffix to check.
+		 */
+		private int position;
+
+		/**
+		 * Last suffix (exclusive) of the range.
+		 */
+		private final int to;
+
+		/**
+		 * Next name to return, -1 if it was not computed.
+		 */
+		private int next = -1;
+
+		/**
+		 * Constructor of the class.
+		 *
+		 * @param from
+		 *            first suffix of the range.
+		 * @param to
+		 *            last suffix (exclusive) of the range.
+		 */
+		KeyIterator(int from, int to) {
+			this.position = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next < 0 && position < to) {
+				int key = keyOf(suffixes.get(position++));
+				if (!returned.get(key)) {
+					returned.set(key);
+					next = key;
+				}
+			}
+			return next >= 0;
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String key = key(next);
+			next = -1;
+			return key;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
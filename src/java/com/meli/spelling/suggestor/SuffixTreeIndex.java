@@ -0,0 +1,92 @@
+package com.meli.spelling.suggestor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
+import com.googlecode.concurrenttrees.suffix.ConcurrentSuffixTree;
+import com.googlecode.concurrenttrees.suffix.SuffixTree;
+import com.meli.spelling.ranking.Popularity;
+
+/**
+ * Suggestion index backed by a suffix tree, the original index of the
+ * suggestor. Names are added when it is built and never changed, like the
+ * suffix array: both follow the same publication contract.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+final class SuffixTreeIndex implements SuggestionIndex {
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Suffix tree of the names, the value of each one is its entry.
+	 */
+	private final SuffixTree<Integer> suggestorTree = new ConcurrentSuffixTree<Integer>(
+			new DefaultCharArrayNodeFactory());
+
+	/**
+	 * Estimated bytes used by a char of a name: every suffix of every name is
+	 * a path of nodes of the tree.
+	 */
+	private static final int BYTES_BY_CHAR = 120;
+
+	/**
+	 * Number of chars of the names, to estimate the size of the tree.
+	 */
+	private final long chars;
+
+	/**
+	 * Constructor of the class.
+	 * 
+	 * @param keys
+	 *            names in lower case, the entry of each one is its first
+	 *            position starting at 1.
+	 */
+	SuffixTreeIndex(List<String> keys) {
+		int entry = 0;
+		long chars = 0;
+		for (String key : keys) {
+			entry++;
+			try {
+				suggestorTree.putIfAbsent(key, entry);
+				chars += key.length();
+			} catch (Exception e) {
+				log.info("Error adding name:" + key);
+			}
+		}
+		this.chars = chars;
+	}
+
+	@Override
+	public long heapBytes() {
+		return chars * BYTES_BY_CHAR;
+	}
+
+	@Override
+	public Iterable<CharSequence> getKeysContaining(CharSequence fragment) {
+		return suggestorTree.getKeysContaining(fragment);
+	}
+
+	@Override
+	public List<String> getTopKeysContaining(CharSequence fragment, int limit,
+			Popularity.Scope popularity) {
+		TopSuggestions<CharSequence> top = new TopSuggestions<CharSequence>(
+				limit);
+		for (CharSequence key : suggestorTree.getKeysContaining(fragment)) {
+			Integer entry = suggestorTree.getValueForExactKey(key);
+			top.offer(key, TopSuggestions.startsWith(key, fragment),
+					popularity == null ? 0 : popularity.count(key),
+					entry == null ? Integer.MAX_VALUE : entry);
+		}
+		List<String> keys = new ArrayList<String>();
+		for (CharSequence key : top.best()) {
+			keys.add(key.toString());
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,51 @@
+package com.meli.spelling.suggestor;
+
+import java.util.List;
+
+import com.meli.spelling.ranking.Popularity;
+
+/**
+ * Index of the names of a context (site, state or city) that finds the names
+ * containing a fragment. Names are stored in lower case. Indexes are not
+ * changed once built, so requests using one are never affected by a change:
+ * the names added or removed online are kept apart and merged at query time
+ * (see RenderedIndex).
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+interface SuggestionIndex {
+
+	/**
+	 * Gets the names containing a fragment, each one only once.
+	 * 
+	 * @param fragment
+	 *            in lower case.
+	 * @return names containing the fragment, lazily computed.
+	 */
+	Iterable<? extends CharSequence> getKeysContaining(CharSequence fragment);
+
+	/**
+	 * Gets the best names containing a fragment: names starting with it
+	 * first, then the most popular, then by entry.
+	 * 
+	 * @param fragment
+	 *            in lower case.
+	 * @param limit
+	 *            maximum number of names (greater than 0).
+	 * @param popularity
+	 *            of the names of the context, null to rank them only by
+	 *            entry.
+	 * @return names, the best first.
+	 */
+	List<String> getTopKeysContaining(CharSequence fragment, int limit,
+			Popularity.Scope popularity);
+
+	/**
+	 * Estimates the heap used by the index, to keep the indexes loaded within
+	 * the memory budget of the suggestor.
+	 * 
+	 * @return estimated bytes, 0 if it is served from a mapped file.
+	 */
+	long heapBytes();
+}
@@ -1,20 +1,43 @@
 package com.meli.spelling.suggestor;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import com.meli.spelling.utils.BatchExecutor;
 import com.meli.spelling.utils.Utils;
 import com.googlecode.concurrenttrees.common.Iterables;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
-import com.googlecode.concurrenttrees.suffix.ConcurrentSuffixTree;
-import com.googlecode.concurrenttrees.suffix.SuffixTree;
+import com.meli.spelling.cache.ResultCache;
+import com.meli.spelling.checker.ContextNames;
 import com.meli.spelling.checker.entities.Suggestion;
+import com.meli.spelling.cluster.Router;
 import com.meli.spelling.config.CheckerConfig;
+import com.meli.spelling.metrics.FlightEvent;
+import com.meli.spelling.metrics.Histogram;
+import com.meli.spelling.metrics.Metrics;
+import com.meli.spelling.ranking.Popularity;
+import com.meli.spelling.snapshot.Snapshot;
+import com.meli.spelling.snapshot.SnapshotWriter;
 
 /**
  * This class provides a suggestor for states, cities and cities. It is trained
@@ -23,7 +46,7 @@ import com.meli.spelling.config.CheckerConfig;
  * @author Fabian Bertetto
  *
  */
-public class Suggestor {
+public class Suggestor implements ContextNames, Metrics.Collector {
 	/**
 	 * Directory that contains files with name of the cities separated by site
 	 * (MLA).
@@ -50,9 +73,143 @@ public class Suggestor {
 	private static final Suggestor INSTANCE = new Suggestor();
 
 	/**
-	 * Map containing Suggestion Trees by context
+	 * Name of the snapshot section containing the index of every context.
 	 */
-	HashMap<String, SuffixTree<Integer>> suggestionTreesMap = new HashMap<String, SuffixTree<Integer>>();
+	private static final String SECTION = "suggestor";
+
+	/**
+	 * Maximum number of names of a streamed result that is cached.
+	 */
+	private static final int CACHED_STREAM = 256;
+
+	/**
+	 * Value of the configuration that selects the suffix array index.
+	 */
+	private static final String SUFFIX_ARRAY = "suffixArray";
+
+	/**
+	 * Number of chars of a key for each edit allowed when it is completed
+	 * with typos.
+	 */
+	private static final int CHARS_BY_EDIT = 4;
+
+	/**
+	 * Map containing Suggestion Indexes by context
+	 */
+	ConcurrentHashMap<String, RenderedIndex> suggestionIndexMap = new ConcurrentHashMap<String, RenderedIndex>();
+
+	/**
+	 * Position and length on the snapshot of the index of each context not
+	 * loaded yet.
+	 */
+	private ConcurrentHashMap<String, int[]> snapshotContexts = new ConcurrentHashMap<String, int[]>();
+
+	/**
+	 * Names file of each context, to load it again after it is unloaded.
+	 */
+	private ConcurrentHashMap<String, File> fileContexts = new ConcurrentHashMap<String, File>();
+
+	/**
+	 * Contexts changed online, they are not unloaded until their file is
+	 * reloaded. Guarded by changes.
+	 */
+	private final Set<String> pinned = new HashSet<String>();
+
+	/**
+	 * Indexes being folded by context, with the changes made to them
+	 * meanwhile. Guarded by changes.
+	 */
+	private final Map<String, Fold> folds = new HashMap<String, Fold>();
+
+	/**
+	 * Thread that folds the indexes changed online.
+	 */
+	private final ExecutorService folder = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "index-folder");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Snapshot section containing the indexes, null if it was trained from
+	 * the files.
+	 */
+	private ByteBuffer snapshot = null;
+
+	/**
+	 * True to use suffix arrays instead of suffix trees.
+	 */
+	private final boolean suffixArray = SUFFIX_ARRAY
+			.equalsIgnoreCase(CheckerConfig.getSuggestorIndex());
+
+	/**
+	 * True to index each context on its first request instead of on startup.
+	 */
+	private final boolean lazy = CheckerConfig.isSuggestorLazy();
+
+	/**
+	 * Maximum number of edits of the keys completed with typos, 0 if keys
+	 * are only completed as they are.
+	 */
+	private final int fuzzy = CheckerConfig.getSuggestorFuzzy();
+
+	/**
+	 * Heap the loaded indexes can use, 0 if it is not limited.
+	 */
+	private final long budget = CheckerConfig.getSuggestorMegabytes() * 1024L * 1024L;
+
+	/**
+	 * Popularity of the names, null if they are not ranked by it.
+	 */
+	private final Popularity popularity = Popularity.getInstance();
+
+	/**
+	 * Lookups of the indexes already loaded.
+	 */
+	private final AtomicLong hits = Metrics.getInstance().lookup("hit");
+
+	/**
+	 * Lookups of the indexes loaded on demand.
+	 */
+	private final AtomicLong loads = Metrics.getInstance().lookup("load");
+
+	/**
+	 * Lookups of contexts that do not exist.
+	 */
+	private final AtomicLong misses = Metrics.getInstance().lookup("miss");
+
+	/**
+	 * Latency of the indexes loaded on demand.
+	 */
+	private final Histogram loading = Metrics.getInstance().stage("load");
+
+	/**
+	 * Router of the contexts owned by other nodes, null if the deployment is
+	 * not partitioned and every context is served by this node.
+	 */
+	private final Router router = Router.fromConfig();
+
+	/**
+	 * Lock that serializes the changes of the indexes. Requests only take it
+	 * to publish an index loaded on demand.
+	 */
+	private final Object changes = new Object();
+
+	/**
+	 * Suggestions by context and key, null if they are not cached. The
+	 * suggestions of a context are invalidated when its index changes.
+	 */
+	private final ResultCache<List<RenderedName>> cache = ResultCache
+			.fromConfig(new ResultCache.Weigher<List<RenderedName>>() {
+				public int weigh(List<RenderedName> names) {
+					// rendered names belong to the index, only the list is
+					// cached
+					return 40 + 8 * names.size();
+				}
+			});
 
 	/**
 	 * Some utilities.
@@ -65,14 +222,16 @@ public class Suggestor {
 	Logger log = Logger.getLogger("Logger");
 
 	/**
-	 * Constructor of the class. It will train the corrector if it is not
-	 * initiated;
+	 * Constructor of the class. It will load the snapshot if it is configured,
+	 * otherwise it will train the corrector if it is not initiated;
 	 */
 	private Suggestor() {
 		if (INSTANCE != null) {
 			throw new IllegalStateException("Already Instantiated");
 		} else {
-			train();
+			String path = CheckerConfig.getSnapshot();
+			if (path == null || !load(new File(path)))
+				train();
 		}
 	}
 
@@ -86,116 +245,733 @@ public class Suggestor {
 	}
 
 	/**
-	 * Trains the suggestor with the corresponding names.
+	 * Trains the suggestor with the corresponding names. When contexts are
+	 * loaded on demand only their files are registered. On a partitioned
+	 * deployment only the contexts owned by this node are trained.
 	 */
 	public void train() {
-		trainStates();
-		trainCities();
-		trainStreets();
+		long startTime = System.currentTimeMillis();
+		for (Map.Entry<String, File> corpus : corpora().entrySet()) {
+			if (!owns(corpus.getKey())) {
+				continue;
+			}
+			if (lazy) {
+				synchronized (changes) {
+					fileContexts.put(corpus.getKey(), corpus.getValue());
+					suggestionIndexMap.remove(corpus.getKey());
+					pinned.remove(corpus.getKey());
+					folds.remove(corpus.getKey());
+					invalidate(corpus.getKey());
+				}
+				continue;
+			}
+			try {
+				RenderedIndex index = buildIndex(readNames(corpus.getValue()));
+				synchronized (changes) {
+					suggestionIndexMap.put(corpus.getKey(), index);
+					fileContexts.put(corpus.getKey(), corpus.getValue());
+					pinned.remove(corpus.getKey());
+					folds.remove(corpus.getKey());
+					invalidate(corpus.getKey());
+				}
+			} catch (Exception e) {
+				log.info("Could not finish trainning of names on "
+						+ corpus.getValue());
+			}
+		}
+		if (lazy) {
+			log.info("Suggestor registered " + fileContexts.size()
+					+ " contexts, loaded on demand");
+		} else {
+			synchronized (changes) {
+				account(null);
+			}
+		}
+		Metrics.getInstance().trained("suggestor",
+				System.currentTimeMillis() - startTime);
 	}
 
 	/**
-	 * Trains the suggestor with the corresponding cities on the specified
-	 * directory.
+	 * Gets the files containing the names of each context: states by site,
+	 * cities by state and streets by city.
+	 * 
+	 * @return files by context.
 	 */
-	private void trainCities() {
-		File dir = new File(DIR_CITIES);
-		File[] directoryListing = dir.listFiles();
-		for (File child : directoryListing) {
-			SuffixTree<Integer> suggestorTree = new ConcurrentSuffixTree<Integer>(
-					new DefaultCharArrayNodeFactory());
-			BufferedReader br = null;
-			try {
-				br = new BufferedReader(new FileReader(child));
-				String line;
-				int entry = 0;
-				while ((line = br.readLine()) != null) {
-					entry++;
-					suggestorTree.put(line.toLowerCase(), entry);
-				}
-				int code = utils
-						.firstLetterUpperCaseOfEachWord(child.getName())
-						.hashCode();
-				code = (code < 0 ? -code : code);
-				System.out.println("STATE: " + String.valueOf(code) + " - "
-						+ child.getName());
-				suggestionTreesMap.put(String.valueOf(code), suggestorTree);
-			} catch (Exception e) {
-				log.info("Could not finish trainning of cities on state:"
-						+ child);
+	private LinkedHashMap<String, File> corpora() {
+		LinkedHashMap<String, File> corpora = new LinkedHashMap<String, File>();
+		for (File child : new File(DIR_STATES).listFiles()) {
+			corpora.put(contextOf(child), child);
+		}
+		for (File child : new File(DIR_CITIES).listFiles()) {
+			log.fine("STATE: " + code(child.getName()) + " - "
+					+ child.getName());
+			corpora.put(contextOf(child), child);
+		}
+		for (File state : new File(DIR_STREETS).listFiles()) {
+			for (File city : state.listFiles()) {
+				log.fine("CITY: " + code(city.getName()) + " - "
+						+ city.getName());
+				corpora.put(contextOf(city), city);
 			}
 		}
+		return corpora;
 	}
 
 	/**
-	 * Trains the suggestor with the corresponding states on the specified
-	 * directory.
+	 * Gets the context of a names file, from the directory where it is: the
+	 * site for states, the hash of the state for cities and the hashes of the
+	 * state and the city for streets.
+	 * 
+	 * @param file
+	 *            of names.
+	 * @return context, null if the file is not on the configured directories.
 	 */
-	private void trainStates() {
-		File dir = new File(DIR_STATES);
-		File[] directoryListing = dir.listFiles();
-		for (File child : directoryListing) {
-			SuffixTree<Integer> suggestorTree = new ConcurrentSuffixTree<Integer>(
-					new DefaultCharArrayNodeFactory());
-			BufferedReader br = null;
-			try {
-				br = new BufferedReader(new FileReader(child));
-				String line;
-				int entry = 0;
-				while ((line = br.readLine()) != null) {
-					entry++;
-					suggestorTree.put(line.toLowerCase(), entry);
+	private String contextOf(File file) {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent == null) {
+			return null;
+		}
+		if (parent.equals(new File(DIR_STATES).getAbsoluteFile())) {
+			return file.getName();
+		}
+		if (parent.equals(new File(DIR_CITIES).getAbsoluteFile())) {
+			return code(file.getName());
+		}
+		if (new File(DIR_STREETS).getAbsoluteFile().equals(
+				parent.getParentFile())) {
+			return code(parent.getName()) + "-" + code(file.getName());
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the hash of a name used to identify states and cities.
+	 * 
+	 * @param name
+	 *            of the state or city.
+	 * @return hash.
+	 */
+	private String code(String name) {
+		int code = utils.firstLetterUpperCaseOfEachWord(name).hashCode();
+		code = (code < 0 ? -code : code);
+		return String.valueOf(code);
+	}
+
+	/**
+	 * Trains again the context of a names file and replaces its index, or
+	 * removes it if the file does not exist anymore. Requests keep using the
+	 * previous index until the new one is complete. A state directory of
+	 * streets reloads every city on it.
+	 * 
+	 * @param file
+	 *            of names or directory of a state.
+	 */
+	public void reload(File file) {
+		File absolute = file.getAbsoluteFile();
+		if (new File(DIR_STREETS).getAbsoluteFile().equals(
+				absolute.getParentFile())) {
+			String prefix = code(absolute.getName()) + "-";
+			if (absolute.isDirectory()) {
+				for (File city : absolute.listFiles()) {
+					reload(city);
 				}
-				suggestionTreesMap.put(child.getName(), suggestorTree);
-			} catch (Exception e) {
-				log.info("Could not finish trainning of states on site:"
-						+ child);
-			}
-		}
-	}
-
-	/**
-	 * Trains the suggestor with the corresponding streets on the specified
-	 * directory.
-	 */
-	private void trainStreets() {
-		File dir = new File(DIR_STREETS);
-		File[] states = dir.listFiles();
-		for (File state : states) {
-			File[] cities = state.listFiles();
-			for (File city : cities) {
-				SuffixTree<Integer> suggestorTree = new ConcurrentSuffixTree<Integer>(
-						new DefaultCharArrayNodeFactory());
-				BufferedReader br = null;
-				try {
-					br = new BufferedReader(new FileReader(city));
-					String line;
-					int entry = 0;
-					while ((line = br.readLine()) != null) {
-						entry++;
-						try {
-							suggestorTree.put(line.toLowerCase(), entry);
-						} catch (Exception e) {
-							log.info("Error adding street:" + line + city + "-"
-									+ state);
-						}
+			} else {
+				for (String context : suggestionIndexMap.keySet()) {
+					if (context.startsWith(prefix)) {
+						remove(context);
 					}
-					int cityCode = utils.firstLetterUpperCaseOfEachWord(
-							city.getName()).hashCode();
-					int stateCode = utils.firstLetterUpperCaseOfEachWord(
-							state.getName()).hashCode();
-					cityCode = (cityCode < 0 ? -cityCode : cityCode);
-					stateCode = (stateCode < 0 ? -stateCode : stateCode);
-					System.out.println("CITY: " + String.valueOf(cityCode)
-							+ " - " + city.getName());
-					suggestionTreesMap.put(
-							stateCode + "-" + String.valueOf(cityCode),
-							suggestorTree);
-				} catch (Exception e) {
-					log.info("Could not finish trainning of streets on" + city
-							+ "-" + state);
 				}
+				for (String context : snapshotContexts.keySet()) {
+					if (context.startsWith(prefix)) {
+						remove(context);
+					}
+				}
+			}
+			return;
+		}
+		String context = contextOf(absolute);
+		if (context == null || !owns(context)) {
+			return;
+		}
+		if (!absolute.isFile()) {
+			remove(context);
+			return;
+		}
+		synchronized (changes) {
+			if (lazy && !suggestionIndexMap.containsKey(context)) {
+				// not loaded, the new file is read on its next request
+				fileContexts.put(context, absolute);
+				snapshotContexts.remove(context);
+				pinned.remove(context);
+				folds.remove(context);
+				invalidate(context);
+				log.info("Names of " + context + " will be loaded from "
+						+ absolute);
+				return;
+			}
+		}
+		try {
+			RenderedIndex index = buildIndex(readNames(absolute));
+			synchronized (changes) {
+				suggestionIndexMap.put(context, index);
+				snapshotContexts.remove(context);
+				fileContexts.put(context, absolute);
+				pinned.remove(context);
+				folds.remove(context);
+				invalidate(context);
+				account(context);
+			}
+			log.info("Names of " + context + " reloaded from " + absolute);
+		} catch (Exception e) {
+			log.info("Could not reload names on " + absolute);
+		}
+	}
+
+	/**
+	 * Removes the index of a context.
+	 * 
+	 * @param context
+	 *            to remove.
+	 */
+	private void remove(String context) {
+		synchronized (changes) {
+			snapshotContexts.remove(context);
+			fileContexts.remove(context);
+			pinned.remove(context);
+			folds.remove(context);
+			suggestionIndexMap.remove(context);
+			invalidate(context);
+		}
+		log.info("Names of " + context + " removed");
+	}
+
+	/**
+	 * Adds a name to a context, after its existing names. The context is
+	 * created if it does not exist. Requests running concurrently see the
+	 * names before or after the change. Changes are discarded when the names
+	 * file of the context is reloaded.
+	 * 
+	 * @param name
+	 *            to add.
+	 * @param context
+	 *            site, state or city (as used on getSuggestion).
+	 */
+	public void addName(String name, String context) {
+		String key = name.toLowerCase();
+		synchronized (changes) {
+			RenderedIndex index = suggestionIndex(context);
+			if (index == null) {
+				index = buildIndex(Collections.singletonList(name));
+			} else {
+				index = index.withKey(key);
+			}
+			update(context, index, new Change(key, true));
+		}
+	}
+
+	/**
+	 * Removes a name from a context. Requests running concurrently see the
+	 * names before or after the change.
+	 * 
+	 * @param name
+	 *            to remove.
+	 * @param context
+	 *            site, state or city (as used on getSuggestion).
+	 */
+	public void removeName(String name, String context) {
+		String key = name.toLowerCase();
+		synchronized (changes) {
+			RenderedIndex index = suggestionIndex(context);
+			if (index != null) {
+				update(context, index.withoutKey(key), new Change(key, false));
+			}
+		}
+	}
+
+	/**
+	 * Publishes the new index of a context changed online. When the names
+	 * added and removed are too many it is folded in the background, and
+	 * requests keep merging them with its base meanwhile; the changes made
+	 * while it is folded are recorded to be applied to the folded one. It
+	 * must be called holding the lock of the changes.
+	 * 
+	 * @param context
+	 *            site, state or city.
+	 * @param index
+	 *            new index.
+	 * @param change
+	 *            made to the previous index.
+	 */
+	private void update(final String context, RenderedIndex index,
+			Change change) {
+		suggestionIndexMap.put(context, index);
+		pinned.add(context);
+		invalidate(context);
+		Fold fold = folds.get(context);
+		if (fold != null) {
+			fold.changes.add(change);
+		} else if (index.needsFolding()) {
+			final Fold started = new Fold(index);
+			folds.put(context, started);
+			folder.execute(new Runnable() {
+				public void run() {
+					fold(context, started);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Builds a new base with the names of an index without holding the lock
+	 * of the changes. Then, with the lock, applies the changes made meanwhile
+	 * to the new index and replaces the current one with it, unless the names
+	 * were reloaded. Requests get the same suggestions from both.
+	 * 
+	 * @param context
+	 *            site, state or city.
+	 * @param fold
+	 *            to run.
+	 */
+	private void fold(String context, Fold fold) {
+		long startTime = System.currentTimeMillis();
+		RenderedIndex folded;
+		try {
+			folded = buildIndex(fold.from.foldedKeys());
+		} catch (RuntimeException e) {
+			log.info("There was a problem folding the names of " + context
+					+ ": " + e);
+			synchronized (changes) {
+				if (folds.get(context) == fold) {
+					folds.remove(context);
+				}
+			}
+			return;
+		}
+		synchronized (changes) {
+			if (folds.get(context) != fold) {
+				// reloaded while it was folded
+				return;
+			}
+			folds.remove(context);
+			RenderedIndex current = suggestionIndexMap.get(context);
+			for (Change change : fold.changes) {
+				folded = change.apply(folded);
+			}
+			if (current != null
+					&& suggestionIndexMap.replace(context, current, folded)) {
+				invalidate(context);
+				log.info("Names of " + context + " folded in "
+						+ (System.currentTimeMillis() - startTime) + "ms, "
+						+ fold.changes.size() + " changes made meanwhile");
+			}
+		}
+	}
+
+	/**
+	 * Checks if the names of a context are served by this node.
+	 * 
+	 * @param context
+	 *            site, state or city, it can be null.
+	 * @return true if the deployment is not partitioned or this node owns the
+	 *         context.
+	 */
+	private boolean owns(String context) {
+		return router == null || context == null || router.owns(context);
+	}
+
+	/**
+	 * Adds the sizes of the loaded indexes and the statistics of the cache to
+	 * the metrics.
+	 * 
+	 * @param samples
+	 *            where they are added.
+	 */
+	@Override
+	public void collect(Metrics.Samples samples) {
+		for (Map.Entry<String, RenderedIndex> index : suggestionIndexMap
+				.entrySet()) {
+			samples.gauge("checker_index_names",
+					"Names of the loaded index of each context.", "context",
+					index.getKey(), index.getValue().keys().size());
+			samples.gauge("checker_index_bytes",
+					"Estimated heap used by the loaded index of each context.",
+					"context", index.getKey(), index.getValue().heapBytes());
+		}
+		Set<String> contexts = new HashSet<String>(snapshotContexts.keySet());
+		contexts.addAll(fileContexts.keySet());
+		contexts.addAll(suggestionIndexMap.keySet());
+		samples.gauge("checker_contexts", "Contexts of the suggestor.",
+				"state", "registered", contexts.size());
+		samples.gauge("checker_contexts", "Contexts of the suggestor.",
+				"state", "loaded", suggestionIndexMap.size());
+		if (cache != null) {
+			cache.collect("suggestions", samples);
+		}
+	}
+
+	/**
+	 * Gets the names of a context this node owns, to correct its inputs on
+	 * them. Names of contexts owned by other nodes are not fetched.
+	 * 
+	 * @param context
+	 *            site, state or city.
+	 * @return names in lower case, null if the context does not exist or it
+	 *         is owned by another node.
+	 */
+	@Override
+	public Collection<String> getNames(String context) {
+		if (!owns(context)) {
+			return null;
+		}
+		RenderedIndex index = suggestionIndex(context);
+		return index == null ? null : index.keys();
+	}
+
+	/**
+	 * Invalidates the cached suggestions of a context. It must be called after
+	 * its new index is published.
+	 * 
+	 * @param context
+	 *            site, state or city.
+	 */
+	private void invalidate(String context) {
+		if (cache != null) {
+			cache.invalidate(context);
+		}
+	}
+
+	/**
+	 * Gets the cache of the suggestions, to report its statistics.
+	 * 
+	 * @return cache, null if suggestions are not cached.
+	 */
+	public ResultCache<List<RenderedName>> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Reads the names of a file, one by line.
+	 * 
+	 * @param file
+	 *            containing the names.
+	 * @return names.
+	 * @throws IOException
+	 *             if the file can not be read.
+	 */
+	private List<String> readNames(File file) throws IOException {
+		List<String> names = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				names.add(line);
+			}
+		} finally {
+			br.close();
+		}
+		return names;
+	}
+
+	/**
+	 * Gets the keys of the names (the names in lower case).
+	 * 
+	 * @param names
+	 *            of a context.
+	 * @return keys.
+	 */
+	private List<String> keys(List<String> names) {
+		List<String> keys = new ArrayList<String>(names.size());
+		for (String name : names) {
+			keys.add(name.toLowerCase());
+		}
+		return keys;
+	}
+
+	/**
+	 * Builds the suggestion index of a context, rendering its names.
+	 * 
+	 * @param names
+	 *            of the context, the entry of each one is its line number.
+	 * @return suggestion index.
+	 */
+	private RenderedIndex buildIndex(List<String> names) {
+		List<String> keys = keys(names);
+		if (suffixArray) {
+			return new RenderedIndex(SuffixArrayIndex.build(keys), keys);
+		}
+		return new RenderedIndex(new SuffixTreeIndex(keys), keys);
+	}
+
+	/**
+	 * Gets the suggestion index of a context. Indexes of a snapshot, and of
+	 * the files when they are loaded on demand or were unloaded, are loaded
+	 * the first time they are used.
+	 * 
+	 * @param context
+	 *            site, state or city.
+	 * @return suggestion index, null if the context does not exist.
+	 */
+	private RenderedIndex suggestionIndex(String context) {
+		RenderedIndex index = suggestionIndexMap.get(context);
+		if (index != null) {
+			hits.incrementAndGet();
+		} else {
+			long start = System.nanoTime();
+			index = loadIndex(context);
+			if (index != null) {
+				loads.incrementAndGet();
+				loading.recordSince(start);
+			} else {
+				misses.incrementAndGet();
+			}
+		}
+		if (index != null) {
+			index.touch();
+		}
+		return index;
+	}
+
+	/**
+	 * Loads the index of a context from the snapshot or its names file. It is
+	 * built without the lock, so a context may be built twice by concurrent
+	 * requests; the first one published is used.
+	 * 
+	 * @param context
+	 *            site, state or city.
+	 * @return suggestion index, null if the context does not exist.
+	 */
+	private RenderedIndex loadIndex(String context) {
+		int[] position = snapshotContexts.get(context);
+		File file = position == null ? fileContexts.get(context) : null;
+		RenderedIndex index;
+		if (position != null) {
+			SuffixArrayIndex mapped = SuffixArrayIndex.read(Snapshot.slice(
+					snapshot, position[0], position[1]));
+			List<String> keys = mapped.keys();
+			index = new RenderedIndex(suffixArray ? mapped
+					: new SuffixTreeIndex(keys), keys);
+		} else if (file != null) {
+			try {
+				index = buildIndex(readNames(file));
+			} catch (IOException e) {
+				log.info("Could not load names of " + context + " from " + file);
+				return null;
+			}
+		} else {
+			return null;
+		}
+		synchronized (changes) {
+			RenderedIndex previous = suggestionIndexMap.get(context);
+			if (previous != null) {
+				return previous;
+			}
+			if (position != null ? snapshotContexts.get(context) != position
+					: fileContexts.get(context) != file) {
+				// reloaded or removed while it was built
+				return loadIndex(context);
+			}
+			suggestionIndexMap.put(context, index);
+			account(context);
+		}
+		return index;
+	}
+
+	/**
+	 * Unloads the least recently used indexes while the loaded ones use more
+	 * heap than the budget. Only indexes that can be loaded again (from the
+	 * snapshot or their file, not changed online) are unloaded. It must be
+	 * called holding the lock of the changes.
+	 * 
+	 * @param loaded
+	 *            context just loaded, it is never unloaded. It can be null.
+	 */
+	private void account(String loaded) {
+		if (budget <= 0) {
+			return;
+		}
+		long bytes = 0;
+		List<Loaded> cold = new ArrayList<Loaded>();
+		for (Map.Entry<String, RenderedIndex> entry : suggestionIndexMap
+				.entrySet()) {
+			String context = entry.getKey();
+			Loaded index = new Loaded(context, entry.getValue());
+			bytes += index.bytes;
+			if (!context.equals(loaded)
+					&& !pinned.contains(context)
+					&& (snapshotContexts.containsKey(context) || fileContexts
+							.containsKey(context))) {
+				cold.add(index);
+			}
+		}
+		if (bytes <= budget) {
+			return;
+		}
+		Collections.sort(cold);
+		int unloaded = 0;
+		for (Loaded index : cold) {
+			if (bytes <= budget) {
+				break;
+			}
+			if (suggestionIndexMap.remove(index.context, index.index)) {
+				bytes -= index.bytes;
+				unloaded++;
+			}
+		}
+		log.info("Suggestor unloaded " + unloaded + " contexts, "
+				+ (bytes >> 20) + "MB loaded");
+	}
+
+	/**
+	 * A loaded index, with its size and last use when it was accounted.
+	 */
+	private static final class Loaded implements Comparable<Loaded> {
+		/**
+		 * Context of the index.
+		 */
+		final String context;
+
+		/**
+		 * Index of the context.
+		 */
+		final RenderedIndex index;
+
+		/**
+		 * Estimated heap used by the index.
+		 */
+		final long bytes;
+
+		/**
+		 * Last time the index was used.
+		 */
+		final long lastUsed;
+
+		/**
+		 * Constructor of the class.
+		 * 
+		 * @param context
+		 *            of the index.
+		 * @param index
+		 *            of the context.
+		 */
+		Loaded(String context, RenderedIndex index) {
+			this.context = context;
+			this.index = index;
+			this.bytes = index.heapBytes();
+			this.lastUsed = index.getLastUsed();
+		}
+
+		public int compareTo(Loaded other) {
+			return lastUsed < other.lastUsed ? -1
+					: (lastUsed == other.lastUsed ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Name added to or removed from a context online.
+	 */
+	private static final class Change {
+		/**
+		 * Name in lower case.
+		 */
+		final String key;
+
+		/**
+		 * True if the name is added, false if it is removed.
+		 */
+		final boolean added;
+
+		Change(String key, boolean added) {
+			this.key = key;
+			this.added = added;
+		}
+
+		/**
+		 * Makes the change on an index.
+		 * 
+		 * @param index
+		 *            to change.
+		 * @return changed index.
+		 */
+		RenderedIndex apply(RenderedIndex index) {
+			return added ? index.withKey(key) : index.withoutKey(key);
+		}
+	}
+
+	/**
+	 * Index of a context being folded into a new base.
+	 */
+	private static final class Fold {
+		/**
+		 * Index being folded.
+		 */
+		final RenderedIndex from;
+
+		/**
+		 * Changes made to the context since the fold started, to apply to
+		 * the folded index. Guarded by changes.
+		 */
+		final List<Change> changes = new ArrayList<Change>();
+
+		Fold(RenderedIndex from) {
+			this.from = from;
+		}
+	}
+
+	/**
+	 * Loads the index of every context from a snapshot. Only the position of
+	 * each context on the mapped file is kept; suffix arrays are served from
+	 * the mapped file and suffix trees are built on the first request.
+	 * 
+	 * @param file
+	 *            of the snapshot.
+	 * @return true if the snapshot was loaded.
+	 */
+	private boolean load(File file) {
+		try {
+			ByteBuffer section = Snapshot.open(file).section(SECTION);
+			if (section == null) {
+				log.info("Snapshot without names: " + file);
+				return false;
+			}
+			int contexts = section.getInt();
+			for (int i = 0; i < contexts; i++) {
+				String context = Snapshot.readString(section);
+				int length = section.getInt();
+				if (owns(context)) {
+					snapshotContexts.put(context, new int[] {
+							section.position(), length });
+				}
+				section.position(section.position() + length);
 			}
+			snapshot = section;
+		} catch (Exception e) {
+			log.info("There was a problem loading snapshot " + file + ": " + e);
+			snapshotContexts.clear();
+			return false;
+		}
+		log.info("Suggestor loaded from snapshot: " + snapshotContexts.size()
+				+ " contexts");
+		return true;
+	}
+
+	/**
+	 * Writes the suffix array index of every context on a snapshot.
+	 * 
+	 * @param writer
+	 *            of the snapshot.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public void writeSnapshot(SnapshotWriter writer) throws IOException {
+		LinkedHashMap<String, File> corpora = corpora();
+		DataOutputStream out = writer.section(SECTION);
+		out.writeInt(corpora.size());
+		for (Map.Entry<String, File> corpus : corpora.entrySet()) {
+			SuffixArrayIndex index = SuffixArrayIndex
+					.build(keys(readNames(corpus.getValue())));
+			Snapshot.writeString(out, corpus.getKey());
+			out.writeInt(index.byteSize());
+			index.writeTo(out);
 		}
 	}
 
@@ -211,34 +987,373 @@ public class Suggestor {
 	 * @return list of suggestions.
 	 */
 	public List<Suggestion> getSuggestion(String key, String site, boolean hash) {
-		List<Suggestion> cities = new ArrayList<Suggestion>();
+		return getSuggestion(key, site, hash, 0);
+	}
+
+	/**
+	 * Gets the suggestions of a batch of keys, each one on its own context.
+	 * Keys are processed in parallel on the shared batch pool.
+	 * 
+	 * @param keys
+	 *            to get suggestions.
+	 * @param sites
+	 *            where each key is contained (site, state, city).
+	 * @param hash
+	 *            , if the hashcode is needed.
+	 * @param limit
+	 *            maximum number of suggestions of each key, 0 or lower for
+	 *            all of them (not ranked).
+	 * @return list of suggestions of each key, in the same order.
+	 */
+	public List<List<Suggestion>> getSuggestions(final List<String> keys,
+			final List<String> sites, final boolean hash, final int limit) {
+		return BatchExecutor.getInstance().map(keys.size(),
+				new BatchExecutor.Item<List<Suggestion>>() {
+					public List<Suggestion> process(int index) {
+						return getSuggestion(keys.get(index), sites.get(index),
+								hash, limit);
+					}
+				});
+	}
+
+	/**
+	 * Gets a list with the best suggestions for this key: names starting with
+	 * the key first, then by entry.
+	 * 
+	 * @param key
+	 *            to get suggestions.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param hash
+	 *            , if the hashcode is needed.
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them
+	 *            (not ranked).
+	 * @return list of suggestions.
+	 */
+	public List<Suggestion> getSuggestion(String key, String site,
+			boolean hash, int limit) {
+		List<RenderedName> names = getRenderedSuggestion(key, site, limit);
+		List<Suggestion> suggestions = new ArrayList<Suggestion>(names.size());
+		for (RenderedName name : names) {
+			suggestions.add(name.toSuggestion(hash));
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Gets the best names for this key as getSuggestion, already rendered:
+	 * their JSON can be written as it is (see RenderedName.writeJson).
+	 * Suggestions are cached; the ones of contexts owned by other nodes are
+	 * asked to their owner.
+	 * 
+	 * @param key
+	 *            to get suggestions.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them
+	 *            (not ranked).
+	 * @return rendered names, it can not be modified.
+	 */
+	public List<RenderedName> getRenderedSuggestion(String key, String site,
+			int limit) {
+		if (!owns(site)) {
+			return remoteSuggestion(key, site, limit);
+		}
+		return localSuggestion(key, site, limit);
+	}
+
+	/**
+	 * Gets the names of the best suggestions for this key on a context of this
+	 * node, to answer another node of a partitioned deployment.
+	 * 
+	 * @param key
+	 *            to get suggestions.
+	 * @param context
+	 *            where it is contained (site, state, city)
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them
+	 *            (not ranked).
+	 * @return display names.
+	 */
+	public List<String> getLocalNames(String key, String context, int limit) {
+		List<RenderedName> names = localSuggestion(key, context, limit);
+		List<String> local = new ArrayList<String>(names.size());
+		for (RenderedName name : names) {
+			local.add(name.getName());
+		}
+		return local;
+	}
+
+	/**
+	 * Gets the best names for this key from the owner of its context. They are
+	 * not cached, as this node does not know when they change.
+	 * 
+	 * @param key
+	 *            to get suggestions.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them
+	 *            (not ranked).
+	 * @return rendered names, it can not be modified.
+	 */
+	private List<RenderedName> remoteSuggestion(String key, String site,
+			int limit) {
+		if (key == null) {
+			return Collections.emptyList();
+		}
+		List<String> remote = router.names(key, site, limit);
+		List<RenderedName> names = new ArrayList<RenderedName>(remote.size());
+		for (String name : remote) {
+			names.add(RenderedName.ofName(name));
+		}
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * Gets the best names for this key from the index of this node, cached.
+	 * 
+	 * @param key
+	 *            to get suggestions.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them
+	 *            (not ranked).
+	 * @return rendered names, it can not be modified.
+	 */
+	private List<RenderedName> localSuggestion(String key, String site,
+			int limit) {
+		List<RenderedName> names;
+		if (cache == null || key == null || site == null) {
+			names = suggest(key, site, limit);
+		} else {
+			String cacheKey = cache.key(site, key.toLowerCase() + "|"
+					+ Math.max(limit, 0));
+			names = cache.get(cacheKey);
+			if (names == null) {
+				names = suggest(key, site, limit);
+				cache.put(cacheKey, names);
+			}
+		}
+		record(key, site, names);
+		return names;
+	}
+
+	/**
+	 * Counts a served query on the popularity of the name it asked for, if
+	 * one of the suggestions is the whole key.
+	 * 
+	 * @param key
+	 *            asked.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param names
+	 *            suggested.
+	 */
+	private void record(String key, String site, List<RenderedName> names) {
+		if (popularity == null || key == null || site == null) {
+			return;
+		}
+		for (RenderedName name : names) {
+			if (name.getName().equalsIgnoreCase(key)) {
+				popularity.record(site, name.getName());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes the JSON array of the suggestions for this key, the same
+	 * getSuggestion returns. When they are not limited names are written as
+	 * the index finds them, without keeping them, so the memory does not
+	 * depend on the number of suggestions; only short results are cached.
+	 * Nothing is written if there are no suggestions. The query is counted on
+	 * the popularity of the name it asked for.
+	 * 
+	 * @param key
+	 *            to get suggestions.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param hash
+	 *            , if the hashcode is needed.
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them
+	 *            (not ranked).
+	 * @param out
+	 *            where the JSON is written.
+	 * @return number of suggestions written.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	public int writeSuggestion(String key, String site, boolean hash,
+			int limit, OutputStream out) throws IOException {
+		if (!owns(site)) {
+			return write(remoteSuggestion(key, site, limit), hash, out);
+		}
+		String cacheKey = null;
+		if (cache != null && key != null && site != null) {
+			cacheKey = cache.key(site, key.toLowerCase() + "|"
+					+ Math.max(limit, 0));
+			List<RenderedName> names = cache.get(cacheKey);
+			if (names != null) {
+				record(key, site, names);
+				return write(names, hash, out);
+			}
+		}
+		if (limit > 0) {
+			List<RenderedName> names = suggest(key, site, limit);
+			if (cacheKey != null) {
+				cache.put(cacheKey, names);
+			}
+			record(key, site, names);
+			return write(names, hash, out);
+		}
+		RenderedIndex index = site == null ? null : suggestionIndex(site);
+		if (key == null || index == null) {
+			log.info("Collection data was not found. " + site);
+			return 0;
+		}
+		FlightEvent event = FlightEvent.begin(FlightEvent.SUGGESTION);
+		String lower = key.toLowerCase();
+		Iterator<? extends CharSequence> keys = index.getKeysContaining(lower)
+				.iterator();
+		List<RenderedName> names = cacheKey != null ? new ArrayList<RenderedName>()
+				: null;
+		int written = 0;
+		while (keys.hasNext()) {
+			CharSequence next = keys.next();
+			RenderedName name = index.name(next);
+			if (popularity != null && lower.contentEquals(next)) {
+				popularity.record(site, name.getName());
+			}
+			out.write(written == 0 ? '[' : ',');
+			name.writeTo(out, hash);
+			written++;
+			if (names != null && names.size() < CACHED_STREAM) {
+				names.add(name);
+			} else {
+				names = null;
+			}
+		}
+		boolean near = written == 0;
+		if (!near) {
+			out.write(']');
+		} else {
+			List<RenderedName> nearest = near(index, lower, site, limit);
+			written = write(nearest, hash, out);
+			if (names != null) {
+				names = nearest;
+			}
+		}
+		if (event != null) {
+			event.commit(site, key.length(), limit, near, written);
+		}
+		if (names != null) {
+			cache.put(cacheKey, Collections.unmodifiableList(names));
+		}
+		return written;
+	}
+
+	/**
+	 * Writes the JSON array of some names if there is any.
+	 * 
+	 * @param names
+	 *            to write.
+	 * @param hash
+	 *            , if the hashcode is needed.
+	 * @param out
+	 *            where the JSON is written.
+	 * @return number of names written.
+	 * @throws IOException
+	 *             if it can not be written.
+	 */
+	private int write(List<RenderedName> names, boolean hash, OutputStream out)
+			throws IOException {
+		if (!names.isEmpty()) {
+			RenderedName.writeJson(names, hash, out);
+		}
+		return names.size();
+	}
+
+	/**
+	 * Gets the best names for this key from the index of its context. If no
+	 * name contains the key the names starting with something near it are
+	 * suggested.
+	 * 
+	 * @param key
+	 *            to get suggestions.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them
+	 *            (not ranked).
+	 * @return rendered names, it can not be modified.
+	 */
+	private List<RenderedName> suggest(String key, String site, int limit) {
+		List<RenderedName> names = new ArrayList<RenderedName>();
+		FlightEvent event = FlightEvent.begin(FlightEvent.SUGGESTION);
 		try {
-			List<CharSequence> suggestions = Iterables
-					.toList(suggestionTreesMap.get(site).getKeysContaining(
-							key.toLowerCase()));
-			if (hash) {
-				for (CharSequence suggestion : suggestions) {
-					Suggestion city = new Suggestion();
-					city.setName(utils
-							.firstLetterUpperCaseOfEachWord(suggestion
-									.toString()));
-					int code = city.getName().hashCode();
-					code = (code < 0 ? -code : code);
-					city.setHashCode(String.valueOf(code));
-					cities.add(city);
-				}
+			RenderedIndex index = suggestionIndex(site);
+			List<? extends CharSequence> suggestions;
+			if (limit > 0) {
+				suggestions = index.getTopKeysContaining(key.toLowerCase(),
+						limit, popularity == null ? null : popularity
+								.scope(site));
 			} else {
-				for (CharSequence suggestion : suggestions) {
-					Suggestion city = new Suggestion();
-					city.setName(utils
-							.firstLetterUpperCaseOfEachWord(suggestion
-									.toString()));
-					cities.add(city);
+				suggestions = Iterables.toList(index.getKeysContaining(key
+						.toLowerCase()));
+			}
+			for (CharSequence suggestion : suggestions) {
+				names.add(index.name(suggestion));
+			}
+			if (names.isEmpty()) {
+				List<RenderedName> near = near(index, key.toLowerCase(), site,
+						limit);
+				if (event != null) {
+					event.commit(site, key.length(), limit, true, near.size());
 				}
+				return near;
+			}
+			if (event != null) {
+				event.commit(site, key.length(), limit, false, names.size());
 			}
 		} catch (NullPointerException e) {
 			log.info("Collection data was not found. " + site);
 		}
-		return cities;
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * Gets the names starting with something near a key, for keys no name
+	 * contains: a key being typed with a typo is completed in a single walk
+	 * of the names, without correcting it first. Keys are allowed an edit
+	 * every CHARS_BY_EDIT chars, up to the configured maximum.
+	 * 
+	 * @param index
+	 *            of the context.
+	 * @param key
+	 *            in lower case.
+	 * @param site
+	 *            where it is contained (site, state, city)
+	 * @param limit
+	 *            maximum number of suggestions, 0 or lower for all of them.
+	 * @return rendered names, the nearest first; it can not be modified.
+	 */
+	private List<RenderedName> near(RenderedIndex index, String key,
+			String site, int limit) {
+		int distance = Math.min(fuzzy, key.length() / CHARS_BY_EDIT);
+		if (distance <= 0) {
+			return Collections.emptyList();
+		}
+		List<RenderedName> names = new ArrayList<RenderedName>();
+		for (String suggestion : index.getTopKeysStartingNear(key, distance,
+				limit > 0 ? limit : Integer.MAX_VALUE,
+				popularity == null ? null : popularity.scope(site))) {
+			names.add(index.name(suggestion));
+		}
+		return Collections.unmodifiableList(names);
 	}
 }
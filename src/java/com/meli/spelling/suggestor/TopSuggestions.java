@@ -0,0 +1,148 @@
+package com.meli.spelling.suggestor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the best suggestions offered, up to a limit. Names starting with the
+ * key are better than names only containing it, and names nearer to the key
+ * better than the farther ones; between them, the most popular name is
+ * better, and then the name with the lowest entry. The worst kept suggestion is on the top of a
+ * bounded heap, so a suggestion that can not enter the ranking costs a single
+ * comparison and no allocation.
+ * 
+ * @author Fabian Bertetto
+ *
+ * @param <T>
+ *            item that identifies a suggestion on the index.
+ */
+final class TopSuggestions<T> {
+	/**
+	 * Orders candidates from the worst to the best.
+	 */
+	private static final Comparator<Candidate<?>> WORST_FIRST = new Comparator<Candidate<?>>() {
+		public int compare(Candidate<?> a, Candidate<?> b) {
+			if (a.distance != b.distance)
+				return a.distance < b.distance ? 1 : -1;
+			if (a.popularity != b.popularity)
+				return a.popularity < b.popularity ? -1 : 1;
+			return a.entry > b.entry ? -1 : (a.entry == b.entry ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Maximum number of suggestions.
+	 */
+	private final int limit;
+
+	/**
+	 * Suggestions kept, the worst on the top.
+	 */
+	private final PriorityQueue<Candidate<T>> heap;
+
+	/**
+	 * Constructor of the class.
+	 * 
+	 * @param limit
+	 *            maximum number of suggestions (greater than 0).
+	 */
+	TopSuggestions(int limit) {
+		this.limit = limit;
+		this.heap = new PriorityQueue<Candidate<T>>(Math.min(limit, 64),
+				WORST_FIRST);
+	}
+
+	/**
+	 * Offers a suggestion.
+	 * 
+	 * @param item
+	 *            of the suggestion.
+	 * @param prefix
+	 *            true if the name starts with the key.
+	 * @param popularity
+	 *            of the name on its context.
+	 * @param entry
+	 *            of the name on its context.
+	 */
+	void offer(T item, boolean prefix, int popularity, int entry) {
+		offer(item, prefix ? 0 : 1, popularity, entry);
+	}
+
+	/**
+	 * Offers a suggestion near the key.
+	 * 
+	 * @param item
+	 *            of the suggestion.
+	 * @param distance
+	 *            between the key and the name, the lower the better.
+	 * @param popularity
+	 *            of the name on its context.
+	 * @param entry
+	 *            of the name on its context.
+	 */
+	void offer(T item, int distance, int popularity, int entry) {
+		if (heap.size() == limit) {
+			Candidate<T> worst = heap.peek();
+			if (worst.distance != distance ? worst.distance < distance
+					: (worst.popularity != popularity ? worst.popularity > popularity
+							: worst.entry <= entry))
+				return;
+			heap.poll();
+		}
+		heap.add(new Candidate<T>(item, distance, popularity, entry));
+	}
+
+	/**
+	 * Gets the suggestions kept, the best first.
+	 * 
+	 * @return items of the suggestions.
+	 */
+	List<T> best() {
+		List<Candidate<T>> candidates = new ArrayList<Candidate<T>>(heap);
+		Collections.sort(candidates, Collections.reverseOrder(WORST_FIRST));
+		List<T> items = new ArrayList<T>(candidates.size());
+		for (Candidate<T> candidate : candidates) {
+			items.add(candidate.item);
+		}
+		return items;
+	}
+
+	/**
+	 * Checks if a name starts with a key.
+	 * 
+	 * @param name
+	 *            .
+	 * @param key
+	 *            .
+	 * @return true if name starts with key.
+	 */
+	static boolean startsWith(CharSequence name, CharSequence key) {
+		if (name.length() < key.length())
+			return false;
+		for (int i = 0; i < key.length(); i++) {
+			if (name.charAt(i) != key.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Suggestion kept on the ranking.
+	 */
+	private static final class Candidate<T> {
+		private final T item;
+		private final int distance;
+		private final int popularity;
+		private final int entry;
+
+		Candidate(T item, int distance, int popularity, int entry) {
+			this.item = item;
+			this.distance = distance;
+			this.popularity = popularity;
+			this.entry = entry;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.meli.spelling.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.meli.spelling.config.CheckerConfig;
+
+/**
+ * This class processes the items of a batch on a fork-join pool shared by all
+ * the batch requests. Items are split in chunks processed by the workers of
+ * the pool, and every result is stored at the position of its item, so the
+ * results keep the order of the batch. Workers keep their scratch state
+ * (lookup buffers) between items, as it is bound to the thread.
+ * 
+ * @author Fabian Bertetto
+ *
+ */
+public final class BatchExecutor {
+	/**
+	 * Number of items processed by each task.
+	 */
+	private static final int CHUNK = 16;
+
+	/**
+	 * Unique instance of the class.
+	 */
+	private static final BatchExecutor INSTANCE = new BatchExecutor(
+			CheckerConfig.getBatchParallelism());
+
+	/**
+	 * Pool where batches are processed.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor of the class.
+	 * 
+	 * @param parallelism
+	 *            number of threads.
+	 */
+	private BatchExecutor(int parallelism) {
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Gets the shared instance of the class.
+	 * 
+	 * @return BatchExecutor.
+	 */
+	public static BatchExecutor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Processes every item of a batch in parallel.
+	 * 
+	 * @param size
+	 *            number of items.
+	 * @param item
+	 *            processor of an item.
+	 * @return result of each item, in the same order.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> map(int size, Item<T> item) {
+		Object[] results = new Object[size];
+		if (size > 0) {
+			pool.invoke(new ChunkTask(item, results, 0, size));
+		}
+		return (List<T>) Arrays.asList(results);
+	}
+
+	/**
+	 * Processor of the items of a batch.
+	 * 
+	 * @param <T>
+	 *            type of the results.
+	 */
+	public interface Item<T> {
+		/**
+		 * Processes an item.
+		 * 
+		 * @param index
+		 *            position of the item on the batch.
+		 * @return result of the item.
+		 */
+		T process(int index);
+	}
+
+	/**
+	 * Task that processes a range of items, splitting it while it has more
+	 * than one chunk.
+	 */
+	private static final class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Processor of the items.
+		 */
+		private final Item<?> item;
+
+		/**
+		 * Results of the batch.
+		 */
+		private final Object[] results;
+
+		/**
+		 * First item of the task.
+		 */
+		private final int from;
+
+		/**
+		 * Last item (exclusive) of the task.
+		 */
+		private final int to;
+
+		/**
+		 * Constructor of the class.
+		 * 
+		 * @param item
+		 *            processor of the items.
+		 * @param results
+		 *            of the batch.
+		 * @param from
+		 *            first item of the task.
+		 * @param to
+		 *            last item (exclusive) of the task.
+		 */
+		ChunkTask(Item<?> item, Object[] results, int from, int to) {
+			this.item = item;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkTask(item, results, from, middle),
+						new ChunkTask(item, results, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				results[i] = item.process(i);
+			}
+		}
+	}
+}
@@ -0,0 +1,387 @@
+package com.meli.spelling.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * This class keeps in memory everything an asynchronous action renders
+ * (status, headers and body), so the response of the request is only written
+ * by the thread that completes it. The buffer is copied to the response when
+ * the action completes on time and discarded otherwise.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class BufferedResponse extends HttpServletResponseWrapper {
+	/**
+	 * Body rendered.
+	 */
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	/**
+	 * Headers by name, each value is a String, an Integer or a date (Long).
+	 */
+	private final Map<String, List<Object>> headers = new TreeMap<String, List<Object>>(
+			String.CASE_INSENSITIVE_ORDER);
+
+	/**
+	 * Cookies added.
+	 */
+	private final List<Cookie> cookies = new ArrayList<Cookie>();
+
+	/**
+	 * Stream over the body, created on the first call to getOutputStream.
+	 */
+	private ServletOutputStream stream;
+
+	/**
+	 * Writer over the body, created on the first call to getWriter.
+	 */
+	private PrintWriter writer;
+
+	/**
+	 * Status of the response.
+	 */
+	private int status = SC_OK;
+
+	/**
+	 * Content type of the response, null if it is not set.
+	 */
+	private String contentType;
+
+	/**
+	 * Encoding of the body, null if it is not set.
+	 */
+	private String characterEncoding;
+
+	/**
+	 * Locale of the response, null if it is not set.
+	 */
+	private Locale locale;
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param response
+	 *            of the request, it is not written until copyTo.
+	 */
+	public BufferedResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 * Writes everything rendered to a response.
+	 *
+	 * @param response
+	 *            of the request.
+	 * @throws IOException
+	 *             if the body can not be written.
+	 */
+	public void copyTo(HttpServletResponse response) throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+		response.setStatus(status);
+		for (Map.Entry<String, List<Object>> header : headers.entrySet()) {
+			boolean first = true;
+			for (Object value : header.getValue()) {
+				if (value instanceof Long) {
+					if (first) {
+						response.setDateHeader(header.getKey(), (Long) value);
+					} else {
+						response.addDateHeader(header.getKey(), (Long) value);
+					}
+				} else if (value instanceof Integer) {
+					if (first) {
+						response.setIntHeader(header.getKey(), (Integer) value);
+					} else {
+						response.addIntHeader(header.getKey(), (Integer) value);
+					}
+				} else if (first) {
+					response.setHeader(header.getKey(), (String) value);
+				} else {
+					response.addHeader(header.getKey(), (String) value);
+				}
+				first = false;
+			}
+		}
+		for (Cookie cookie : cookies) {
+			response.addCookie(cookie);
+		}
+		if (locale != null) {
+			response.setLocale(locale);
+		}
+		if (contentType != null) {
+			response.setContentType(contentType);
+		}
+		if (characterEncoding != null) {
+			response.setCharacterEncoding(characterEncoding);
+		}
+		response.setContentLength(body.size());
+		body.writeTo(response.getOutputStream());
+		response.flushBuffer();
+	}
+
+	/**
+	 * Gets the body rendered.
+	 *
+	 * @return bytes of the body.
+	 */
+	public byte[] toByteArray() {
+		if (writer != null) {
+			writer.flush();
+		}
+		return body.toByteArray();
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		if (writer != null) {
+			throw new IllegalStateException("getWriter was already called");
+		}
+		if (stream == null) {
+			stream = new ServletOutputStream() {
+				@Override
+				public void write(int b) {
+					body.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					body.write(b, off, len);
+				}
+			};
+		}
+		return stream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (stream != null) {
+			throw new IllegalStateException("getOutputStream was already called");
+		}
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(body,
+					getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override
+	public void flushBuffer() {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return false;
+	}
+
+	@Override
+	public void reset() {
+		resetBuffer();
+		headers.clear();
+		cookies.clear();
+		status = SC_OK;
+		contentType = null;
+		characterEncoding = null;
+		locale = null;
+	}
+
+	@Override
+	public void resetBuffer() {
+		if (writer != null) {
+			writer.flush();
+		}
+		body.reset();
+	}
+
+	@Override
+	public int getBufferSize() {
+		return body.size();
+	}
+
+	@Override
+	public void setBufferSize(int size) {
+		// everything is buffered
+	}
+
+	@Override
+	public void setContentLength(int length) {
+		// the length of the buffer is sent
+	}
+
+	@Override
+	public void setContentType(String type) {
+		contentType = type;
+		int charset = type == null ? -1 : type.toLowerCase(Locale.ENGLISH)
+				.indexOf("charset=");
+		if (charset >= 0) {
+			characterEncoding = type.substring(charset + 8).trim();
+		}
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public void setCharacterEncoding(String encoding) {
+		characterEncoding = encoding;
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return characterEncoding != null ? characterEncoding : "ISO-8859-1";
+	}
+
+	@Override
+	public void setLocale(Locale locale) {
+		this.locale = locale;
+	}
+
+	@Override
+	public Locale getLocale() {
+		return locale != null ? locale : Locale.getDefault();
+	}
+
+	@Override
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public void setStatus(int status, String message) {
+		this.status = status;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public void sendError(int status) {
+		sendError(status, null);
+	}
+
+	@Override
+	public void sendError(int status, String message) {
+		resetBuffer();
+		this.status = status;
+		if (message != null) {
+			setContentType("text/plain;charset=UTF-8");
+			try {
+				body.write(message.getBytes("UTF-8"));
+			} catch (IOException e) {
+				// UTF-8 is always supported
+			}
+		}
+	}
+
+	@Override
+	public void sendRedirect(String location) {
+		resetBuffer();
+		status = SC_FOUND;
+		setHeader("Location", location);
+	}
+
+	@Override
+	public void addCookie(Cookie cookie) {
+		cookies.add(cookie);
+	}
+
+	@Override
+	public boolean containsHeader(String name) {
+		return headers.containsKey(name);
+	}
+
+	@Override
+	public String getHeader(String name) {
+		List<Object> values = headers.get(name);
+		return values == null ? null : String.valueOf(values.get(0));
+	}
+
+	@Override
+	public Collection<String> getHeaders(String name) {
+		List<String> values = new ArrayList<String>();
+		List<Object> set = headers.get(name);
+		if (set != null) {
+			for (Object value : set) {
+				values.add(String.valueOf(value));
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public Collection<String> getHeaderNames() {
+		return new ArrayList<String>(headers.keySet());
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		header(name, value, false);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		header(name, value, true);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		header(name, value, false);
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		header(name, value, true);
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		header(name, date, false);
+	}
+
+	@Override
+	public void addDateHeader(String name, long date) {
+		header(name, date, true);
+	}
+
+	/**
+	 * Sets or adds a header.
+	 *
+	 * @param name
+	 *            of the header.
+	 * @param value
+	 *            String, Integer or date (Long).
+	 * @param add
+	 *            false to replace its previous values.
+	 */
+	private void header(String name, Object value, boolean add) {
+		List<Object> values = headers.get(name);
+		if (values == null || !add) {
+			values = new ArrayList<Object>(1);
+			headers.put(name, values);
+		}
+		values.add(value);
+	}
+}
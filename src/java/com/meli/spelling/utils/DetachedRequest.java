@@ -0,0 +1,109 @@
+package com.meli.spelling.utils;
+
+import java.io.BufferedReader;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * This class gives an asynchronous action a copy of the parameters and
+ * attributes of its request, taken before the action is queued, so the action
+ * does not touch the request if it completes after the timeout. The body must
+ * be read before the action is queued.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class DetachedRequest extends HttpServletRequestWrapper {
+	/**
+	 * Parameters of the request.
+	 */
+	private final Map<String, String[]> parameters;
+
+	/**
+	 * Attributes of the request, set and removed on the copy.
+	 */
+	private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+	/**
+	 * Constructor of the class, it must be called before the request is
+	 * completed.
+	 *
+	 * @param request
+	 *            to copy.
+	 */
+	public DetachedRequest(HttpServletRequest request) {
+		super(request);
+		this.parameters = Collections
+				.unmodifiableMap(new LinkedHashMap<String, String[]>(request
+						.getParameterMap()));
+		Enumeration<String> names = request.getAttributeNames();
+		while (names.hasMoreElements()) {
+			String name = names.nextElement();
+			attributes.put(name, request.getAttribute(name));
+		}
+	}
+
+	@Override
+	public String getParameter(String name) {
+		String[] values = parameters.get(name);
+		return values == null || values.length == 0 ? null : values[0];
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return parameters;
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(parameters.keySet());
+	}
+
+	@Override
+	public String[] getParameterValues(String name) {
+		return parameters.get(name);
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+		if (value == null) {
+			attributes.remove(name);
+		} else {
+			attributes.put(name, value);
+		}
+	}
+
+	@Override
+	public void removeAttribute(String name) {
+		attributes.remove(name);
+	}
+
+	@Override
+	public ServletInputStream getInputStream() {
+		throw new IllegalStateException(
+				"The body is read before the action is queued");
+	}
+
+	@Override
+	public BufferedReader getReader() {
+		throw new IllegalStateException(
+				"The body is read before the action is queued");
+	}
+}
@@ -0,0 +1,299 @@
+package com.meli.spelling.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.meli.spelling.config.CheckerConfig;
+import com.meli.spelling.metrics.Metrics;
+
+/**
+ * This class runs the asynchronous actions of the checker on a bounded pool,
+ * so the threads of the container only accept connections and a burst of slow
+ * corrections does not take all of them. Actions wait on a bounded queue for
+ * a thread; when it is full they are rejected instead of piling up. The
+ * threads live as long as the application, so they keep their scratch state
+ * (lookup buffers) between requests. Actions render into a buffer that is sent
+ * only if they complete before the timeout, so the request and its response
+ * are never touched once the request is completed.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+public final class RequestExecutor implements Metrics.Collector {
+	/**
+	 * Unique instance of the class, null if actions are synchronous.
+	 */
+	private static final RequestExecutor INSTANCE = CheckerConfig
+			.isAsyncEnabled() ? new RequestExecutor(
+			CheckerConfig.getAsyncThreads(), CheckerConfig.getAsyncQueue(),
+			CheckerConfig.getAsyncTimeout()) : null;
+
+	/**
+	 * Pool where actions run.
+	 */
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * Time an action has to complete, in milliseconds.
+	 */
+	private final long timeout;
+
+	/**
+	 * Actions rejected because the queue was full.
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Actions that did not complete on time.
+	 */
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Logger utility
+	 */
+	private static final Logger log = Logger.getLogger("Logger");
+
+	/**
+	 * Constructor of the class.
+	 *
+	 * @param threads
+	 *            number of threads.
+	 * @param queue
+	 *            number of actions that can wait for a thread.
+	 * @param timeout
+	 *            time an action has to complete, in milliseconds.
+	 */
+	RequestExecutor(int threads, int queue, long timeout) {
+		this.pool = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(
+						queue, 1)), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "checker-request-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Gets the shared instance of the class.
+	 *
+	 * @return RequestExecutor, null if actions are synchronous.
+	 */
+	public static RequestExecutor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the time an action has to complete, queued time included.
+	 *
+	 * @return timeout in milliseconds.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Queues an action.
+	 *
+	 * @param action
+	 *            to run.
+	 * @return future of the action, null if it was rejected because the queue
+	 *         is full.
+	 */
+	public Future<?> submit(Runnable action) {
+		try {
+			return pool.submit(action);
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the action of an asynchronous request on the pool. The action gets
+	 * a copy of the request and renders into a buffer; whoever completes the
+	 * request first, the action or the timeout, is the only one that writes
+	 * its response. When the timeout (or a full queue) wins, the request is
+	 * answered with 503, the action is cancelled and its buffer discarded.
+	 * The latency of the action is recorded when it completes.
+	 *
+	 * @param context
+	 *            of the request, started by the thread of the container.
+	 * @param name
+	 *            of the action.
+	 * @param start
+	 *            of the request, in nanoseconds.
+	 * @param action
+	 *            to run.
+	 */
+	public void dispatch(final AsyncContext context, final String name,
+			final long start, final Action action) {
+		final HttpServletRequest request = new DetachedRequest(
+				(HttpServletRequest) context.getRequest());
+		final BufferedResponse response = new BufferedResponse(
+				(HttpServletResponse) context.getResponse());
+		// set by the first to complete the request, held while the buffer
+		// is sent
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Future<?>> running = new AtomicReference<Future<?>>();
+		context.setTimeout(timeout);
+		context.addListener(new AsyncListener() {
+			public void onTimeout(AsyncEvent event) {
+				if (done.compareAndSet(false, true)) {
+					timeouts.incrementAndGet();
+					Future<?> future = running.get();
+					if (future != null) {
+						future.cancel(true);
+					}
+					unavailable(context, name, start);
+				} else {
+					synchronized (done) {
+						// wait until the buffer is sent and the request
+						// completed, so the container does not complete it
+					}
+				}
+			}
+
+			public void onComplete(AsyncEvent event) {
+			}
+
+			public void onError(AsyncEvent event) {
+			}
+
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		Future<?> future = submit(new Runnable() {
+			public void run() {
+				if (done.get()) {
+					// timed out while it was queued
+					return;
+				}
+				boolean failed = false;
+				try {
+					action.run(request, response);
+				} catch (Exception e) {
+					failed = true;
+					if (!done.get()) {
+						log.info("Asynchronous " + name + " failed: " + e);
+					}
+					response.reset();
+					response.setStatus(500);
+				}
+				synchronized (done) {
+					if (!done.compareAndSet(false, true)) {
+						// timed out, the request is already answered
+						return;
+					}
+					try {
+						response.copyTo((HttpServletResponse) context
+								.getResponse());
+					} catch (IOException e) {
+						failed = true;
+						log.info("Response of " + name + " not sent: " + e);
+					} finally {
+						Metrics.getInstance().request(name).recordSince(start);
+						if (failed) {
+							Metrics.getInstance().error(name).incrementAndGet();
+						}
+						context.complete();
+					}
+				}
+			}
+		});
+		running.set(future);
+		if (future == null && done.compareAndSet(false, true)) {
+			unavailable(context, name, start);
+		}
+	}
+
+	/**
+	 * Answers an asynchronous request with 503 and completes it.
+	 *
+	 * @param context
+	 *            of the request.
+	 * @param name
+	 *            of the action.
+	 * @param start
+	 *            of the request, in nanoseconds.
+	 */
+	private static void unavailable(AsyncContext context, String name,
+			long start) {
+		HttpServletResponse response = (HttpServletResponse) context
+				.getResponse();
+		if (!response.isCommitted()) {
+			response.setStatus(503);
+		}
+		Metrics.getInstance().request(name).recordSince(start);
+		Metrics.getInstance().error(name).incrementAndGet();
+		context.complete();
+	}
+
+	/**
+	 * Stops the threads once the queued actions are done.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Adds the state of the pool to the metrics.
+	 *
+	 * @param samples
+	 *            where they are added.
+	 */
+	@Override
+	public void collect(Metrics.Samples samples) {
+		samples.gauge("checker_async_threads_busy",
+				"Threads running asynchronous actions.", null, null,
+				pool.getActiveCount());
+		samples.gauge("checker_async_queued",
+				"Asynchronous actions waiting for a thread.", null, null, pool
+						.getQueue().size());
+		samples.counter("checker_async_rejected_total",
+				"Asynchronous actions rejected because the queue was full.",
+				null, null, rejected.get());
+		samples.counter("checker_async_timeouts_total",
+				"Asynchronous actions that did not complete on time.", null,
+				null, timeouts.get());
+	}
+
+	/**
+	 * Action of an asynchronous request.
+	 */
+	public interface Action {
+		/**
+		 * Runs the action.
+		 *
+		 * @param request
+		 *            copy of the request, without its body.
+		 * @param response
+		 *            buffer where the action renders.
+		 * @throws Exception
+		 *             if the action fails, it is answered with 500.
+		 */
+		void run(HttpServletRequest request, HttpServletResponse response)
+				throws Exception;
+	}
+}
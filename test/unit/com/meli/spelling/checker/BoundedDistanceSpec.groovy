@@ -0,0 +1,105 @@
+package com.meli.spelling.checker
+
+import spock.lang.Shared
+import spock.lang.Specification
+
+/**
+ * Tests the BoundedDistance against the DamerauLevenshteinDistance of the corrector: both must agree on every
+ * distance that is not greater than the bound, and anything greater must be reported as bound + 1.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+class BoundedDistanceSpec extends Specification {
+	static final String ALPHABET = "abcdeñá "
+
+	@Shared
+	SpellingCorrector corrector
+
+	BoundedDistance bounded = new BoundedDistance()
+
+	def setupSpec() {
+		// the corrector only needs a dictionary to be created
+		File dir = File.createTempDir()
+		new File(dir, "MLA").write("Buenos Aires\n", "UTF-8")
+		System.setProperty("com.meli.checker.spellingCorrector.names.cities", dir.absolutePath)
+		corrector = SpellingCorrector.getInstance()
+	}
+
+	def "known pairs are at their distance, or at the bound + 1 when it is greater"() {
+		expect:
+		corrector.DamerauLevenshteinDistance(a, b) == distance
+		bounded.distance(a, b, 3) == result
+
+		where:
+		a              | b              | distance | result
+		"buenos aires" | "buenos aires" | 0        | 0
+		"tigre"        | "tirge"        | 1        | 1
+		"cordoba"      | "córdoba"      | 1        | 1
+		"mendoza"      | "mnedzoa"      | 2        | 2
+		"ca"           | "abc"          | 2        | 2
+		"sal"          | ""             | 3        | 3
+		"salta"        | ""             | 5        | 4
+		"rosario"      | "santa fe"     | 7        | 4
+	}
+
+	def "the distance of random pairs is the Damerau-Levenshtein distance up to the bound"() {
+		given:
+		Random random = new Random(max)
+		List<String> wrong = []
+
+		when:
+		10000.times { int i ->
+			String a = word(random, i % 10 == 0 ? 80 : 12)
+			String b = mutate(random, a, random.nextInt(2 * max + 2))
+			int distance = corrector.DamerauLevenshteinDistance(a, b)
+			int expected = distance <= max ? distance : max + 1
+			if (bounded.distance(a, b, max) != expected) {
+				wrong << "[" + a + "] [" + b + "] " + distance
+			}
+		}
+
+		then:
+		wrong == []
+
+		where:
+		max << [0, 1, 2, 3]
+	}
+
+	/**
+	 * Random word of the alphabet, of up to length chars.
+	 */
+	private static String word(Random random, int length) {
+		StringBuilder word = new StringBuilder()
+		random.nextInt(length + 1).times {
+			word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())))
+		}
+		word.toString()
+	}
+
+	/**
+	 * Applies random edits (insertions, deletions, substitutions and transpositions) to a word.
+	 */
+	private static String mutate(Random random, String word, int edits) {
+		StringBuilder mutated = new StringBuilder(word)
+		edits.times {
+			int operation = random.nextInt(4)
+			int position = mutated.length() == 0 ? 0 : random.nextInt(mutated.length())
+			char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()))
+			if (operation == 0) {
+				mutated.insert(position, c)
+			} else if (mutated.length() == 0) {
+				return
+			} else if (operation == 1) {
+				mutated.deleteCharAt(position)
+			} else if (operation == 2) {
+				mutated.setCharAt(position, c)
+			} else if (position + 1 < mutated.length()) {
+				char next = mutated.charAt(position + 1)
+				mutated.setCharAt(position + 1, mutated.charAt(position))
+				mutated.setCharAt(position, next)
+			}
+		}
+		mutated.toString()
+	}
+}
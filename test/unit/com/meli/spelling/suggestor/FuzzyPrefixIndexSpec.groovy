@@ -0,0 +1,149 @@
+package com.meli.spelling.suggestor
+
+import java.text.Normalizer
+
+import com.meli.spelling.ranking.Popularity
+
+import spock.lang.Shared
+import spock.lang.Specification
+
+/**
+ * Tests the FuzzyPrefixIndex against a brute force search: the distance of a name is the lowest optimal string
+ * alignment distance between the key and any prefix of the name, accents ignored, and the names are ranked by
+ * distance, then by popularity, then by entry.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+class FuzzyPrefixIndexSpec extends Specification {
+	static final String ALPHABET = "abcáñ "
+
+	@Shared
+	Random random = new Random(1)
+
+	@Shared
+	List<String> names = randomNames(random, 300)
+
+	@Shared
+	FuzzyPrefixIndex index = new FuzzyPrefixIndex(names)
+
+	@Shared
+	Popularity popularity = new Popularity()
+
+	def setupSpec() {
+		300.times {
+			popularity.record("context", names[random.nextInt(names.size())])
+		}
+	}
+
+	def "a key being typed with a typo is completed"() {
+		given:
+		FuzzyPrefixIndex cities = new FuzzyPrefixIndex(["río cuarto", "río ceballos", "rosario", "río tercero"])
+
+		expect:
+		cities.getTopKeysStartingNear(key, distance, 10, null) == expected
+
+		where:
+		key         | distance | expected
+		"rio cuatr" | 1        | ["río cuarto"]
+		"rio c"     | 0        | ["río cuarto", "río ceballos"]
+		"rsoario"   | 1        | ["rosario"]
+		"rio cuatr" | 0        | []
+	}
+
+	def "the best names are the ones of a brute force search"() {
+		given:
+		Random keys = new Random(distance)
+		List<String> wrong = []
+
+		when:
+		300.times {
+			String key = word(keys, keys.nextInt(6))
+			for (int limit : [1, 5, 50]) {
+				for (Popularity.Scope scope : [null, popularity.scope("context")]) {
+					List<String> expected = bruteForce(key, distance, limit, scope)
+					if (index.getTopKeysStartingNear(key, distance, limit, scope) != expected) {
+						wrong << "[" + key + "] " + limit
+					}
+				}
+			}
+		}
+
+		then:
+		wrong == []
+
+		where:
+		distance << [0, 1, 2]
+	}
+
+	/**
+	 * Best names starting with something near a key, comparing the key with every prefix of every name.
+	 */
+	private List<String> bruteForce(String key, int distance, int limit, Popularity.Scope scope) {
+		String folded = fold(key)
+		Map<String, Integer> near = [:]
+		names.each { String name ->
+			String foldedName = fold(name)
+			int nearest = (0..foldedName.length()).collect { osa(folded, foldedName.substring(0, it)) }.min()
+			if (nearest <= distance) {
+				near[name] = nearest
+			}
+		}
+		List<String> best = near.keySet().sort(false) { String a, String b ->
+			near[a] <=> near[b] ?: (scope == null ? 0 : scope.count(b) <=> scope.count(a)) ?: names.indexOf(a) <=> names.indexOf(b)
+		}
+		best.take(limit)
+	}
+
+	/**
+	 * Optimal string alignment distance: adjacent transpositions count as one edit.
+	 */
+	private static int osa(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1]
+		for (int i = 0; i <= a.length(); i++) {
+			d[i][0] = i
+		}
+		for (int j = 0; j <= b.length(); j++) {
+			d[0][j] = j
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1
+				d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost)
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+					d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1)
+				}
+			}
+		}
+		d[a.length()][b.length()]
+	}
+
+	/**
+	 * Removes the accents of a key.
+	 */
+	private static String fold(String key) {
+		Normalizer.normalize(key, Normalizer.Form.NFD).replaceAll("\\p{M}", "")
+	}
+
+	/**
+	 * Different random names of the alphabet.
+	 */
+	private static List<String> randomNames(Random random, int size) {
+		Set<String> names = new LinkedHashSet<String>()
+		while (names.size() < size) {
+			names << word(random, 1 + random.nextInt(10))
+		}
+		names as List
+	}
+
+	/**
+	 * Random word of the alphabet.
+	 */
+	private static String word(Random random, int length) {
+		StringBuilder word = new StringBuilder()
+		length.times {
+			word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())))
+		}
+		word.toString()
+	}
+}
@@ -0,0 +1,105 @@
+package com.meli.spelling.suggestor
+
+import com.meli.spelling.ranking.Popularity
+
+import spock.lang.Shared
+import spock.lang.Specification
+
+/**
+ * Tests the SuffixArrayIndex against the SuffixTreeIndex: built from the same names, both must find the same names
+ * containing a fragment and the same best names, in the same order.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+class SuffixArrayIndexSpec extends Specification {
+	static final String ALPHABET = "abñá "
+
+	static final List<String> NAMES = ["santa rosa", "loma hermosa", "villa rosa", "tolosa", "villa elisa", "san isidro",
+		"san martín", "villa rosa", "rosario", "la plata", "sarandí", "santa fe"]
+
+	@Shared
+	Random random = new Random(1)
+
+	@Shared
+	List<String> generated = (1..300).collect { word(random, 1 + random.nextInt(8)) }
+
+	@Shared
+	Popularity popularity = new Popularity()
+
+	def setupSpec() {
+		200.times {
+			popularity.record("context", generated[random.nextInt(generated.size())])
+		}
+		popularity.record("context", "villa elisa")
+	}
+
+	def "both indexes find the same names containing a fragment"() {
+		given:
+		SuffixArrayIndex array = SuffixArrayIndex.build(NAMES)
+		SuffixTreeIndex tree = new SuffixTreeIndex(NAMES)
+
+		expect:
+		names(array.getKeysContaining(fragment)) == names(tree.getKeysContaining(fragment))
+
+		where:
+		fragment << ["sa", "rosa", "villa", "a", "ñ", "xyz", "san martín"]
+	}
+
+	def "both indexes find the same best names"() {
+		given:
+		SuffixArrayIndex array = SuffixArrayIndex.build(NAMES)
+		SuffixTreeIndex tree = new SuffixTreeIndex(NAMES)
+		Popularity.Scope scope = ranked ? popularity.scope("context") : null
+
+		expect:
+		array.getTopKeysContaining(fragment, limit, scope) == tree.getTopKeysContaining(fragment, limit, scope)
+
+		where:
+		[fragment, limit, ranked] << [["sa", "osa", "a", "villa"], [1, 3, 20], [false, true]].combinations()
+	}
+
+	def "both indexes agree on random names with many ties"() {
+		given:
+		SuffixArrayIndex array = SuffixArrayIndex.build(generated)
+		SuffixTreeIndex tree = new SuffixTreeIndex(generated)
+		Random fragments = new Random(2)
+		List<String> wrong = []
+
+		when:
+		1000.times {
+			String fragment = word(fragments, 1 + fragments.nextInt(3))
+			if (names(array.getKeysContaining(fragment)) != names(tree.getKeysContaining(fragment))) {
+				wrong << fragment
+			}
+			for (int limit : [1, 5, 20]) {
+				for (Popularity.Scope scope : [null, popularity.scope("context")]) {
+					if (array.getTopKeysContaining(fragment, limit, scope) != tree.getTopKeysContaining(fragment, limit, scope)) {
+						wrong << fragment + " " + limit
+					}
+				}
+			}
+		}
+
+		then:
+		wrong == []
+	}
+
+	/**
+	 * Names found, without their order.
+	 */
+	private static Set<String> names(Iterable<? extends CharSequence> keys) {
+		keys.collect { it.toString() } as Set
+	}
+
+	/**
+	 * Random name of the alphabet.
+	 */
+	private static String word(Random random, int length) {
+		StringBuilder word = new StringBuilder()
+		length.times {
+			word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())))
+		}
+		word.toString()
+	}
+}
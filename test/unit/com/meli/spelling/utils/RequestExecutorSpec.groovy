@@ -0,0 +1,120 @@
+package com.meli.spelling.utils
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import javax.servlet.AsyncEvent
+import javax.servlet.AsyncListener
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+import org.springframework.mock.web.MockAsyncContext
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+/**
+ * Tests the asynchronous actions of the RequestExecutor: the response is written only by whoever completes the
+ * request first, the action or the timeout.
+ *
+ * @author Fabian Bertetto
+ *
+ */
+class RequestExecutorSpec extends Specification {
+	RequestExecutor executor = new RequestExecutor(1, 1, 200)
+	MockHttpServletRequest request = new MockHttpServletRequest()
+	MockHttpServletResponse response = new MockHttpServletResponse()
+	MockAsyncContext context = new MockAsyncContext(request, response)
+	AtomicInteger completed = new AtomicInteger()
+	PollingConditions conditions = new PollingConditions(timeout: 2)
+
+	def setup() {
+		request.setParameter("site", "MLA")
+		context.addListener([onComplete: { AsyncEvent event -> completed.incrementAndGet() }, onTimeout: { AsyncEvent event -> },
+			onError: { AsyncEvent event -> }, onStartAsync: { AsyncEvent event -> }] as AsyncListener)
+	}
+
+	def cleanup() {
+		executor.shutdown()
+	}
+
+	def "an action completed on time sends what it rendered"() {
+		when:
+		executor.dispatch(context, "test", System.nanoTime(), { HttpServletRequest asyncRequest, HttpServletResponse asyncResponse ->
+			asyncResponse.setContentType("text/plain;charset=UTF-8")
+			asyncResponse.getWriter().write(asyncRequest.getParameter("site"))
+		} as RequestExecutor.Action)
+
+		then:
+		conditions.eventually {
+			assert completed.get() == 1
+		}
+		response.status == 200
+		response.contentAsString == "MLA"
+	}
+
+	def "an action slower than the timeout is cancelled and the request answered with 503"() {
+		given:
+		CountDownLatch running = new CountDownLatch(1)
+		CountDownLatch interrupted = new CountDownLatch(1)
+
+		when:
+		executor.dispatch(context, "test", System.nanoTime(), { HttpServletRequest asyncRequest, HttpServletResponse asyncResponse ->
+			running.countDown()
+			try {
+				Thread.sleep(executor.getTimeout() * 10)
+			} catch (InterruptedException e) {
+				interrupted.countDown()
+				throw e
+			}
+			asyncResponse.getWriter().write("late")
+		} as RequestExecutor.Action)
+		running.await(1, TimeUnit.SECONDS)
+		Thread.sleep(executor.getTimeout())
+		// the container fires the timeout
+		context.getListeners()*.onTimeout(new AsyncEvent(context))
+
+		then:
+		interrupted.await(1, TimeUnit.SECONDS)
+		completed.get() == 1
+		response.status == 503
+		response.contentAsString == ""
+	}
+
+	def "an action that ignores the cancellation does not write the answered response"() {
+		when:
+		executor.dispatch(context, "test", System.nanoTime(), { HttpServletRequest asyncRequest, HttpServletResponse asyncResponse ->
+			long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(executor.getTimeout() * 2)
+			while (System.nanoTime() < end) {
+				// busy, not interruptible
+			}
+			asyncResponse.getWriter().write("late")
+		} as RequestExecutor.Action)
+		Thread.sleep(executor.getTimeout())
+		context.getListeners()*.onTimeout(new AsyncEvent(context))
+		Thread.sleep(executor.getTimeout() * 2)
+
+		then:
+		completed.get() == 1
+		response.status == 503
+		response.contentAsString == ""
+	}
+
+	def "a failed action is answered with 500 without what it rendered"() {
+		when:
+		executor.dispatch(context, "test", System.nanoTime(), { HttpServletRequest asyncRequest, HttpServletResponse asyncResponse ->
+			asyncResponse.getWriter().write("partial")
+			throw new IllegalStateException("failed")
+		} as RequestExecutor.Action)
+
+		then:
+		conditions.eventually {
+			assert completed.get() == 1
+		}
+		response.status == 500
+		response.contentAsString == ""
+	}
+}